@@ -0,0 +1,75 @@
+package eu.eumssi.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.eumssi.managers.uima.AnalysisResult;
+import eu.eumssi.managers.uima.EumssiException;
+import eu.eumssi.managers.uima.SpotlightStub;
+import eu.eumssi.managers.uima.UimaManager;
+
+/**
+ * Full analysis of a document with all annotators, against a local Spotlight stub.
+ * The result cache is disabled, so every invocation runs the pipeline. Run with
+ * <code>-t</code> to measure concurrent requests, and with <code>-p spotlightLatency=</code>
+ * to simulate a remote Spotlight server.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 5, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class AnalyzeBenchmark {
+
+	@Param({ "short", "medium", "long" })
+	public String corpus;
+
+	/**
+	 * Milliseconds the Spotlight stub waits before answering.
+	 */
+	@Param({ "0" })
+	public long spotlightLatency;
+
+	private String text;
+
+	private SpotlightStub spotlight;
+
+	private UimaManager manager;
+
+	@Setup
+	public void setup() throws IOException, EumssiException {
+		this.text = Corpus.document(this.corpus);
+		this.spotlight = new SpotlightStub(this.spotlightLatency);
+		System.setProperty("eumssi.uima.dbpediaUrl", this.spotlight.getUrl());
+		System.setProperty("eumssi.uima.cacheEnabled", "false");
+		System.setProperty("eumssi.uima.spotlightCacheEntries", "0");
+		this.manager = UimaManager.getInstance();
+	}
+
+	@TearDown
+	public void tearDown() {
+		UimaManager.shutdown();
+		this.spotlight.stop();
+	}
+
+	@Benchmark
+	public AnalysisResult analyze() throws EumssiException {
+		return this.manager.analyze(this.text);
+	}
+
+}
@@ -0,0 +1,104 @@
+package eu.eumssi.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
+
+/**
+ * Benchmark documents of different sizes, built from the paragraphs of a bundled news text,
+ * or read from a directory.
+ *
+ */
+public final class Corpus {
+
+	private static final String CORPUS_FILE = "/eu/eumssi/benchmarks/corpus.txt";
+
+	/**
+	 * Approximate document length in characters for each corpus size.
+	 */
+	public static final int SHORT = 500;
+
+	public static final int MEDIUM = 5000;
+
+	public static final int LONG = 50000;
+
+	private Corpus() {
+	}
+
+	/**
+	 * @param size "short", "medium" or "long"
+	 * @return a document of about the given size, made of whole paragraphs
+	 * @throws IOException
+	 */
+	public static String document(String size) throws IOException {
+		switch (size) {
+		case "short":
+			return document(SHORT);
+		case "medium":
+			return document(MEDIUM);
+		case "long":
+			return document(LONG);
+		default:
+			throw new IllegalArgumentException("unknown corpus size " + size);
+		}
+	}
+
+	/**
+	 * @param length minimum document length in characters
+	 * @return the bundled paragraphs, repeated until the document is at least this long
+	 * @throws IOException
+	 */
+	public static String document(int length) throws IOException {
+		String[] paragraphs = read().split("\n\n");
+		StringBuilder document = new StringBuilder();
+		for (int i = 0; document.length() < length; i++) {
+			if (document.length() > 0) {
+				document.append("\n\n");
+			}
+			document.append(paragraphs[i % paragraphs.length].trim());
+		}
+		return document.toString();
+	}
+
+	/**
+	 * @param name "short", "medium" or "long", "mixed" for all three, or a directory of
+	 * text files, one document per file
+	 * @return the documents of the named corpus
+	 * @throws IOException
+	 */
+	public static List<String> documents(String name) throws IOException {
+		List<String> documents = new ArrayList<String>();
+		File directory = new File(name);
+		if (directory.isDirectory()) {
+			File[] files = directory.listFiles(file -> file.isFile() && file.getName().endsWith(".txt"));
+			Arrays.sort(files);
+			for (File file : files) {
+				documents.add(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+			}
+			if (documents.isEmpty()) {
+				throw new IOException("no .txt files in " + directory);
+			}
+		} else if ("mixed".equals(name)) {
+			documents.add(document(SHORT));
+			documents.add(document(MEDIUM));
+			documents.add(document(LONG));
+		} else {
+			documents.add(document(name));
+		}
+		return documents;
+	}
+
+	private static String read() throws IOException {
+		try (InputStream in = Corpus.class.getResourceAsStream(CORPUS_FILE);
+				Scanner scanner = new Scanner(in, StandardCharsets.UTF_8.name())) {
+			return scanner.useDelimiter("\\A").next().replace("\r\n", "\n");
+		}
+	}
+
+}
@@ -0,0 +1,79 @@
+package eu.eumssi.benchmarks;
+
+import static org.apache.uima.fit.factory.AnalysisEngineFactory.createEngine;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.uima.UIMAException;
+import org.apache.uima.analysis_engine.AnalysisEngine;
+import org.apache.uima.jcas.JCas;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.tudarmstadt.ukp.dkpro.core.languagetool.LanguageToolSegmenter;
+
+/**
+ * Cost of a fresh JCas per document compared to resetting one JCas, as the pooled engines do.
+ * Both segment the document, so that the CAS heap holds as many annotations as in the service.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class JCasBenchmark {
+
+	@Param({ "short", "medium", "long" })
+	public String corpus;
+
+	private String text;
+
+	private AnalysisEngine segmenter;
+
+	private JCas jCas;
+
+	@Setup
+	public void setup() throws IOException, UIMAException {
+		this.text = Corpus.document(this.corpus);
+		this.segmenter = createEngine(LanguageToolSegmenter.class);
+		this.jCas = this.segmenter.newJCas();
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.segmenter.destroy();
+	}
+
+	@Benchmark
+	public JCas create() throws UIMAException {
+		JCas jCas = this.segmenter.newJCas();
+		return process(jCas);
+	}
+
+	@Benchmark
+	public JCas reuse() throws UIMAException {
+		this.jCas.reset();
+		return process(this.jCas);
+	}
+
+	private JCas process(JCas jCas) throws UIMAException {
+		jCas.setDocumentText(this.text);
+		jCas.setDocumentLanguage("en");
+		this.segmenter.process(jCas);
+		return jCas;
+	}
+
+}
@@ -0,0 +1,77 @@
+package eu.eumssi.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.eumssi.api.json.uima.JSONMeta;
+import eu.eumssi.api.json.uima.JSONResponse;
+import eu.eumssi.managers.uima.AnalysisResult;
+import eu.eumssi.managers.uima.DBpediaEntity;
+import eu.eumssi.managers.uima.Entity;
+import eu.eumssi.managers.uima.KeyPhrase;
+import eu.eumssi.managers.uima.SpotlightResource;
+import eu.eumssi.managers.uima.SpotlightStub;
+import eu.eumssi.managers.uima.TypeMapper;
+
+/**
+ * Serialization of an analysis result to JSON, with as many entities and keyphrases
+ * as the pipeline finds in the corpus document.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class JSONResponseBenchmark {
+
+	private static final String[] NER_LABELS = { "PERSON", "LOCATION", "ORGANIZATION", "MISC" };
+
+	@Param({ "short", "medium", "long" })
+	public String corpus;
+
+	private JSONResponse response;
+
+	@Setup
+	public void setup() throws IOException {
+		String text = Corpus.document(this.corpus);
+		TypeMapper mapper = TypeMapper.load();
+		List<DBpediaEntity> dbpedia = new ArrayList<DBpediaEntity>();
+		List<Entity> stanford = new ArrayList<Entity>();
+		List<KeyPhrase> kea = new ArrayList<KeyPhrase>();
+		for (SpotlightResource resource : SpotlightStub.resources(text)) {
+			String coveredText = text.substring(resource.getBegin(), resource.getEnd());
+			dbpedia.add(new DBpediaEntity(coveredText, resource.getUri(), resource.getTypes(),
+					resource.getBegin(), resource.getEnd(), mapper.map(resource.getTypes())));
+			String label = NER_LABELS[stanford.size() % NER_LABELS.length];
+			stanford.add(new Entity(coveredText, label, resource.getBegin(), resource.getEnd(), mapper.map(label)));
+			if (kea.size() < 20) {
+				kea.add(new KeyPhrase(coveredText, coveredText, coveredText.toLowerCase(), kea.size() + 1,
+						1.0 / (kea.size() + 1), resource.getBegin(), resource.getEnd()));
+			}
+		}
+		AnalysisResult result = new AnalysisResult(dbpedia, stanford, kea, "meta.extracted.text_nerl.dbpedia.all:(x)");
+		this.response = new JSONResponse(new JSONMeta(JSONMeta.StatusType.SUCCESS), result);
+	}
+
+	@Benchmark
+	public String toJson() {
+		return this.response.toJson();
+	}
+
+}
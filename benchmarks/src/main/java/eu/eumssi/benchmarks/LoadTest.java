@@ -0,0 +1,322 @@
+package eu.eumssi.benchmarks;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.webapp.WebAppContext;
+
+import eu.eumssi.managers.uima.SpotlightStub;
+
+/**
+ * End-to-end load test of the <code>/analyze</code> endpoint.
+ * Boots the service WAR in an embedded Jetty, with DBpedia Spotlight replaced by a
+ * {@link SpotlightStub}, replays a corpus against it and reports latency percentiles,
+ * throughput and errors. After a warm-up phase, whose results are discarded, requests are
+ * sent for a fixed duration, either as fast as the workers can (closed loop), or at a fixed
+ * rate (open loop). At a fixed rate, latency is measured from the time a request was due to
+ * be sent, so that a server falling behind shows up in the percentiles.
+ * <p>
+ * Options are given as <code>--name=value</code>:
+ * <ul>
+ * <li>war: service WAR to deploy (default ../target/EumssiUimaService-0.2.4.war)</li>
+ * <li>url: base URL of a running service instead, e.g. http://host:8080/webapp</li>
+ * <li>corpus: short, medium, long, mixed or a directory of .txt files (default mixed)</li>
+ * <li>concurrency: number of concurrent requests (default 8)</li>
+ * <li>rate: requests per second, 0 for a closed loop (default 0)</li>
+ * <li>warmup, duration: length of the phases in seconds (default 30, 60)</li>
+ * <li>spotlightLatency: milliseconds the Spotlight stub waits before answering (default 0)</li>
+ * <li>annotators, timeout: passed on to <code>/analyze</code></li>
+ * </ul>
+ *
+ */
+public class LoadTest {
+
+	private static final Map<String, String> DEFAULTS = new HashMap<String, String>();
+
+	static {
+		DEFAULTS.put("war", "../target/EumssiUimaService-0.2.4.war");
+		DEFAULTS.put("corpus", "mixed");
+		DEFAULTS.put("concurrency", "8");
+		DEFAULTS.put("rate", "0");
+		DEFAULTS.put("warmup", "30");
+		DEFAULTS.put("duration", "60");
+		DEFAULTS.put("spotlightLatency", "0");
+		DEFAULTS.put("readyTimeout", "600");
+		DEFAULTS.put("socketTimeout", "300");
+	}
+
+	private final Map<String, String> options;
+
+	private final List<String> documents;
+
+	private final int concurrency;
+
+	private final double rate;
+
+	private final CloseableHttpClient httpClient;
+
+	private String url;
+
+	/**
+	 * Outcome of one load phase.
+	 */
+	private static class PhaseResult {
+
+		private final long[] latencies;
+
+		private final Map<String, LongAdder> errors;
+
+		private final double seconds;
+
+		private PhaseResult(long[] latencies, Map<String, LongAdder> errors, double seconds) {
+			this.latencies = latencies;
+			this.errors = errors;
+			this.seconds = seconds;
+		}
+	}
+
+	/**
+	 * Latencies of the successful requests of one worker, in nanoseconds.
+	 */
+	private static class Recorder {
+
+		private long[] latencies = new long[1024];
+
+		private int count = 0;
+
+		private void record(long latency) {
+			if (this.count == this.latencies.length) {
+				this.latencies = Arrays.copyOf(this.latencies, 2 * this.count);
+			}
+			this.latencies[this.count++] = latency;
+		}
+	}
+
+	private LoadTest(Map<String, String> options) throws IOException {
+		this.options = options;
+		this.documents = Corpus.documents(option("corpus"));
+		this.concurrency = Integer.parseInt(option("concurrency"));
+		this.rate = Double.parseDouble(option("rate"));
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(this.concurrency);
+		connectionManager.setDefaultMaxPerRoute(this.concurrency);
+		int socketTimeout = (int) TimeUnit.SECONDS.toMillis(Long.parseLong(option("socketTimeout")));
+		this.httpClient = HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(RequestConfig.custom().setSocketTimeout(socketTimeout).build())
+				.build();
+	}
+
+	private String option(String name) {
+		return this.options.containsKey(name) ? this.options.get(name) : DEFAULTS.get(name);
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<String, String>();
+		for (String arg : args) {
+			if (!arg.startsWith("--") || !arg.contains("=")) {
+				System.err.println("usage: LoadTest [--name=value ...], see the class documentation for options");
+				System.exit(2);
+			}
+			options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+		}
+		new LoadTest(options).run();
+	}
+
+	private void run() throws Exception {
+		SpotlightStub spotlight = null;
+		Server server = null;
+		try {
+			this.url = option("url");
+			if (this.url == null) {
+				spotlight = new SpotlightStub(Long.parseLong(option("spotlightLatency")));
+				System.setProperty("eumssi.uima.dbpediaUrl", spotlight.getUrl());
+				System.setProperty("eumssi.uima.cacheEnabled", "false");
+				System.setProperty("eumssi.uima.spotlightCacheEntries", "0");
+				server = startServer(option("war"));
+				this.url = "http://127.0.0.1:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort() + "/webapp";
+			}
+			System.out.println("waiting for " + this.url + "/ready");
+			waitUntilReady(TimeUnit.SECONDS.toNanos(Long.parseLong(option("readyTimeout"))));
+			System.out.println(String.format(Locale.ROOT, "%d documents, concurrency %d, %s",
+					this.documents.size(), this.concurrency, this.rate > 0 ? this.rate + " requests/s" : "closed loop"));
+			report("warm-up", runPhase(TimeUnit.SECONDS.toNanos(Long.parseLong(option("warmup")))));
+			report("measurement", runPhase(TimeUnit.SECONDS.toNanos(Long.parseLong(option("duration")))));
+		} finally {
+			this.httpClient.close();
+			if (server != null) {
+				server.stop();
+			}
+			if (spotlight != null) {
+				spotlight.stop();
+			}
+		}
+	}
+
+	private static Server startServer(String war) throws Exception {
+		Server server = new Server(new InetSocketAddress("127.0.0.1", 0));
+		WebAppContext webapp = new WebAppContext();
+		webapp.setContextPath("/");
+		webapp.setWar(war);
+		// use the classes of this JVM, so that the system property overrides apply
+		webapp.setParentLoaderPriority(true);
+		server.setHandler(webapp);
+		server.start();
+		return server;
+	}
+
+	private void waitUntilReady(long timeoutNanos) throws IOException, InterruptedException {
+		long deadline = System.nanoTime() + timeoutNanos;
+		while (true) {
+			try (CloseableHttpResponse response = this.httpClient.execute(new HttpGet(this.url + "/ready"))) {
+				EntityUtils.consume(response.getEntity());
+				if (response.getStatusLine().getStatusCode() == 200) {
+					return;
+				}
+			}
+			if (System.nanoTime() > deadline) {
+				throw new IOException("service not ready after " + TimeUnit.NANOSECONDS.toSeconds(timeoutNanos) + " s");
+			}
+			Thread.sleep(1000);
+		}
+	}
+
+	private PhaseResult runPhase(long durationNanos) throws InterruptedException {
+		final long start = System.nanoTime();
+		final long end = start + durationNanos;
+		final AtomicLong sequence = new AtomicLong();
+		final Map<String, LongAdder> errors = new ConcurrentHashMap<String, LongAdder>();
+		List<Recorder> recorders = new ArrayList<Recorder>();
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int i = 0; i < this.concurrency; i++) {
+			Recorder recorder = new Recorder();
+			recorders.add(recorder);
+			Thread worker = new Thread(() -> {
+				while (true) {
+					long next = sequence.getAndIncrement();
+					long due = this.rate > 0 ? start + (long) (next * 1e9 / this.rate) : System.nanoTime();
+					if (due >= end) {
+						return;
+					}
+					long wait = due - System.nanoTime();
+					if (wait > 0) {
+						try {
+							TimeUnit.NANOSECONDS.sleep(wait);
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+					String error = send(this.documents.get((int) (next % this.documents.size())));
+					if (error == null) {
+						recorder.record(System.nanoTime() - due);
+					} else {
+						errors.computeIfAbsent(error, key -> new LongAdder()).increment();
+					}
+				}
+			}, "load-" + i);
+			workers.add(worker);
+			worker.start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		int count = 0;
+		for (Recorder recorder : recorders) {
+			count += recorder.count;
+		}
+		long[] latencies = new long[count];
+		int offset = 0;
+		for (Recorder recorder : recorders) {
+			System.arraycopy(recorder.latencies, 0, latencies, offset, recorder.count);
+			offset += recorder.count;
+		}
+		Arrays.sort(latencies);
+		return new PhaseResult(latencies, errors, seconds);
+	}
+
+	/**
+	 * @param text document to analyze
+	 * @return null if the request succeeded, a description of the error otherwise
+	 */
+	private String send(String text) {
+		String target = this.url + "/analyze";
+		if (option("timeout") != null) {
+			target += "?timeout=" + option("timeout");
+		}
+		HttpPost post = new HttpPost(target);
+		post.setHeader("Accept", "application/json");
+		List<NameValuePair> parameters = new ArrayList<NameValuePair>();
+		parameters.add(new BasicNameValuePair("text", text));
+		if (option("annotators") != null) {
+			parameters.add(new BasicNameValuePair("annotators", option("annotators")));
+		}
+		post.setEntity(new UrlEncodedFormEntity(parameters, StandardCharsets.UTF_8));
+		try (CloseableHttpResponse response = this.httpClient.execute(post)) {
+			EntityUtils.consume(response.getEntity());
+			int status = response.getStatusLine().getStatusCode();
+			return status == 200 ? null : "HTTP " + status;
+		} catch (IOException e) {
+			return e.getClass().getSimpleName();
+		}
+	}
+
+	private static void report(String phase, PhaseResult result) {
+		long failed = 0;
+		Map<String, Long> errors = new TreeMap<String, Long>();
+		for (Entry<String, LongAdder> error : result.errors.entrySet()) {
+			errors.put(error.getKey(), error.getValue().sum());
+			failed += error.getValue().sum();
+		}
+		long[] latencies = result.latencies;
+		System.out.println(phase + ":");
+		System.out.println(String.format(Locale.ROOT, "  requests    %d ok, %d failed in %.1f s",
+				latencies.length, failed, result.seconds));
+		System.out.println(String.format(Locale.ROOT, "  throughput  %.2f requests/s", latencies.length / result.seconds));
+		if (latencies.length > 0) {
+			System.out.println(String.format(Locale.ROOT, "  latency     p50 %.1f ms, p95 %.1f ms, p99 %.1f ms, max %.1f ms",
+					percentile(latencies, 50), percentile(latencies, 95), percentile(latencies, 99),
+					latencies[latencies.length - 1] / 1e6));
+		}
+		if (!errors.isEmpty()) {
+			System.out.println("  errors      " + errors);
+		}
+	}
+
+	/**
+	 * @param sorted latencies in nanoseconds, in ascending order
+	 * @param percent percentile to compute
+	 * @return the nearest-rank percentile in milliseconds
+	 */
+	private static double percentile(long[] sorted, double percent) {
+		int rank = (int) Math.ceil(percent / 100 * sorted.length);
+		return sorted[Math.max(0, rank - 1)] / 1e6;
+	}
+
+}
@@ -0,0 +1,80 @@
+package eu.eumssi.benchmarks;
+
+import static org.apache.uima.fit.util.JCasUtil.select;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.uima.UIMAException;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.dbpedia.spotlight.uima.types.TopDBpediaResource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.eumssi.managers.uima.AnalysisResult;
+import eu.eumssi.managers.uima.DBpediaEntity;
+import eu.eumssi.managers.uima.SpotlightResource;
+import eu.eumssi.managers.uima.SpotlightStub;
+import eu.eumssi.managers.uima.TypeMapper;
+
+/**
+ * Construction of the result lists from annotations, as done after each analysis:
+ * <code>entities</code> creates the typed entities from the Spotlight annotations of a CAS,
+ * <code>buckets</code> groups them by output type.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ResultBenchmark {
+
+	@Param({ "short", "medium", "long" })
+	public String corpus;
+
+	private JCas jCas;
+
+	private List<DBpediaEntity> entities;
+
+	private TypeMapper mapper;
+
+	@Setup
+	public void setup() throws IOException, UIMAException {
+		String text = Corpus.document(this.corpus);
+		this.jCas = JCasFactory.createJCas();
+		this.jCas.setDocumentText(text);
+		for (SpotlightResource resource : SpotlightStub.resources(text)) {
+			TopDBpediaResource annotation = new TopDBpediaResource(this.jCas, resource.getBegin(), resource.getEnd());
+			annotation.setUri(resource.getUri());
+			annotation.setTypes(resource.getTypes());
+			annotation.addToIndexes();
+		}
+		this.mapper = TypeMapper.load();
+		this.entities = entities();
+	}
+
+	@Benchmark
+	public List<DBpediaEntity> entities() {
+		return DBpediaEntity.fromResources(select(this.jCas, TopDBpediaResource.class), this.mapper);
+	}
+
+	@Benchmark
+	public Map<String, List<DBpediaEntity>> buckets() {
+		return AnalysisResult.byBucket(this.entities);
+	}
+
+}
@@ -0,0 +1,71 @@
+package eu.eumssi.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.eumssi.managers.uima.DBpediaEntity;
+import eu.eumssi.managers.uima.SimilarityQueryBuilder;
+import eu.eumssi.managers.uima.SpotlightResource;
+import eu.eumssi.managers.uima.SpotlightStub;
+import eu.eumssi.managers.uima.TypeMapper;
+
+/**
+ * Construction of the similarity query after each analysis:
+ * <code>memoized</code> reuses one builder, so its terms are escaped once,
+ * <code>unmemoized</code> uses a new builder for each query and escapes every term.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SimilarityQueryBenchmark {
+
+	private static final int MAX_CLAUSES = 64;
+
+	@Param({ "short", "medium", "long" })
+	public String corpus;
+
+	private List<DBpediaEntity> entities;
+
+	private SimilarityQueryBuilder builder;
+
+	@Setup
+	public void setup() throws IOException {
+		TypeMapper mapper = TypeMapper.load();
+		this.entities = new ArrayList<DBpediaEntity>();
+		String text = Corpus.document(this.corpus);
+		for (SpotlightResource resource : SpotlightStub.resources(text)) {
+			this.entities.add(new DBpediaEntity(text.substring(resource.getBegin(), resource.getEnd()), resource.getUri(),
+					resource.getTypes(), resource.getBegin(), resource.getEnd(), mapper.map(resource.getTypes())));
+		}
+		this.builder = new SimilarityQueryBuilder(MAX_CLAUSES);
+	}
+
+	@Benchmark
+	public String memoized() {
+		return this.builder.build(this.entities, null);
+	}
+
+	@Benchmark
+	public String unmemoized() {
+		return new SimilarityQueryBuilder(MAX_CLAUSES).build(this.entities, null);
+	}
+
+}
@@ -0,0 +1,74 @@
+package eu.eumssi.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.eumssi.managers.uima.SpotlightResource;
+import eu.eumssi.managers.uima.SpotlightStub;
+import eu.eumssi.managers.uima.TypeMapper;
+
+/**
+ * Conversion of DBpedia type lists and NER labels to output type buckets.
+ * <code>repeated</code> cycles through the type strings of a real document, as the service
+ * sees them, <code>distinct</code> never repeats a type string and so always matches the
+ * bucket patterns.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TypeMapperBenchmark {
+
+	private static final String[] NER_LABELS = { "PERSON", "LOCATION", "ORGANIZATION", "MISC" };
+
+	private TypeMapper mapper;
+
+	private String[] types;
+
+	/**
+	 * Position of a benchmark thread in the type strings.
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+		private int next = 0;
+	}
+
+	@Setup
+	public void setup() throws IOException {
+		this.mapper = TypeMapper.load();
+		List<SpotlightResource> resources = SpotlightStub.resources(Corpus.document(Corpus.SHORT));
+		this.types = new String[2 * resources.size()];
+		for (int i = 0; i < resources.size(); i++) {
+			this.types[2 * i] = NER_LABELS[i % NER_LABELS.length];
+			this.types[2 * i + 1] = resources.get(i).getTypes();
+		}
+	}
+
+	@Benchmark
+	public Set<String> repeated(Cursor cursor) {
+		return this.mapper.map(this.types[cursor.next++ % this.types.length]);
+	}
+
+	@Benchmark
+	public Set<String> distinct(Cursor cursor) {
+		int next = cursor.next++;
+		return this.mapper.map(this.types[next % this.types.length] + ",Benchmark:" + next);
+	}
+
+}
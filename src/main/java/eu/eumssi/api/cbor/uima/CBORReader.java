@@ -0,0 +1,167 @@
+package eu.eumssi.api.cbor.uima;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal CBOR (RFC 7049) decoder for clients of the analysis service.
+ * Data items are decoded to plain Java objects: integers to {@link Long}, floating point
+ * values to {@link Double}, text strings to {@link String}, byte strings to byte arrays,
+ * arrays to {@link List} and maps to {@link Map} with string keys. Tags are ignored.
+ * 
+ */
+public class CBORReader {
+
+	private static final Object BREAK = new Object();
+
+	private final DataInputStream in;
+
+	/**
+	 * @param in source stream, should be buffered
+	 */
+	public CBORReader(InputStream in) {
+		this.in = new DataInputStream(in);
+	}
+
+	/**
+	 * Reads the next data item
+	 * @return the decoded item
+	 * @throws IOException if the stream ends early or is not valid CBOR
+	 */
+	public Object read() throws IOException {
+		Object item = readItem();
+		if (item == BREAK) {
+			throw new IOException("Unexpected break in CBOR stream");
+		}
+		return item;
+	}
+
+	private Object readItem() throws IOException {
+		int initial = this.in.read();
+		if (initial < 0) {
+			throw new EOFException();
+		}
+		int major = initial >> 5;
+		int info = initial & 0x1f;
+		switch (major) {
+		case 0:
+			return readArgument(info);
+		case 1:
+			return -1 - readArgument(info);
+		case 2:
+			return readBytes(info);
+		case 3:
+			return new String(readBytes(info), StandardCharsets.UTF_8);
+		case 4:
+			List<Object> list = new ArrayList<Object>();
+			if (info == 31) {
+				for (Object item = readItem(); item != BREAK; item = readItem()) {
+					list.add(item);
+				}
+			} else {
+				for (long i = readArgument(info); i > 0; i--) {
+					list.add(read());
+				}
+			}
+			return list;
+		case 5:
+			Map<String, Object> map = new LinkedHashMap<String, Object>();
+			if (info == 31) {
+				for (Object key = readItem(); key != BREAK; key = readItem()) {
+					map.put(String.valueOf(key), read());
+				}
+			} else {
+				for (long i = readArgument(info); i > 0; i--) {
+					map.put(String.valueOf(read()), read());
+				}
+			}
+			return map;
+		case 6:
+			readArgument(info);
+			return read();
+		default:
+			return readSimple(info);
+		}
+	}
+
+	private Object readSimple(int info) throws IOException {
+		switch (info) {
+		case 20:
+			return Boolean.FALSE;
+		case 21:
+			return Boolean.TRUE;
+		case 22:
+		case 23:
+			return null;
+		case 25:
+			return (double) halfToFloat(this.in.readUnsignedShort());
+		case 26:
+			return (double) this.in.readFloat();
+		case 27:
+			return this.in.readDouble();
+		case 31:
+			return BREAK;
+		default:
+			throw new IOException("Unsupported CBOR simple value " + info);
+		}
+	}
+
+	private long readArgument(int info) throws IOException {
+		if (info < 24) {
+			return info;
+		}
+		switch (info) {
+		case 24:
+			return this.in.readUnsignedByte();
+		case 25:
+			return this.in.readUnsignedShort();
+		case 26:
+			return this.in.readInt() & 0xffffffffL;
+		case 27:
+			return this.in.readLong();
+		default:
+			throw new IOException("Invalid CBOR length " + info);
+		}
+	}
+
+	private byte[] readBytes(int info) throws IOException {
+		if (info == 31) {
+			// indefinite length, concatenate the chunks
+			ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+			for (Object chunk = readItem(); chunk != BREAK; chunk = readItem()) {
+				chunks.write(chunk instanceof String ? ((String) chunk).getBytes(StandardCharsets.UTF_8) : (byte[]) chunk);
+			}
+			return chunks.toByteArray();
+		}
+		long length = readArgument(info);
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("CBOR string too long: " + length);
+		}
+		byte[] bytes = new byte[(int) length];
+		this.in.readFully(bytes);
+		return bytes;
+	}
+
+	private static float halfToFloat(int half) {
+		int exponent = (half >> 10) & 0x1f;
+		int mantissa = half & 0x3ff;
+		float value;
+		if (exponent == 0) {
+			value = mantissa * (float) Math.pow(2, -24);
+		} else if (exponent == 31) {
+			value = mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+		} else {
+			value = (float) Math.pow(2, exponent - 15) * (1 + mantissa / 1024f);
+		}
+		return (half & 0x8000) != 0 ? -value : value;
+	}
+
+}
@@ -0,0 +1,154 @@
+package eu.eumssi.api.cbor.uima;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import eu.eumssi.managers.uima.AnalysisResult;
+import eu.eumssi.managers.uima.DBpediaEntity;
+import eu.eumssi.managers.uima.Entity;
+import eu.eumssi.managers.uima.KeyPhrase;
+
+/**
+ * Client side decoder for responses in the binary format written by {@link CBORResultWriter}.
+ * <p>
+ * Usage, with the <code>Accept: application/cbor</code> request header set:
+ * <pre>
+ * Map&lt;String, Object&gt; response = CBORResultReader.readResponse(connection.getInputStream());
+ * if ("ok".equals(CBORResultReader.getMeta(response).get("status"))) {
+ *     AnalysisResult result = CBORResultReader.toResult(response.get("data"));
+ * }
+ * </pre>
+ * 
+ */
+public class CBORResultReader {
+
+	private CBORResultReader() {
+	}
+
+	/**
+	 * Reads a complete response
+	 * @param in response body
+	 * @return the response map with "meta" and optionally "data"
+	 * @throws IOException if the response is not valid
+	 */
+	@SuppressWarnings("unchecked")
+	public static Map<String, Object> readResponse(InputStream in) throws IOException {
+		Object response = new CBORReader(new BufferedInputStream(in)).read();
+		if (!(response instanceof Map)) {
+			throw new IOException("Response is not a CBOR map");
+		}
+		return (Map<String, Object>) response;
+	}
+
+	/**
+	 * @param response a response read with {@link #readResponse(InputStream)}
+	 * @return the status message, with the keys "message", "code" and "status"
+	 */
+	@SuppressWarnings("unchecked")
+	public static Map<String, Object> getMeta(Map<String, Object> response) {
+		return (Map<String, Object>) response.get("meta");
+	}
+
+	/**
+	 * Converts the data of a batch response
+	 * @param data the decoded "data" value
+	 * @return analysis results by document id, in response order
+	 */
+	@SuppressWarnings("unchecked")
+	public static Map<String, AnalysisResult> toResults(Object data) {
+		Map<String, AnalysisResult> results = new LinkedHashMap<String, AnalysisResult>();
+		for (Entry<String, Object> entry : ((Map<String, Object>) data).entrySet()) {
+			results.put(entry.getKey(), toResult(entry.getValue()));
+		}
+		return results;
+	}
+
+	/**
+	 * Converts the data of a single document response
+	 * @param data the decoded "data" value
+	 * @return the analysis results, with null for sections that were not requested
+	 */
+	@SuppressWarnings("unchecked")
+	public static AnalysisResult toResult(Object data) {
+		Map<String, Object> map = (Map<String, Object>) data;
+		List<DBpediaEntity> dbpedia = null;
+		if (map.containsKey("dbpedia")) {
+			dbpedia = new ArrayList<DBpediaEntity>();
+			List<Object> items = readItems(map.get("dbpedia"));
+			List<Set<String>> buckets = readBuckets(map.get("dbpedia"), items.size());
+			for (int i = 0; i < items.size(); i++) {
+				List<Object> item = (List<Object>) items.get(i);
+				dbpedia.add(new DBpediaEntity((String) item.get(0), (String) item.get(1), (String) item.get(2),
+						toInt(item.get(3)), toInt(item.get(4)), buckets.get(i)));
+			}
+		}
+		List<Entity> stanford = null;
+		if (map.containsKey("stanford")) {
+			stanford = new ArrayList<Entity>();
+			List<Object> items = readItems(map.get("stanford"));
+			List<Set<String>> buckets = readBuckets(map.get("stanford"), items.size());
+			for (int i = 0; i < items.size(); i++) {
+				List<Object> item = (List<Object>) items.get(i);
+				stanford.add(new Entity((String) item.get(0), (String) item.get(1),
+						toInt(item.get(2)), toInt(item.get(3)), buckets.get(i)));
+			}
+		}
+		List<KeyPhrase> kea = null;
+		if (map.containsKey("kea")) {
+			kea = new ArrayList<KeyPhrase>();
+			for (Object keyPhrase : (List<Object>) map.get("kea")) {
+				List<Object> item = (List<Object>) keyPhrase;
+				kea.add(new KeyPhrase((String) item.get(0), (String) item.get(1), (String) item.get(2),
+						toInt(item.get(3)), ((Number) item.get(4)).doubleValue(), toInt(item.get(5)), toInt(item.get(6))));
+			}
+		}
+		String solrSimilarity = null;
+		if (map.containsKey("solr")) {
+			solrSimilarity = (String) ((Map<String, Object>) map.get("solr")).get("similarity");
+		}
+		Set<String> incomplete = new LinkedHashSet<String>();
+		if (map.containsKey("incomplete")) {
+			for (Object annotator : (List<Object>) map.get("incomplete")) {
+				incomplete.add((String) annotator);
+			}
+		}
+		return new AnalysisResult(dbpedia, stanford, kea, solrSimilarity, incomplete);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<Object> readItems(Object entities) {
+		return (List<Object>) ((Map<String, Object>) entities).get("items");
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<Set<String>> readBuckets(Object entities, int count) {
+		List<Set<String>> buckets = new ArrayList<Set<String>>(count);
+		for (int i = 0; i < count; i++) {
+			buckets.add(new LinkedHashSet<String>());
+		}
+		Map<String, Object> map = (Map<String, Object>) ((Map<String, Object>) entities).get("buckets");
+		for (Entry<String, Object> bucket : map.entrySet()) {
+			for (Object position : (List<Object>) bucket.getValue()) {
+				buckets.get(toInt(position)).add(bucket.getKey());
+			}
+		}
+		for (int i = 0; i < count; i++) {
+			buckets.set(i, Collections.unmodifiableSet(buckets.get(i)));
+		}
+		return buckets;
+	}
+
+	private static int toInt(Object value) {
+		return ((Number) value).intValue();
+	}
+
+}
@@ -0,0 +1,178 @@
+package eu.eumssi.api.cbor.uima;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import eu.eumssi.api.json.uima.JSONMeta;
+import eu.eumssi.managers.uima.AnalysisResult;
+import eu.eumssi.managers.uima.DBpediaEntity;
+import eu.eumssi.managers.uima.Entity;
+import eu.eumssi.managers.uima.KeyPhrase;
+
+/**
+ * Writes responses in the compact binary format described by
+ * <code>schema/analysis-result.cddl</code>.
+ * The structure follows the JSON format, except that entities and keyphrases are
+ * encoded as arrays instead of objects, and each entity is written only once, with
+ * the type buckets listing the positions of their entities.
+ * 
+ */
+public class CBORResultWriter {
+
+	/**
+	 * Media type of the binary format
+	 */
+	public static final String APPLICATION_CBOR = "application/cbor";
+
+	private CBORResultWriter() {
+	}
+
+	/**
+	 * Writes a complete response
+	 * @param out target writer
+	 * @param meta status message
+	 * @param data response data, may be null
+	 * @throws IOException
+	 */
+	public static void writeResponse(CBORWriter out, JSONMeta meta, Object data) throws IOException {
+		out.beginMap(data != null ? 2 : 1);
+		if (data != null) {
+			out.value("data");
+			writeData(out, data);
+		}
+		out.value("meta");
+		out.beginMap(3);
+		out.value("message").value(meta.getMessage());
+		out.value("code").value(meta.getCode());
+		out.value("status").value(meta.getStatus());
+		out.flush();
+	}
+
+	/**
+	 * Writes the "data" part of a response
+	 * @param out target writer
+	 * @param data an {@link AnalysisResult}, a map or list of them, or a plain value
+	 * @throws IOException
+	 */
+	public static void writeData(CBORWriter out, Object data) throws IOException {
+		if (data == null) {
+			out.nullValue();
+		} else if (data instanceof AnalysisResult) {
+			writeResult(out, (AnalysisResult) data);
+		} else if (data instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>) data;
+			out.beginMap(map.size());
+			for (Entry<?, ?> entry : map.entrySet()) {
+				out.value(String.valueOf(entry.getKey()));
+				writeData(out, entry.getValue());
+			}
+		} else if (data instanceof List) {
+			List<?> list = (List<?>) data;
+			out.beginArray(list.size());
+			for (Object item : list) {
+				writeData(out, item);
+			}
+		} else if (data instanceof Double || data instanceof Float) {
+			out.value(((Number) data).doubleValue());
+		} else if (data instanceof Number) {
+			out.value(((Number) data).longValue());
+		} else if (data instanceof Boolean) {
+			out.value(((Boolean) data).booleanValue());
+		} else {
+			out.value(data.toString());
+		}
+	}
+
+	/**
+	 * Writes the analysis results of one document
+	 * @param out target writer
+	 * @param result the analysis results
+	 * @throws IOException
+	 */
+	public static void writeResult(CBORWriter out, AnalysisResult result) throws IOException {
+		int sections = 0;
+		for (Object section : new Object[] {result.getDbpedia(), result.getStanford(), result.getKea(), result.getSolrSimilarity()}) {
+			if (section != null) {
+				sections++;
+			}
+		}
+		if (result.isPartial()) {
+			sections++;
+		}
+		out.beginMap(sections);
+		if (result.getDbpedia() != null) {
+			out.value("dbpedia");
+			writeEntities(out, result.getDbpedia());
+		}
+		if (result.getStanford() != null) {
+			out.value("stanford");
+			writeEntities(out, result.getStanford());
+		}
+		if (result.getKea() != null) {
+			writeKeyPhrases(out, result.getKea());
+		}
+		if (result.getSolrSimilarity() != null) {
+			out.value("solr");
+			out.beginMap(1);
+			out.value("similarity").value(result.getSolrSimilarity());
+		}
+		if (result.isPartial()) {
+			out.value("incomplete");
+			out.beginArray(result.getIncomplete().size());
+			for (String annotator : result.getIncomplete()) {
+				out.value(annotator);
+			}
+		}
+	}
+
+	private static void writeKeyPhrases(CBORWriter out, List<KeyPhrase> keyPhrases) throws IOException {
+		out.value("kea");
+		out.beginArray(keyPhrases.size());
+		for (KeyPhrase keyPhrase : keyPhrases) {
+			out.beginArray(7);
+			out.value(keyPhrase.getText());
+			out.value(keyPhrase.getKeyphrase());
+			out.value(keyPhrase.getStemmed());
+			out.value(keyPhrase.getRank());
+			out.value(keyPhrase.getProbability());
+			out.value(keyPhrase.getBegin());
+			out.value(keyPhrase.getEnd());
+		}
+	}
+
+	private static <E extends Entity> void writeEntities(CBORWriter out, List<E> entities) throws IOException {
+		out.beginMap(2);
+		out.value("items");
+		out.beginArray(entities.size());
+		Map<Entity, Integer> positions = new IdentityHashMap<Entity, Integer>();
+		for (Entity entity : entities) {
+			positions.put(entity, positions.size());
+			if (entity instanceof DBpediaEntity) {
+				out.beginArray(5);
+				out.value(entity.getText());
+				out.value(((DBpediaEntity) entity).getUri());
+			} else {
+				out.beginArray(4);
+				out.value(entity.getText());
+			}
+			out.value(entity.getType());
+			out.value(entity.getBegin());
+			out.value(entity.getEnd());
+		}
+		Map<String, List<E>> buckets = AnalysisResult.byBucket(entities);
+		buckets.remove(AnalysisResult.ALL);
+		out.value("buckets");
+		out.beginMap(buckets.size());
+		for (Entry<String, List<E>> bucket : buckets.entrySet()) {
+			out.value(bucket.getKey());
+			out.beginArray(bucket.getValue().size());
+			for (Entity entity : bucket.getValue()) {
+				out.value(positions.get(entity).intValue());
+			}
+		}
+	}
+
+}
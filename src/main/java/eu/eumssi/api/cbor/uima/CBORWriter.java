@@ -0,0 +1,159 @@
+package eu.eumssi.api.cbor.uima;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal streaming CBOR (RFC 7049) encoder, supporting the data items used in
+ * analysis responses: integers, doubles, text strings, booleans, null, and arrays
+ * and maps of known size.
+ * 
+ */
+public class CBORWriter {
+
+	private static final int MAJOR_UNSIGNED = 0;
+
+	private static final int MAJOR_NEGATIVE = 1;
+
+	private static final int MAJOR_TEXT = 3;
+
+	private static final int MAJOR_ARRAY = 4;
+
+	private static final int MAJOR_MAP = 5;
+
+	private static final int FALSE = 0xf4;
+
+	private static final int TRUE = 0xf5;
+
+	private static final int NULL = 0xf6;
+
+	private static final int FLOAT64 = 0xfb;
+
+	private final OutputStream out;
+
+	/**
+	 * @param out target stream, should be buffered
+	 */
+	public CBORWriter(OutputStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * Starts an array, to be followed by the given number of items
+	 * @param size number of items
+	 * @return this writer
+	 * @throws IOException
+	 */
+	public CBORWriter beginArray(int size) throws IOException {
+		writeHeader(MAJOR_ARRAY, size);
+		return this;
+	}
+
+	/**
+	 * Starts a map, to be followed by the given number of key/value pairs
+	 * @param size number of pairs
+	 * @return this writer
+	 * @throws IOException
+	 */
+	public CBORWriter beginMap(int size) throws IOException {
+		writeHeader(MAJOR_MAP, size);
+		return this;
+	}
+
+	/**
+	 * @param value text string, may be null
+	 * @return this writer
+	 * @throws IOException
+	 */
+	public CBORWriter value(String value) throws IOException {
+		if (value == null) {
+			return nullValue();
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeHeader(MAJOR_TEXT, bytes.length);
+		this.out.write(bytes);
+		return this;
+	}
+
+	/**
+	 * @param value integer value
+	 * @return this writer
+	 * @throws IOException
+	 */
+	public CBORWriter value(long value) throws IOException {
+		if (value >= 0) {
+			writeHeader(MAJOR_UNSIGNED, value);
+		} else {
+			writeHeader(MAJOR_NEGATIVE, -1 - value);
+		}
+		return this;
+	}
+
+	/**
+	 * @param value floating point value, always written in double precision
+	 * @return this writer
+	 * @throws IOException
+	 */
+	public CBORWriter value(double value) throws IOException {
+		this.out.write(FLOAT64);
+		writeLong(Double.doubleToLongBits(value));
+		return this;
+	}
+
+	/**
+	 * @param value boolean value
+	 * @return this writer
+	 * @throws IOException
+	 */
+	public CBORWriter value(boolean value) throws IOException {
+		this.out.write(value ? TRUE : FALSE);
+		return this;
+	}
+
+	/**
+	 * @return this writer
+	 * @throws IOException
+	 */
+	public CBORWriter nullValue() throws IOException {
+		this.out.write(NULL);
+		return this;
+	}
+
+	public void flush() throws IOException {
+		this.out.flush();
+	}
+
+	/**
+	 * Writes the initial byte of a data item and its argument in the shortest form
+	 */
+	private void writeHeader(int major, long argument) throws IOException {
+		int type = major << 5;
+		if (argument < 24) {
+			this.out.write(type | (int) argument);
+		} else if (argument < 0x100) {
+			this.out.write(type | 24);
+			this.out.write((int) argument);
+		} else if (argument < 0x10000) {
+			this.out.write(type | 25);
+			this.out.write((int) (argument >> 8));
+			this.out.write((int) argument);
+		} else if (argument < 0x100000000L) {
+			this.out.write(type | 26);
+			this.out.write((int) (argument >> 24));
+			this.out.write((int) (argument >> 16));
+			this.out.write((int) (argument >> 8));
+			this.out.write((int) argument);
+		} else {
+			this.out.write(type | 27);
+			writeLong(argument);
+		}
+	}
+
+	private void writeLong(long value) throws IOException {
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			this.out.write((int) (value >> shift));
+		}
+	}
+
+}
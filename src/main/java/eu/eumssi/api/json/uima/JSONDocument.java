@@ -0,0 +1,40 @@
+package eu.eumssi.api.json.uima;
+
+/**
+ * This class represents an input document of a multi-document request.
+ * 
+ */
+public class JSONDocument {
+
+	private String id;
+
+	private String text;
+
+	/**
+	 * Language of the text, optional.
+	 */
+	private String lang;
+
+	public JSONDocument(String id, String text) {
+		this.id = id;
+		this.text = text;
+	}
+
+	public JSONDocument(String id, String text, String lang) {
+		this(id, text);
+		this.lang = lang;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	public String getLang() {
+		return lang;
+	}
+
+}
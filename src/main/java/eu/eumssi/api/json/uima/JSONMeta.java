@@ -27,6 +27,10 @@ public class JSONMeta {
 	{
 		SUCCESS,
 		ERROR,
+		ERROR_OVERLOADED,
+		ERROR_UNAVAILABLE,
+		ERROR_TIMEOUT,
+		ERROR_NOT_STORED,
 		ERROR_UNKNOWN,
 	}
 	
@@ -39,21 +43,32 @@ public class JSONMeta {
 		statusMessages = new HashMap<StatusType, String>();
 		statusMessages.put(StatusType.SUCCESS, "Success");
 		statusMessages.put(StatusType.ERROR, "Error");
+		statusMessages.put(StatusType.ERROR_OVERLOADED, "Too many requests, retry later");
+		statusMessages.put(StatusType.ERROR_UNAVAILABLE, "Service busy, retry later");
+		statusMessages.put(StatusType.ERROR_TIMEOUT, "Analysis timed out");
+		statusMessages.put(StatusType.ERROR_NOT_STORED, "Document not found in the CAS store");
 		statusMessages.put(StatusType.ERROR_UNKNOWN, "Unknown error");
 		
 		statusCodes = new HashMap<StatusType, Integer>();
 		statusCodes.put(StatusType.SUCCESS, 0);
 		statusCodes.put(StatusType.ERROR, 1);
+		statusCodes.put(StatusType.ERROR_OVERLOADED, 2);
+		statusCodes.put(StatusType.ERROR_UNAVAILABLE, 3);
+		statusCodes.put(StatusType.ERROR_TIMEOUT, 4);
+		statusCodes.put(StatusType.ERROR_NOT_STORED, 5);
 		statusCodes.put(StatusType.ERROR_UNKNOWN, 999);
 		
 	}
 	
 	
-	@SuppressWarnings("unused")
 	private String message = "";
-	@SuppressWarnings("unused")
 	private String code = "";
 	private String status = "";
+
+	/**
+	 * Status type, only used to choose the HTTP status of the response.
+	 */
+	private transient StatusType statusType;
 	
 	/**
 	 * Default constructor
@@ -66,6 +81,7 @@ public class JSONMeta {
 		this.status = "error";
 		if (statusType == StatusType.SUCCESS)
 			this.status = "ok";		
+		this.statusType = statusType;
 	}
 	
 	/**
@@ -79,13 +95,26 @@ public class JSONMeta {
 		this.status = "error";
 		if (statusType == StatusType.SUCCESS)
 			this.status = "ok";		
+		this.statusType = statusType;
 	}
 	
 			
+	public String getMessage() {
+		return message;
+	}
+
+	public String getCode() {
+		return code;
+	}
+
 	public String getStatus() {
 		return status;
 	}
 
+	public StatusType getStatusType() {
+		return statusType;
+	}
+
 	/**
 	 * Converts the object to a JSON representation
 	 * @return A String in JSON format of itself
@@ -1,14 +1,31 @@
 package eu.eumssi.api.json.uima;
 
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
+
+import eu.eumssi.api.cbor.uima.CBORResultWriter;
+import eu.eumssi.api.cbor.uima.CBORWriter;
+import eu.eumssi.managers.uima.EumssiException;
+import eu.eumssi.managers.uima.Histogram;
+import eu.eumssi.managers.uima.MetricsRegistry;
 
 /**
  * This class represents a response message.
+ * Responses are written straight to the output stream, see {@link JSONResultWriter}.
  * 
  */
 public class JSONResponse {
@@ -16,13 +33,25 @@ public class JSONResponse {
 	/**
 	 * JSON converter
 	 */
-	private static Gson gson = new GsonBuilder().disableHtmlEscaping().setPrettyPrinting().create();
+	private static Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+
+	/**
+	 * Media type of newline-delimited JSON streams.
+	 */
+	public static final String NDJSON = "application/x-ndjson; charset=utf-8";
+
+	private static final Histogram serializationTimer = MetricsRegistry.histogram("eumssi_serialization_seconds");
 
 
 	private Object data = null;
 
 	private JSONMeta meta = null;	
 
+	/**
+	 * Seconds after which the client may retry, sent as Retry-After header if positive.
+	 */
+	private transient int retryAfter = 0;
+
 	public JSONResponse(JSONMeta meta, Object data){				
 		this.data = data;
 		this.meta = meta;
@@ -33,6 +62,10 @@ public class JSONResponse {
 	public JSONResponse(JSONMeta.StatusType statusType){
 		this.meta = new JSONMeta(statusType);
 	}
+	public JSONResponse(EumssiException e){
+		this.meta = new JSONMeta(e.getStatusType());
+		this.retryAfter = e.getRetryAfter();
+	}
 
 	public Object getData() {
 		return data;
@@ -43,13 +76,44 @@ public class JSONResponse {
 	}
 
 
+	/**
+	 * Writes the JSON representation of the object
+	 * @param writer target writer, flushed but not closed
+	 * @param pretty indent the output for readability
+	 * @throws IOException
+	 */
+	public void write(Writer writer, boolean pretty) throws IOException
+	{
+		JsonWriter out = new JsonWriter(writer);
+		out.setSerializeNulls(false);
+		if (pretty) {
+			out.setIndent("  ");
+		}
+		out.beginObject();
+		if (this.data != null) {
+			out.name("data");
+			JSONResultWriter.writeData(out, this.data);
+		}
+		out.name("meta");
+		gson.toJson(this.meta, JSONMeta.class, out);
+		out.endObject();
+		out.flush();
+	}
+
 	/**
 	 * Converts the object to a JSON representation
 	 * @return A String in JSON format of itself
 	 */
 	public String toJson()
 	{		
-		return JSONResponse.gson.toJson(this, this.getClass());			
+		StringWriter writer = new StringWriter();
+		try {
+			write(writer, false);
+		} catch (IOException e) {
+			// cannot happen with a StringWriter
+			throw new IllegalStateException(e);
+		}
+		return writer.toString();
 	}
 
 	public static JSONResponse fromJson(String json)
@@ -60,11 +124,82 @@ public class JSONResponse {
 
 
 	public Response toResponse() {
-		if (this.meta.getStatus().equals("ok")) {
-			return Response.ok(this.toJson(),MediaType.APPLICATION_JSON).build();
+		return toResponse(false);
+	}
+
+	/**
+	 * Builds a response that streams the JSON representation to the client
+	 * @param pretty indent the output for readability
+	 * @return the response
+	 */
+	public Response toResponse(boolean pretty) {
+		return toResponse(false, pretty);
+	}
+
+	/**
+	 * Builds a response that streams the JSON or binary representation to the client
+	 * @param binary use the CBOR format of {@link CBORResultWriter} instead of JSON
+	 * @param pretty indent the JSON output for readability, ignored for the binary format
+	 * @return the response
+	 */
+	public Response toResponse(boolean binary, boolean pretty) {
+		StreamingOutput entity;
+		String type;
+		if (binary) {
+			type = CBORResultWriter.APPLICATION_CBOR;
+			entity = output -> {
+				long start = System.nanoTime();
+				CBORResultWriter.writeResponse(new CBORWriter(new BufferedOutputStream(output)), this.meta, this.data);
+				serializationTimer.observeSince(start);
+			};
 		} else {
-			return Response.status(Response.Status.BAD_REQUEST).type(MediaType.APPLICATION_JSON).entity(this.toJson()).build();
+			type = MediaType.APPLICATION_JSON;
+			entity = output -> {
+				long start = System.nanoTime();
+				Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+				write(writer, pretty);
+				serializationTimer.observeSince(start);
+			};
+		}
+		if (this.meta.getStatus().equals("ok")) {
+			return Response.ok(entity,type).build();
+		}
+		Response.ResponseBuilder builder = Response.status(httpStatus(this.meta.getStatusType())).type(type).entity(entity);
+		if (this.retryAfter > 0) {
+			builder.header("Retry-After", this.retryAfter);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Builds a response for an NDJSON endpoint: the status as a single line, as written for
+	 * each document of a stream, see {@link JSONResult}
+	 * @return the response
+	 */
+	public Response toNdjsonResponse() {
+		String line = new JSONResult(null, this.meta, this.data).toJson() + "\n";
+		Response.ResponseBuilder builder = Response.status(this.meta.getStatus().equals("ok")
+				? Response.Status.OK.getStatusCode() : httpStatus(this.meta.getStatusType()))
+				.type(NDJSON).entity(line);
+		if (this.retryAfter > 0) {
+			builder.header("Retry-After", this.retryAfter);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * @param statusType status type of an error, may be null
+	 * @return the HTTP status code for the error
+	 */
+	private static int httpStatus(JSONMeta.StatusType statusType) {
+		if (statusType == JSONMeta.StatusType.ERROR_OVERLOADED) {
+			return 429;
+		} else if (statusType == JSONMeta.StatusType.ERROR_UNAVAILABLE || statusType == JSONMeta.StatusType.ERROR_TIMEOUT) {
+			return Response.Status.SERVICE_UNAVAILABLE.getStatusCode();
+		} else if (statusType == JSONMeta.StatusType.ERROR_NOT_STORED) {
+			return Response.Status.NOT_FOUND.getStatusCode();
 		}
+		return Response.Status.BAD_REQUEST.getStatusCode();
 	}
 	
 }
@@ -0,0 +1,80 @@
+package eu.eumssi.api.json.uima;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * This class represents the result for one document of a multi-document stream.
+ * Unlike {@link JSONResponse} it is serialized on a single line.
+ * 
+ */
+public class JSONResult {
+
+	/**
+	 * JSON converter
+	 */
+	private static Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+
+	private String id = null;
+
+	private JSONMeta meta = null;
+
+	private Object data = null;
+
+	public JSONResult(String id, JSONMeta meta, Object data) {
+		this.id = id;
+		this.meta = meta;
+		this.data = data;
+	}
+
+	public JSONResult(String id, JSONMeta.StatusType statusType) {
+		this.id = id;
+		this.meta = new JSONMeta(statusType);
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public JSONMeta getMeta() {
+		return meta;
+	}
+
+	public Object getData() {
+		return data;
+	}
+
+	/**
+	 * Converts the object to a JSON representation
+	 * @return A single line String in JSON format of itself
+	 */
+	public String toJson()
+	{
+		StringWriter writer = new StringWriter();
+		try {
+			JsonWriter out = new JsonWriter(writer);
+			out.setSerializeNulls(false);
+			out.beginObject();
+			if (this.id != null) {
+				out.name("id").value(this.id);
+			}
+			out.name("meta");
+			JSONResult.gson.toJson(this.meta, JSONMeta.class, out);
+			if (this.data != null) {
+				out.name("data");
+				JSONResultWriter.writeData(out, this.data);
+			}
+			out.endObject();
+			out.flush();
+		} catch (IOException e) {
+			// cannot happen with a StringWriter
+			throw new IllegalStateException(e);
+		}
+		return writer.toString();
+	}
+
+}
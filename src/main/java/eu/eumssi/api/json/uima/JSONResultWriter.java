@@ -0,0 +1,129 @@
+package eu.eumssi.api.json.uima;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
+
+import eu.eumssi.managers.uima.AnalysisResult;
+import eu.eumssi.managers.uima.DBpediaEntity;
+import eu.eumssi.managers.uima.Entity;
+import eu.eumssi.managers.uima.KeyPhrase;
+
+/**
+ * Writes analysis results directly to a streaming JSON writer, without building an
+ * intermediate object tree.
+ * 
+ */
+public class JSONResultWriter {
+
+	/**
+	 * JSON converter for data other than analysis results
+	 */
+	private static Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+
+	private JSONResultWriter() {
+	}
+
+	/**
+	 * Writes the "data" part of a response
+	 * @param out target writer
+	 * @param data an {@link AnalysisResult}, a map of them, or any object Gson can serialize
+	 * @throws IOException
+	 */
+	public static void writeData(JsonWriter out, Object data) throws IOException {
+		if (data == null) {
+			out.nullValue();
+		} else if (data instanceof AnalysisResult) {
+			writeResult(out, (AnalysisResult) data);
+		} else if (data instanceof Map) {
+			out.beginObject();
+			for (Entry<?, ?> entry : ((Map<?, ?>) data).entrySet()) {
+				out.name(String.valueOf(entry.getKey()));
+				writeData(out, entry.getValue());
+			}
+			out.endObject();
+		} else {
+			gson.toJson(data, data.getClass(), out);
+		}
+	}
+
+	/**
+	 * Writes the analysis results of one document
+	 * @param out target writer
+	 * @param result the analysis results
+	 * @throws IOException
+	 */
+	public static void writeResult(JsonWriter out, AnalysisResult result) throws IOException {
+		out.beginObject();
+		if (result.getDbpedia() != null) {
+			out.name("dbpedia");
+			writeEntities(out, result.getDbpedia());
+		}
+		if (result.getStanford() != null) {
+			out.name("stanford");
+			writeEntities(out, result.getStanford());
+		}
+		if (result.getKea() != null) {
+			writeKeyPhrases(out, result.getKea());
+		}
+		if (result.getSolrSimilarity() != null) {
+			out.name("solr");
+			out.beginObject();
+			out.name("similarity").value(result.getSolrSimilarity());
+			out.endObject();
+		}
+		if (result.isPartial()) {
+			out.name("incomplete");
+			out.beginArray();
+			for (String annotator : result.getIncomplete()) {
+				out.value(annotator);
+			}
+			out.endArray();
+		}
+		out.endObject();
+	}
+
+	private static void writeKeyPhrases(JsonWriter out, List<KeyPhrase> keyPhrases) throws IOException {
+		out.name("kea");
+		out.beginArray();
+		for (KeyPhrase keyPhrase : keyPhrases) {
+			out.beginObject();
+			out.name("text").value(keyPhrase.getText());
+			out.name("keyphrase").value(keyPhrase.getKeyphrase());
+			out.name("stemmed").value(keyPhrase.getStemmed());
+			out.name("rank").value(keyPhrase.getRank());
+			out.name("probability").value(keyPhrase.getProbability());
+			out.name("begin").value(keyPhrase.getBegin());
+			out.name("end").value(keyPhrase.getEnd());
+			out.endObject();
+		}
+		out.endArray();
+	}
+
+	private static <E extends Entity> void writeEntities(JsonWriter out, List<E> entities) throws IOException {
+		out.beginObject();
+		for (Entry<String, List<E>> bucket : AnalysisResult.byBucket(entities).entrySet()) {
+			out.name(bucket.getKey());
+			out.beginArray();
+			for (Entity entity : bucket.getValue()) {
+				out.beginObject();
+				out.name("text").value(entity.getText());
+				if (entity instanceof DBpediaEntity) {
+					out.name("uri").value(((DBpediaEntity) entity).getUri());
+				}
+				out.name("type").value(entity.getType());
+				out.name("begin").value(entity.getBegin());
+				out.name("end").value(entity.getEnd());
+				out.endObject();
+			}
+			out.endArray();
+		}
+		out.endObject();
+	}
+
+}
@@ -0,0 +1,193 @@
+package eu.eumssi.api.uima;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import eu.eumssi.api.json.uima.JSONDocument;
+import eu.eumssi.api.json.uima.JSONMeta;
+import eu.eumssi.api.json.uima.JSONResult;
+import eu.eumssi.managers.uima.AdmissionController;
+import eu.eumssi.managers.uima.AnalysisResult;
+import eu.eumssi.managers.uima.Annotators;
+import eu.eumssi.managers.uima.EumssiException;
+import eu.eumssi.managers.uima.UimaManager;
+
+/**
+ * Streams analysis results for a newline-delimited JSON stream of documents.
+ * At most {@link UimaManager#getStreamMaxInFlight()} documents are being analyzed at any time;
+ * once that limit is reached no more input is read until a result has been written,
+ * so memory use does not depend on the length of the stream.
+ * When indexing, results are sent to Solr and only the status of each document is written,
+ * once Solr acknowledged it; documents waiting for that do not count towards the limit.
+ * When re-extracting, results are read from the stored CASes instead of running the pipeline.
+ * If the stream fails, e.g. because the client disconnected, the documents still being analyzed are cancelled.
+ * 
+ */
+public class AnalysisStream implements StreamingOutput {
+
+	/**
+	 * Logger for this class and subclasses.
+	 */
+	protected final Log log = LogFactory.getLog(getClass());
+
+	/**
+	 * JSON converter for input lines
+	 */
+	private static Gson gson = new Gson();
+
+	private final UimaManager uimaManager;
+
+	private final InputStream input;
+
+	private final Annotators annotators;
+
+	private final boolean index;
+
+	private final boolean reextract;
+
+	/**
+	 * Language of documents that do not specify one, null for the default.
+	 */
+	private final String language;
+
+	public AnalysisStream(UimaManager uimaManager, InputStream input, Annotators annotators) {
+		this(uimaManager, input, null, annotators, false, false);
+	}
+
+	public AnalysisStream(UimaManager uimaManager, InputStream input, String language, Annotators annotators,
+			boolean index, boolean reextract) {
+		this.uimaManager = uimaManager;
+		this.input = input;
+		this.language = language;
+		this.annotators = annotators;
+		this.index = index;
+		this.reextract = reextract;
+	}
+
+	@Override
+	public void write(OutputStream output) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(this.input, StandardCharsets.UTF_8));
+		Writer writer = new OutputStreamWriter(output, StandardCharsets.UTF_8);
+		BlockingQueue<JSONResult> completed = new LinkedBlockingQueue<JSONResult>();
+		int maxInFlight = Math.max(1, this.uimaManager.getStreamMaxInFlight());
+		int inFlight = 0;
+		// analyses that finished, their results may still be waiting for Solr
+		BlockingQueue<Boolean> analyzed = new LinkedBlockingQueue<Boolean>();
+		int unwritten = 0;
+		Set<CompletableFuture<AnalysisResult>> pending = ConcurrentHashMap.newKeySet();
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.trim().isEmpty()) {
+					continue;
+				}
+				JSONDocument document = parse(line);
+				if (document == null || document.getText() == null || document.getText().isEmpty()
+						|| (this.index && (document.getId() == null || document.getId().isEmpty()))) {
+					writeLine(writer, new JSONResult(document == null ? null : document.getId(), JSONMeta.StatusType.ERROR));
+					continue;
+				}
+				final String id = document.getId();
+				String language = document.getLang() != null ? document.getLang() : this.language;
+				CompletableFuture<AnalysisResult> analysis;
+				if (this.reextract) {
+					analysis = this.uimaManager.reextractAsync(document.getText(), language, this.annotators,
+							AdmissionController.Lane.BULK);
+				} else {
+					analysis = this.uimaManager.analyzeAsync(document.getText(), language, this.annotators,
+							AdmissionController.Lane.BULK, 0);
+				}
+				CompletableFuture<AnalysisResult> done = this.index ? this.uimaManager.indexAsync(id, analysis) : analysis;
+				pending.add(done);
+				analysis.whenComplete((data, error) -> analyzed.add(Boolean.TRUE));
+				done.whenComplete((data, error) -> {
+					pending.remove(done);
+					completed.add(error == null
+							? new JSONResult(id, new JSONMeta(JSONMeta.StatusType.SUCCESS), this.index ? null : data)
+							: toResult(id, error));
+				});
+				inFlight++;
+				unwritten++;
+				// write out whatever is done, then block while the pipeline is full
+				unwritten -= writeCompleted(writer, completed);
+				for (Boolean finished = analyzed.poll(); finished != null; finished = analyzed.poll()) {
+					inFlight--;
+				}
+				while (inFlight >= maxInFlight) {
+					writer.flush();
+					analyzed.take();
+					inFlight--;
+					unwritten -= writeCompleted(writer, completed);
+				}
+			}
+			while (unwritten > 0) {
+				writer.flush();
+				writeLine(writer, completed.take());
+				unwritten--;
+			}
+			writer.flush();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for analysis results");
+		} finally {
+			// nothing is left after a complete stream
+			for (CompletableFuture<AnalysisResult> analysis : pending) {
+				analysis.cancel(true);
+			}
+		}
+	}
+
+	private JSONDocument parse(String line) {
+		try {
+			return gson.fromJson(line, JSONDocument.class);
+		} catch (JsonParseException e) {
+			return null;
+		}
+	}
+
+	private JSONResult toResult(String id, Throwable error) {
+		if (error instanceof EumssiException) {
+			return new JSONResult(id, ((EumssiException) error).getStatusType());
+		}
+		log.error("Unknown exception", error);
+		return new JSONResult(id, JSONMeta.StatusType.ERROR_UNKNOWN);
+	}
+
+	/**
+	 * @return the number of results written
+	 */
+	private static int writeCompleted(Writer writer, BlockingQueue<JSONResult> completed) throws IOException {
+		int written = 0;
+		for (JSONResult result = completed.poll(); result != null; result = completed.poll()) {
+			writeLine(writer, result);
+			written++;
+		}
+		return written;
+	}
+
+	private static void writeLine(Writer writer, JSONResult result) throws IOException {
+		writer.write(result.toJson());
+		writer.write('\n');
+	}
+
+}
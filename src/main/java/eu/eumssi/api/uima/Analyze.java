@@ -1,28 +1,58 @@
 package eu.eumssi.api.uima;
 
-import java.net.UnknownHostException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
 
 import javax.servlet.ServletConfig;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.FormParam;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.ConnectionCallback;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import eu.eumssi.api.cbor.uima.CBORResultWriter;
+import eu.eumssi.api.json.uima.JSONDocument;
 import eu.eumssi.api.json.uima.JSONMeta;
 import eu.eumssi.api.json.uima.JSONResponse;
+import eu.eumssi.managers.uima.AdmissionController;
+import eu.eumssi.managers.uima.AnalysisResult;
+import eu.eumssi.managers.uima.Annotators;
 import eu.eumssi.managers.uima.EumssiException;
 import eu.eumssi.managers.uima.UimaManager;
 
 /**
- * Analyze text and return results in JSON format
+ * Analyze text and return results in JSON format, or in the binary format of
+ * {@link CBORResultWriter} if the client prefers <code>application/cbor</code>
+ * <p>
+ * Requests are processed asynchronously: the analysis runs on the threads of the
+ * {@link UimaManager}, and the container thread is released until the response is ready.
  * 
  * @author jens.grivolla
  * 
@@ -38,67 +68,340 @@ public class Analyze {
 	@Context
 	ServletConfig config;
 
-	private UimaManager uimaManager;
+	@Context
+	HttpHeaders headers;
 
-	public Analyze() throws UnknownHostException, EumssiException {
-		this.uimaManager = UimaManager.getInstance();
-	}
+	private static final MediaType CBOR_TYPE = MediaType.valueOf(CBORResultWriter.APPLICATION_CBOR);
+
+	private static final String SOLR_NOT_CONFIGURED = "Solr indexing is not configured";
+
+	private static final String CAS_STORE_NOT_CONFIGURED = "The CAS store is not configured";
+
+	/**
+	 * JSON converter for batch input
+	 */
+	private static Gson gson = new Gson();
+
+	private static final Type documentListType = new TypeToken<List<JSONDocument>>(){}.getType();
 
 	
 	@GET
-	@Produces("application/json; charset=utf-8")
-	public Response analyzeGET(
-			@QueryParam("text") String text) {
-		return analyzePOST(text);
+	@Produces({"application/json; charset=utf-8", CBORResultWriter.APPLICATION_CBOR})
+	public void analyzeGET(
+			@Suspended AsyncResponse asyncResponse,
+			@QueryParam("text") String text,
+			@QueryParam("lang") String lang,
+			@QueryParam("annotators") String annotators,
+			@QueryParam("timeout") @DefaultValue("0") long timeout,
+			@QueryParam("reextract") @DefaultValue("false") boolean reextract,
+			@QueryParam("pretty") @DefaultValue("false") boolean pretty) {
+		analyze(asyncResponse, text, lang, annotators, timeout, reextract, pretty);
 	}
 	
 	
 	/**
 	 * Analyze text
 	 * Invalid items are skipped without error message, check the item count
+	 * The options timeout, reextract and pretty can be sent as form parameters or in the query
+	 * string; form parameters take precedence.
 	 * 
+	 * @param asyncResponse the suspended response, resumed with the results
 	 * @param text (required): plain text to process
+	 * @param lang (optional): language of the text, e.g. "de", or "auto" to detect it; the
+	 * configured default language, or the detected one if detection is enabled, by default
+	 * @param annotators (optional): comma separated list of annotators to run, out of
+	 * dbpedia, ner, pos, chunk and kea, e.g. "ner,kea"; all by default. Output sections of
+	 * annotators that are not run, or have no models for the language, are left out.
+	 * @param timeout (optional): time budget in milliseconds, capped by the server maximum.
+	 * If DBpedia Spotlight does not answer in time, the results are returned without the
+	 * "dbpedia" section and list it under "incomplete".
+	 * @param reextract (optional): build the results from the CAS stored when the text was last
+	 * analyzed, without running the pipeline, e.g. after a change of the type mapping. Sections of
+	 * annotators that were not run at the time are left out.
+	 * @param pretty (optional): indent the JSON output, for debugging
+	 * @param formTimeout timeout sent as a form parameter, null if not sent
+	 * @param formReextract reextract sent as a form parameter, null if not sent
+	 * @param formPretty pretty sent as a form parameter, null if not sent
 	 * 
 	 * @return Returns status message and analysis results
 	 * 
 	 * <br><br>JSON Format for "data":<br>
 	 * <code>
 	 * {
-     *      <id_1>:<analysis results in process-specific JSON format>,
-     *      <id_2>: ...
+     *      "dbpedia": {&lt;type&gt;: [&lt;resource&gt;, ...], "all": [...]},
+     *      "stanford": {&lt;type&gt;: [&lt;entity&gt;, ...], "all": [...]},
+     *      "kea": [&lt;keyphrase&gt;, ...],
+     *      "solr": {"similarity": &lt;query&gt;}
      * }
 	 * </code>
 	 * 
 	 *  <br><br>List of returned status type errors.
 	 *  <br>
+	 *  <br><code>StatusType.ERROR</code> (Error 1) if an unknown annotator or unsupported language is requested,
+	 *  or re-extraction is requested but the CAS store is not configured.
+	 *  <br><code>StatusType.ERROR_TIMEOUT</code> (Error 4) if the analysis did not finish in time.
+	 *  <br><code>StatusType.ERROR_UNAVAILABLE</code> (HTTP 503 with Retry-After) while the pipeline is still being built and warmed up.
+	 *  <br><code>StatusType.ERROR_NOT_STORED</code> (Error 5) if re-extraction is requested for a text that is not stored.
 	 *  <br><code>StatusType.ERROR_UNKNOWN</code> (Error 999) if an unhandled exception is thrown.
 	 *
 	 */
 	@POST
-	@Produces("application/json; charset=utf-8")
-	public Response analyzePOST(
-			@FormParam("text") String text) {
+	@Produces({"application/json; charset=utf-8", CBORResultWriter.APPLICATION_CBOR})
+	public void analyzePOST(
+			@Suspended AsyncResponse asyncResponse,
+			@FormParam("text") String text,
+			@FormParam("lang") String lang,
+			@FormParam("annotators") String annotators,
+			@QueryParam("timeout") @DefaultValue("0") long timeout,
+			@QueryParam("reextract") @DefaultValue("false") boolean reextract,
+			@QueryParam("pretty") @DefaultValue("false") boolean pretty,
+			@FormParam("timeout") Long formTimeout,
+			@FormParam("reextract") Boolean formReextract,
+			@FormParam("pretty") Boolean formPretty) {
+		analyze(asyncResponse, text, lang, annotators,
+				formTimeout != null ? formTimeout : timeout,
+				formReextract != null ? formReextract : reextract,
+				formPretty != null ? formPretty : pretty);
+	}
+
+	private void analyze(AsyncResponse asyncResponse, String text, String lang, String annotators, long timeout,
+			boolean reextract, boolean pretty) {
+		boolean binary = acceptsBinary();
 		try {
+			UimaManager uimaManager = UimaManager.getReadyInstance();
 			
 			// check undefined params.
 			if (isNull(text) == true) {
-				return new JSONResponse(JSONMeta.StatusType.ERROR).toResponse();
+				asyncResponse.resume(new JSONResponse(JSONMeta.StatusType.ERROR).toResponse(binary, false));
+				return;
+			}
+			if (reextract && uimaManager.getCasStore() == null) {
+				asyncResponse.resume(new JSONResponse(new JSONMeta(JSONMeta.StatusType.ERROR, CAS_STORE_NOT_CONFIGURED)).toResponse(binary, false));
+				return;
 			}
 			
 			// get analysis results
-			Map<String, Object> data = uimaManager.analyze(text);
+			CompletableFuture<AnalysisResult> data = reextract
+					? uimaManager.reextractAsync(text, lang, Annotators.parse(annotators), AdmissionController.Lane.INTERACTIVE)
+					: uimaManager.analyzeAsync(text, lang, Annotators.parse(annotators),
+							AdmissionController.Lane.INTERACTIVE, timeout);
+			resumeWhenDone(asyncResponse, data, binary, pretty, result -> "analyzed successfully");
+		} catch (EumssiException e) {
+			asyncResponse.resume(new JSONResponse(e).toResponse(binary, false));
+		} catch (Exception e) {
+			log.error("Unknown exception", e);
+			asyncResponse.resume(new JSONResponse(JSONMeta.StatusType.ERROR_UNKNOWN).toResponse(binary, false));
+		}
+
+	}
+
+	/**
+	 * Analyze a batch of documents in a single call
+	 * Invalid items are skipped without error message, check the item count
+	 * 
+	 * @param asyncResponse the suspended response, resumed with the results
+	 * @param json (required): JSON array of documents, <code>[{"id": &lt;id&gt;, "text": &lt;text&gt;}, ...]</code>
+	 * @param lang (optional): language of the texts, or "auto" to detect it for each one
+	 * @param annotators (optional): comma separated list of annotators to run, all by default
+	 * @param index (optional): send the results to the configured Solr collection, with the
+	 * document ids as unique keys, and only return the ids of the indexed documents
+	 * @param reextract (optional): build the results from the stored CASes, without running the
+	 * pipeline; documents that are not stored are skipped
+	 * @param pretty (optional): indent the JSON output, for debugging
+	 * 
+	 * @return Returns status message and analysis results
+	 * 
+	 * <br><br>JSON Format for "data":<br>
+	 * <code>
+	 * {
+	 *      <id_1>:<analysis results in process-specific JSON format>,
+	 *      <id_2>: ...
+	 * }
+	 * </code>
+	 * or, when indexing, <code>[&lt;id_1&gt;, &lt;id_2&gt;, ...]</code>
+	 * 
+	 *  <br><br>List of returned status type errors.
+	 *  <br>
+	 *  <br><code>StatusType.ERROR</code> (Error 1) if the request body is not a valid document list,
+	 *  an unknown annotator is requested, or indexing or re-extraction is requested but Solr or the
+	 *  CAS store is not configured.
+	 *  <br><code>StatusType.ERROR_UNKNOWN</code> (Error 999) if an unhandled exception is thrown.
+	 *
+	 */
+	@POST
+	@Path("/batch")
+	@Consumes("application/json")
+	@Produces({"application/json; charset=utf-8", CBORResultWriter.APPLICATION_CBOR})
+	public void analyzeBatchPOST(
+			@Suspended AsyncResponse asyncResponse,
+			String json,
+			@QueryParam("lang") String lang,
+			@QueryParam("annotators") String annotators,
+			@QueryParam("index") @DefaultValue("false") boolean index,
+			@QueryParam("reextract") @DefaultValue("false") boolean reextract,
+			@QueryParam("pretty") @DefaultValue("false") boolean pretty) {
+		boolean binary = acceptsBinary();
+		try {
+			UimaManager uimaManager = UimaManager.getReadyInstance();
+			if (index && uimaManager.getSolrSink() == null) {
+				asyncResponse.resume(new JSONResponse(new JSONMeta(JSONMeta.StatusType.ERROR, SOLR_NOT_CONFIGURED)).toResponse(binary, false));
+				return;
+			}
+			if (reextract && uimaManager.getCasStore() == null) {
+				asyncResponse.resume(new JSONResponse(new JSONMeta(JSONMeta.StatusType.ERROR, CAS_STORE_NOT_CONFIGURED)).toResponse(binary, false));
+				return;
+			}
+			List<JSONDocument> documentList;
+			try {
+				documentList = gson.fromJson(json, documentListType);
+			} catch (JsonParseException e) {
+				asyncResponse.resume(new JSONResponse(JSONMeta.StatusType.ERROR).toResponse(binary, false));
+				return;
+			}
+			if (documentList == null) {
+				asyncResponse.resume(new JSONResponse(JSONMeta.StatusType.ERROR).toResponse(binary, false));
+				return;
+			}
+			
+			Map<String, String> documents = new LinkedHashMap<String, String>();
+			for (JSONDocument document : documentList) {
+				if (document != null && isNull(document.getId(), document.getText()) == false) {
+					documents.put(document.getId(), document.getText());
+				}
+			}
 			
-			// build JSONResponse
-			JSONMeta meta = new JSONMeta(JSONMeta.StatusType.SUCCESS, "analyzed successfully");
-			JSONResponse response = new JSONResponse(meta,data);
-			return response.toResponse();
+			// get analysis results
+			CompletableFuture<Map<String, AnalysisResult>> data = uimaManager.analyzeBatchAsync(documents, lang, Annotators.parse(annotators), index, reextract);
+			int total = documentList.size();
+			if (index) {
+				resumeWhenDone(asyncResponse, data, binary, pretty,
+						results -> "indexed " + results.size() + " of " + total + " documents",
+						results -> new ArrayList<String>(results.keySet()));
+			} else {
+				resumeWhenDone(asyncResponse, data, binary, pretty,
+						results -> "analyzed " + results.size() + " of " + total + " documents");
+			}
 		} catch (EumssiException e) {
-			return new JSONResponse(e.getStatusType()).toResponse();
+			asyncResponse.resume(new JSONResponse(e).toResponse(binary, false));
 		} catch (Exception e) {
 			log.error("Unknown exception", e);
-			return new JSONResponse(JSONMeta.StatusType.ERROR_UNKNOWN).toResponse();
+			asyncResponse.resume(new JSONResponse(JSONMeta.StatusType.ERROR_UNKNOWN).toResponse(binary, false));
+		}
+	}
+
+	/**
+	 * Resumes a suspended response once the analysis is done. If the client disconnects
+	 * first, the analysis is cancelled; one that already started stops after its current pipeline stage.
+	 * @param asyncResponse the suspended response
+	 * @param data pending analysis results
+	 * @param binary write the binary format instead of JSON
+	 * @param pretty indent the JSON output
+	 * @param message builds the status message from the results
+	 */
+	private <T> void resumeWhenDone(AsyncResponse asyncResponse, CompletableFuture<T> data, boolean binary, boolean pretty,
+			Function<T, String> message) {
+		resumeWhenDone(asyncResponse, data, binary, pretty, message, result -> result);
+	}
+
+	/**
+	 * @param body builds the response data from the results
+	 * @see #resumeWhenDone(AsyncResponse, CompletableFuture, boolean, boolean, Function)
+	 */
+	private <T> void resumeWhenDone(AsyncResponse asyncResponse, CompletableFuture<T> data, boolean binary, boolean pretty,
+			Function<T, String> message, Function<T, Object> body) {
+		asyncResponse.register((ConnectionCallback) disconnected -> data.cancel(true));
+		data.whenComplete((result, error) -> {
+			if (error instanceof CompletionException && error.getCause() != null) {
+				error = error.getCause();
+			}
+			Response response;
+			if (error == null) {
+				JSONMeta meta = new JSONMeta(JSONMeta.StatusType.SUCCESS, message.apply(result));
+				response = new JSONResponse(meta, body.apply(result)).toResponse(binary, pretty);
+			} else if (error instanceof EumssiException) {
+				response = new JSONResponse((EumssiException) error).toResponse(binary, false);
+			} else {
+				if (!data.isCancelled()) {
+					log.error("Unknown exception", error);
+				}
+				response = new JSONResponse(JSONMeta.StatusType.ERROR_UNKNOWN).toResponse(binary, false);
+			}
+			asyncResponse.resume(response);
+		});
+	}
+
+	/**
+	 * Analyze a newline-delimited stream of documents
+	 * Each input line is a JSON object <code>{"id": &lt;id&gt;, "text": &lt;text&gt;}</code>,
+	 * optionally with a <code>"lang"</code> that overrides the lang parameter.
+	 * Results are written as soon as they are available, one JSON object per line and in
+	 * completion order, so output order may differ from input order.
+	 * Input is only read as fast as the engine pool can process it.
+	 * 
+	 * @param input (required): NDJSON stream of documents
+	 * @param lang (optional): language of the texts, or "auto" to detect it for each one
+	 * @param annotators (optional): comma separated list of annotators to run, all by default
+	 * @param index (optional): send the results to the configured Solr collection, with the
+	 * document ids as unique keys, and leave out "data" from the output lines
+	 * @param reextract (optional): build the results from the stored CASes, without running the pipeline
+	 * 
+	 * @return Returns an NDJSON stream of results
+	 * 
+	 * <br><br>JSON Format for each output line:<br>
+	 * <code>
+	 * {
+	 *      "id": &lt;id&gt;,
+	 *      "meta": &lt;status message&gt;,
+	 *      "data": &lt;analysis results in process-specific JSON format&gt;
+	 * }
+	 * </code>
+	 *
+	 */
+	@POST
+	@Path("/stream")
+	@Consumes("application/x-ndjson")
+	@Produces(JSONResponse.NDJSON)
+	public Response analyzeStreamPOST(InputStream input,
+			@QueryParam("lang") String lang,
+			@QueryParam("annotators") String annotators,
+			@QueryParam("index") @DefaultValue("false") boolean index,
+			@QueryParam("reextract") @DefaultValue("false") boolean reextract) {
+		try {
+			UimaManager uimaManager = UimaManager.getReadyInstance();
+			if (index && uimaManager.getSolrSink() == null) {
+				return new JSONResponse(new JSONMeta(JSONMeta.StatusType.ERROR, SOLR_NOT_CONFIGURED)).toNdjsonResponse();
+			}
+			if (reextract && uimaManager.getCasStore() == null) {
+				return new JSONResponse(new JSONMeta(JSONMeta.StatusType.ERROR, CAS_STORE_NOT_CONFIGURED)).toNdjsonResponse();
+			}
+			return Response.ok(new AnalysisStream(uimaManager, input, lang, Annotators.parse(annotators), index, reextract)).build();
+		} catch (EumssiException e) {
+			return new JSONResponse(e).toNdjsonResponse();
 		}
+	}
 
+	/**
+	 * @return true if the client prefers the binary format over JSON, JSON being the default
+	 */
+	private boolean acceptsBinary() {
+		return this.headers != null && acceptsBinary(this.headers.getAcceptableMediaTypes());
+	}
+
+	/**
+	 * @param acceptable media types accepted by the client, sorted by preference as by
+	 * {@link HttpHeaders#getAcceptableMediaTypes()}
+	 * @return true if the binary format comes before JSON, wildcards match JSON first
+	 */
+	static boolean acceptsBinary(List<? extends MediaType> acceptable) {
+		for (MediaType type : acceptable) {
+			if (type.isCompatible(MediaType.APPLICATION_JSON_TYPE)) {
+				return false;
+			}
+			if (type.isCompatible(CBOR_TYPE)) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	static private boolean isNull(Object... objects) {
@@ -114,13 +417,14 @@ public class Analyze {
 	 * @throws Exception
 	 */
 	public static void main(String[] args) throws Exception {
-		Analyze ta = new Analyze();
-		//Response res = ta.analyzePOST("Obama visits Merkel in Berlin.");
-		Response res = ta.analyzePOST("A hacker group has stolen some 10 million credit cards, putting itself in a position to score US$400 million (£279 million, A$516 million) by infecting 2000 payment terminals with the Trinity point of sales malware. Security firm FireEye and subsidiaries iSIGHT Partners and Mandiant examined the Fin6 group last year after it was found plundering millions of cards.  he first two firms now say the cards stolen from hospitality and retails firms have earned the hacking group hundreds of millions of dollars with each card sold for an average of US$21 on secret popular carder shops. The criminals have sold filched cards since 2014 and have ramped up the cash-out as the value of the stolen cards drops as the United States adopts EMV credit card security."
+		UimaManager uimaManager = UimaManager.getInstance();
+		//AnalysisResult data = uimaManager.analyze("Obama visits Merkel in Berlin.");
+		AnalysisResult data = uimaManager.analyze("A hacker group has stolen some 10 million credit cards, putting itself in a position to score US$400 million (£279 million, A$516 million) by infecting 2000 payment terminals with the Trinity point of sales malware. Security firm FireEye and subsidiaries iSIGHT Partners and Mandiant examined the Fin6 group last year after it was found plundering millions of cards.  he first two firms now say the cards stolen from hospitality and retails firms have earned the hacking group hundreds of millions of dollars with each card sold for an average of US$21 on secret popular carder shops. The criminals have sold filched cards since 2014 and have ramped up the cash-out as the value of the stolen cards drops as the United States adopts EMV credit card security."
 				+ "The crooks use valid user credentials to gain access, after which modules of the popular Metasploit framework are used to maintain a foothold and set up links with command and control servers to execute shellcode. From there the group followed the advanced-persistent threat cookbook and used various tools to gain privilege escalation and pivot to sensitive areas of the targeted network. Tools exploited three dusty patched vulnerabilities (CVE-2013-3660, CVE-2011-2005, and CVE-2010-4398) that turn local users into kernel-level gods, while the PsExec Metasploit module allows the Active Directory database (ntds.dit) to be swiped and password hashes cracked online. In one day, so write the researchers, Fin6 flayed 900 SQL servers gaining intel information to support further hacking operations. The exfiltration of point of sales data once collected through Trinity took a few more steps, as follows:"
 				+ "FIN6 used a script to systematically iterate through a list of compromised POS systems, copying the harvested track data files to a numbered log file before removing the original data files. They then compressed the log files into a ZIP archive and moved the archive through the environment to an intermediary system and then to a staging system. From the staging system, they then copied the stolen data to external command and control servers under their control using the FTP command line utility.");
-		System.out.print(res.toString());
-		System.out.print(res.getEntity().toString());
+		Writer writer = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+		new JSONResponse(new JSONMeta(JSONMeta.StatusType.SUCCESS, "analyzed successfully"), data).write(writer, true);
+		UimaManager.shutdown();
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,177 @@
+package eu.eumssi.api.uima;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.util.List;
+
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.FormParam;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import eu.eumssi.api.json.uima.JSONMeta;
+import eu.eumssi.api.json.uima.JSONResponse;
+import eu.eumssi.api.json.uima.JSONResult;
+import eu.eumssi.managers.uima.EumssiException;
+import eu.eumssi.managers.uima.Job;
+import eu.eumssi.managers.uima.JobManager;
+import eu.eumssi.managers.uima.UimaManager;
+
+/**
+ * Background analysis of large document collections stored on the server,
+ * see {@link JobManager}
+ * 
+ */
+@Path("/jobs")
+public class Jobs {
+
+	private static final String JOBS_NOT_CONFIGURED = "Jobs are not configured";
+
+	private JobManager jobManager;
+
+	public Jobs() throws UnknownHostException, EumssiException {
+		this.jobManager = UimaManager.getInstance().getJobManager();
+	}
+
+	/**
+	 * Start a job
+	 * 
+	 * @param input (required): file or directory of documents, relative to the job input directory.
+	 * Files ending in .ndjson or .jsonl hold one document per line,
+	 * <code>{"id": &lt;id&gt;, "text": &lt;text&gt;}</code>; any other file is one plain text document.
+	 * @param annotators (optional): comma separated list of annotators to run, all by default
+	 * @param reextract (optional): build the results from the stored CASes instead of running the
+	 * pipeline; documents that are not stored are counted as failed
+	 * 
+	 * @return Returns status message and the queued job
+	 * 
+	 *  <br><br>List of returned status type errors.
+	 *  <br>
+	 *  <br><code>StatusType.ERROR</code> (Error 1) if jobs are not configured, the input does not exist,
+	 *  an unknown annotator is requested or re-extraction is requested but the CAS store is not configured.
+	 *
+	 */
+	@POST
+	@Produces("application/json; charset=utf-8")
+	public Response jobsPOST(
+			@FormParam("input") String input,
+			@FormParam("annotators") String annotators,
+			@FormParam("reextract") @DefaultValue("false") boolean reextract) {
+		if (this.jobManager == null) {
+			return new JSONResponse(new JSONMeta(JSONMeta.StatusType.ERROR, JOBS_NOT_CONFIGURED)).toResponse();
+		}
+		try {
+			Job job = this.jobManager.submit(input, annotators, reextract);
+			return new JSONResponse(new JSONMeta(JSONMeta.StatusType.SUCCESS, "job queued"), job).toResponse();
+		} catch (EumssiException e) {
+			return new JSONResponse(e).toResponse();
+		}
+	}
+
+	/**
+	 * List all jobs
+	 * 
+	 * @return Returns status message and the state of all jobs, in submission order
+	 */
+	@GET
+	@Produces("application/json; charset=utf-8")
+	public Response jobsGET(
+			@QueryParam("pretty") @DefaultValue("false") boolean pretty) {
+		if (this.jobManager == null) {
+			return new JSONResponse(new JSONMeta(JSONMeta.StatusType.ERROR, JOBS_NOT_CONFIGURED)).toResponse();
+		}
+		List<Job> jobs = this.jobManager.getJobs();
+		return new JSONResponse(new JSONMeta(JSONMeta.StatusType.SUCCESS, jobs.size() + " jobs"), jobs).toResponse(pretty);
+	}
+
+	/**
+	 * Get the state and progress of a job
+	 * 
+	 * @param id job id
+	 * 
+	 * @return Returns status message and the job, with the number of documents processed
+	 * and failed so far, the total if known, and the current throughput; HTTP 404 if there
+	 * is no such job
+	 */
+	@GET
+	@Path("/{id}")
+	@Produces("application/json; charset=utf-8")
+	public Response jobGET(
+			@PathParam("id") String id,
+			@QueryParam("pretty") @DefaultValue("false") boolean pretty) {
+		if (this.jobManager == null) {
+			return new JSONResponse(new JSONMeta(JSONMeta.StatusType.ERROR, JOBS_NOT_CONFIGURED)).toResponse();
+		}
+		Job job = this.jobManager.getJob(id);
+		if (job == null) {
+			return notFound(id);
+		}
+		return new JSONResponse(new JSONMeta(JSONMeta.StatusType.SUCCESS, job.getState().toString()), job).toResponse(pretty);
+	}
+
+	/**
+	 * Get the results of a job
+	 * Results are available per segment as soon as the segment is complete, so the results
+	 * of a running job are incomplete. Each line has the same format as the output of
+	 * <code>/analyze/stream</code>, in input order.
+	 * 
+	 * @param id job id
+	 * @param segment (optional): number of a single segment to return, all segments by default
+	 * 
+	 * @return Returns an NDJSON stream of results; HTTP 404 if there is no such job or segment
+	 */
+	@GET
+	@Path("/{id}/results")
+	@Produces(JSONResponse.NDJSON)
+	public Response resultsGET(
+			@PathParam("id") String id,
+			@QueryParam("segment") @DefaultValue("-1") int segment) {
+		if (this.jobManager == null) {
+			return new JSONResponse(new JSONMeta(JSONMeta.StatusType.ERROR, JOBS_NOT_CONFIGURED)).toNdjsonResponse();
+		}
+		Job job = this.jobManager.getJob(id);
+		if (job == null) {
+			return notFoundLine(id);
+		}
+		List<File> segments = this.jobManager.getSegments(job);
+		if (segment >= 0) {
+			if (segment >= segments.size()) {
+				return notFoundLine(id + " segment " + segment);
+			}
+			segments = segments.subList(segment, segment + 1);
+		}
+		final List<File> files = segments;
+		StreamingOutput entity = (OutputStream output) -> {
+			for (File file : files) {
+				Files.copy(file.toPath(), output);
+			}
+			output.flush();
+		};
+		return Response.ok(entity, JSONResponse.NDJSON).build();
+	}
+
+	/**
+	 * @return a 404 response for an NDJSON endpoint
+	 */
+	private static Response notFoundLine(String what) {
+		JSONMeta meta = new JSONMeta(JSONMeta.StatusType.ERROR, "not found: " + what);
+		return Response.status(Response.Status.NOT_FOUND).type(JSONResponse.NDJSON)
+				.entity(new JSONResult(null, meta, null).toJson() + "\n").build();
+	}
+
+	private static Response notFound(String what) {
+		JSONMeta meta = new JSONMeta(JSONMeta.StatusType.ERROR, "not found: " + what);
+		return Response.status(Response.Status.NOT_FOUND).type(MediaType.APPLICATION_JSON)
+				.entity(new JSONResponse(meta).toJson()).build();
+	}
+
+}
@@ -0,0 +1,29 @@
+package eu.eumssi.api.uima;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Response;
+
+import eu.eumssi.managers.uima.MetricsRegistry;
+
+/**
+ * Export service metrics in Prometheus text format
+ * 
+ */
+@Path("/metrics")
+public class Metrics {
+
+	/**
+	 * Get current metrics
+	 * 
+	 * @return per-stage timing histograms, CAS acquisition, extraction and serialization times,
+	 * pool utilization, queue depth and cache counters
+	 */
+	@GET
+	@Produces("text/plain; version=0.0.4; charset=utf-8")
+	public Response metricsGET() {
+		return Response.ok(MetricsRegistry.export()).build();
+	}
+
+}
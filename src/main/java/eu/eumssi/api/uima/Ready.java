@@ -0,0 +1,40 @@
+package eu.eumssi.api.uima;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import eu.eumssi.api.json.uima.JSONMeta;
+import eu.eumssi.api.json.uima.JSONResponse;
+import eu.eumssi.managers.uima.UimaManager;
+
+/**
+ * Readiness check for load balancers
+ * 
+ */
+@Path("/ready")
+public class Ready {
+
+	/**
+	 * Check whether the service can accept analysis requests
+	 * 
+	 * @return Returns HTTP 200 once all pooled engines are loaded and warmed up,
+	 * HTTP 503 while the pipeline is still being built
+	 */
+	@GET
+	@Produces("application/json; charset=utf-8")
+	public Response readyGET() {
+		if (UimaManager.isReady()) {
+			JSONMeta meta = new JSONMeta(JSONMeta.StatusType.SUCCESS, "ready");
+			return new JSONResponse(meta).toResponse();
+		}
+		// make sure initialization is running, e.g. after a failed attempt
+		UimaManager.initialize();
+		JSONMeta meta = new JSONMeta(JSONMeta.StatusType.ERROR, "not ready");
+		return Response.status(Response.Status.SERVICE_UNAVAILABLE).type(MediaType.APPLICATION_JSON)
+				.entity(new JSONResponse(meta).toJson()).build();
+	}
+
+}
@@ -0,0 +1,25 @@
+package eu.eumssi.api.uima;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import eu.eumssi.managers.uima.UimaManager;
+
+/**
+ * Starts building the analysis pipeline as soon as the web application is deployed,
+ * instead of on the first request, and releases it on undeploy.
+ * 
+ */
+public class UimaContextListener implements ServletContextListener {
+
+	@Override
+	public void contextInitialized(ServletContextEvent event) {
+		UimaManager.initialize();
+	}
+
+	@Override
+	public void contextDestroyed(ServletContextEvent event) {
+		UimaManager.shutdown();
+	}
+
+}
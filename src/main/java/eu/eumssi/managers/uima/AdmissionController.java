@@ -0,0 +1,154 @@
+package eu.eumssi.managers.uima;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.LongAdder;
+
+import eu.eumssi.api.json.uima.JSONMeta.StatusType;
+
+/**
+ * Limits the number of documents analyzed at the same time.
+ * Requests beyond the limit wait in a bounded queue, interactive requests ahead of bulk
+ * ones. A request is rejected right away if the queue is full, and gives up if it is not
+ * admitted before its deadline, so that a traffic spike cannot pile up unbounded work.
+ *
+ */
+public class AdmissionController {
+
+	/**
+	 * Priority lanes, interactive requests are always admitted before bulk ones.
+	 */
+	public enum Lane {
+		INTERACTIVE,
+		BULK,
+	}
+
+	/**
+	 * A queued request, granted a slot by {@link AdmissionController#release()}.
+	 */
+	private static class Waiter {
+
+		private boolean admitted = false;
+	}
+
+	private final int maxConcurrent;
+
+	private final int maxQueued;
+
+	private final long maxWaitMillis;
+
+	private final int retryAfter;
+
+	private int active = 0;
+
+	private final Deque<Waiter> interactive = new ArrayDeque<Waiter>();
+
+	private final Deque<Waiter> bulk = new ArrayDeque<Waiter>();
+
+	private final LongAdder rejected;
+
+	private final LongAdder expired;
+
+	/**
+	 * @param maxConcurrent maximum number of documents in analysis
+	 * @param maxQueued maximum number of waiting requests, over both lanes
+	 * @param maxWaitMillis maximum time a request waits to be admitted
+	 * @param retryAfter seconds after which rejected clients should retry
+	 */
+	public AdmissionController(int maxConcurrent, int maxQueued, long maxWaitMillis, int retryAfter) {
+		this.maxConcurrent = maxConcurrent;
+		this.maxQueued = maxQueued;
+		this.maxWaitMillis = maxWaitMillis;
+		this.retryAfter = retryAfter;
+		this.rejected = MetricsRegistry.counter("eumssi_admission_rejected_total", "reason=\"queue_full\"");
+		this.expired = MetricsRegistry.counter("eumssi_admission_rejected_total", "reason=\"deadline\"");
+		MetricsRegistry.gauge("eumssi_admission_active", "", this::getActiveCount);
+		MetricsRegistry.gauge("eumssi_admission_queue_depth", "lane=\"interactive\"", () -> getQueueDepth(Lane.INTERACTIVE));
+		MetricsRegistry.gauge("eumssi_admission_queue_depth", "lane=\"bulk\"", () -> getQueueDepth(Lane.BULK));
+	}
+
+	/**
+	 * waits for a free slot, which must be returned with {@link #release()}
+	 * @param lane priority of the request
+	 * @throws EumssiException with {@link StatusType#ERROR_OVERLOADED} if the queue is full,
+	 * or {@link StatusType#ERROR_UNAVAILABLE} if no slot became free in time
+	 */
+	public void acquire(Lane lane) throws EumssiException {
+		acquire(lane, this.maxWaitMillis);
+	}
+
+	/**
+	 * waits for a free slot, which must be returned with {@link #release()}
+	 * @param lane priority of the request
+	 * @param maxWait maximum time to wait in milliseconds, limited to the configured maximum
+	 * @throws EumssiException with {@link StatusType#ERROR_OVERLOADED} if the queue is full,
+	 * or {@link StatusType#ERROR_UNAVAILABLE} if no slot became free in time
+	 */
+	public synchronized void acquire(Lane lane, long maxWait) throws EumssiException {
+		if (this.active < this.maxConcurrent && this.interactive.isEmpty()
+				&& (lane == Lane.INTERACTIVE || this.bulk.isEmpty())) {
+			this.active++;
+			return;
+		}
+		if (this.interactive.size() + this.bulk.size() >= this.maxQueued) {
+			this.rejected.increment();
+			throw new EumssiException(StatusType.ERROR_OVERLOADED, this.retryAfter);
+		}
+		Deque<Waiter> queue = lane == Lane.INTERACTIVE ? this.interactive : this.bulk;
+		Waiter waiter = new Waiter();
+		queue.add(waiter);
+		long deadline = System.currentTimeMillis() + Math.min(maxWait, this.maxWaitMillis);
+		try {
+			while (!waiter.admitted) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					queue.remove(waiter);
+					this.expired.increment();
+					throw new EumssiException(StatusType.ERROR_UNAVAILABLE, this.retryAfter);
+				}
+				wait(remaining);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			if (waiter.admitted) {
+				// keep the slot balanced, the caller will not release it
+				release();
+			} else {
+				queue.remove(waiter);
+			}
+			throw new EumssiException(StatusType.ERROR_UNKNOWN);
+		}
+	}
+
+	/**
+	 * returns a slot, handing it to the next waiting request if there is one
+	 */
+	public synchronized void release() {
+		Waiter next = this.interactive.poll();
+		if (next == null) {
+			next = this.bulk.poll();
+		}
+		if (next == null) {
+			this.active--;
+		} else {
+			next.admitted = true;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * @return number of documents currently admitted
+	 */
+	public synchronized int getActiveCount() {
+		return this.active;
+	}
+
+	/**
+	 * @param lane a priority lane
+	 * @return number of requests waiting in the lane
+	 */
+	public synchronized int getQueueDepth(Lane lane) {
+		return lane == Lane.INTERACTIVE ? this.interactive.size() : this.bulk.size();
+	}
+
+}
@@ -0,0 +1,119 @@
+package eu.eumssi.managers.uima;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Analysis results for one document.
+ * Sections of annotators that were not selected for the request are null.
+ * A result is partial if some selected annotators did not deliver in time, their
+ * sections are null as well.
+ *
+ */
+public class AnalysisResult implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Name of the bucket that contains all entities.
+	 */
+	public static final String ALL = "all";
+
+	private final List<DBpediaEntity> dbpedia;
+
+	private final List<Entity> stanford;
+
+	private final List<KeyPhrase> kea;
+
+	private final String solrSimilarity;
+
+	private final Set<String> incomplete;
+
+	/**
+	 * @param dbpedia DBpedia entities in document order, or null
+	 * @param stanford Stanford NER entities in document order, or null
+	 * @param kea keyphrases ordered by rank, or null
+	 * @param solrSimilarity Solr query for similar documents, or null if neither
+	 * DBpedia nor Stanford entities were selected
+	 */
+	public AnalysisResult(List<DBpediaEntity> dbpedia, List<Entity> stanford, List<KeyPhrase> kea, String solrSimilarity) {
+		this(dbpedia, stanford, kea, solrSimilarity, Collections.<String>emptySet());
+	}
+
+	/**
+	 * @param dbpedia DBpedia entities in document order, or null
+	 * @param stanford Stanford NER entities in document order, or null
+	 * @param kea keyphrases ordered by rank, or null
+	 * @param solrSimilarity Solr query for similar documents, or null
+	 * @param incomplete names of selected annotators whose results are missing
+	 */
+	public AnalysisResult(List<DBpediaEntity> dbpedia, List<Entity> stanford, List<KeyPhrase> kea, String solrSimilarity,
+			Set<String> incomplete) {
+		this.dbpedia = dbpedia;
+		this.stanford = stanford;
+		this.kea = kea;
+		this.solrSimilarity = solrSimilarity;
+		this.incomplete = incomplete;
+	}
+
+	public List<DBpediaEntity> getDbpedia() {
+		return dbpedia;
+	}
+
+	public List<Entity> getStanford() {
+		return stanford;
+	}
+
+	public List<KeyPhrase> getKea() {
+		return kea;
+	}
+
+	public String getSolrSimilarity() {
+		return solrSimilarity;
+	}
+
+	/**
+	 * @return names of selected annotators whose results are missing, e.g. because
+	 * they timed out
+	 */
+	public Set<String> getIncomplete() {
+		return incomplete;
+	}
+
+	/**
+	 * @return true if some selected annotators did not deliver results
+	 */
+	public boolean isPartial() {
+		return !incomplete.isEmpty();
+	}
+
+	/**
+	 * groups entities by output type bucket
+	 * @param entities entities to group
+	 * @return lists of entities for each bucket in order of first occurrence, followed by
+	 * the list of all entities
+	 */
+	public static <E extends Entity> Map<String, List<E>> byBucket(List<E> entities) {
+		Map<String, List<E>> buckets = new LinkedHashMap<String, List<E>>();
+		for (E entity : entities) {
+			for (String bucket : entity.getBuckets()) {
+				List<E> list = buckets.get(bucket);
+				if (list == null) {
+					list = new ArrayList<E>();
+					buckets.put(bucket, list);
+				}
+				list.add(entity);
+			}
+		}
+		if (!entities.isEmpty()) {
+			buckets.put(ALL, entities);
+		}
+		return buckets;
+	}
+
+}
@@ -0,0 +1,126 @@
+package eu.eumssi.managers.uima;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import eu.eumssi.api.json.uima.JSONMeta.StatusType;
+
+/**
+ * A set of requested annotators, together with the pipeline stages they depend on.
+ * Segmentation always runs and is not listed.
+ *
+ */
+public class Annotators {
+
+	public static final String DBPEDIA = "dbpedia";
+
+	public static final String NER = "ner";
+
+	public static final String POS = "pos";
+
+	public static final String CHUNK = "chunk";
+
+	public static final String KEA = "kea";
+
+	/**
+	 * All annotators, in pipeline order.
+	 */
+	private static final List<String> NAMES = Arrays.asList(DBPEDIA, NER, POS, CHUNK, KEA);
+
+	/**
+	 * Stages each annotator needs to run before it, including indirect dependencies.
+	 */
+	private static final Map<String, List<String>> DEPENDENCIES = new HashMap<String, List<String>>();
+
+	static {
+		DEPENDENCIES.put(CHUNK, Arrays.asList(POS));
+		DEPENDENCIES.put(KEA, Arrays.asList(POS, CHUNK));
+	}
+
+	/**
+	 * All annotators, the default if a request does not select any.
+	 */
+	public static final Annotators ALL = new Annotators(new LinkedHashSet<String>(NAMES));
+
+	private final Set<String> stages;
+
+	private Annotators(Set<String> stages) {
+		this.stages = Collections.unmodifiableSet(stages);
+	}
+
+	/**
+	 * parses a comma separated list of annotators and adds their dependencies
+	 * @param list annotator names, e.g. "ner,kea", or null or empty for all annotators
+	 * @return the selected annotators
+	 * @throws EumssiException if an unknown annotator is listed
+	 */
+	public static Annotators parse(String list) throws EumssiException {
+		if (list == null || list.trim().isEmpty()) {
+			return ALL;
+		}
+		Set<String> requested = new LinkedHashSet<String>();
+		for (String name : list.split(",")) {
+			name = name.trim().toLowerCase();
+			if (name.isEmpty()) {
+				continue;
+			}
+			if (!NAMES.contains(name)) {
+				throw new EumssiException(StatusType.ERROR);
+			}
+			requested.add(name);
+			if (DEPENDENCIES.containsKey(name)) {
+				requested.addAll(DEPENDENCIES.get(name));
+			}
+		}
+		// keep pipeline order, so equal selections have equal keys
+		Set<String> stages = new LinkedHashSet<String>();
+		for (String name : NAMES) {
+			if (requested.contains(name)) {
+				stages.add(name);
+			}
+		}
+		return stages.size() == NAMES.size() ? ALL : new Annotators(stages);
+	}
+
+	/**
+	 * @return names of the selected annotators and their dependencies, in pipeline order
+	 */
+	public Set<String> getStages() {
+		return this.stages;
+	}
+
+	/**
+	 * @param name annotator name
+	 * @return true if the annotator is selected
+	 */
+	public boolean contains(String name) {
+		return this.stages.contains(name);
+	}
+
+	/**
+	 * @param name annotator name
+	 * @return this selection without the given annotator; annotators depending on it are kept
+	 */
+	public Annotators without(String name) {
+		if (!this.stages.contains(name)) {
+			return this;
+		}
+		Set<String> stages = new LinkedHashSet<String>(this.stages);
+		stages.remove(name);
+		return new Annotators(stages);
+	}
+
+	/**
+	 * @return a canonical string for this selection, e.g. "ner,kea"
+	 */
+	@Override
+	public String toString() {
+		return String.join(",", this.stages);
+	}
+
+}
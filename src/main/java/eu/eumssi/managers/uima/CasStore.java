@@ -0,0 +1,484 @@
+package eu.eumssi.managers.uima;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.uima.UIMAException;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.impl.Serialization;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.factory.TypeSystemDescriptionFactory;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+
+/**
+ * Append-only store of annotated documents, so that results can be extracted again, e.g. after
+ * a change of the type mapping, without running the pipeline.
+ * The CAS of each document is kept in UIMA's compressed binary form, keyed by a hash of its
+ * language and text, together with the annotators that were run on it. A document is only
+ * stored again if more annotators were run on it, the latest record wins.
+ * <p>
+ * Records are appended to one data file per type system, so that an update of the annotators
+ * that changes their types starts a new file instead of making the stored documents unreadable.
+ * The CAS is serialized by the caller, the records are written by a single writer thread, so
+ * that the analysis engine is not held during disk writes.
+ * <p>
+ * The index is rebuilt on startup by reading all records. Where a record's checksum does not
+ * match, or its length cannot be right, loading resumes at the next record whose checksum
+ * matches; only data after the last such record, as left by a record that was partly written
+ * when the service stopped, is cut off.
+ * <p>
+ * Record layout: body length, body, CRC-32 of the body. The body holds the 32 byte key, the
+ * annotators and the language as length-prefixed UTF-8, followed by the serialized CAS.
+ *
+ */
+public class CasStore {
+
+	/**
+	 * Logger for this class and subclasses.
+	 */
+	protected final Log log = LogFactory.getLog(getClass());
+
+	private static final LongAdder STORED = MetricsRegistry.counter("eumssi_cas_store_documents_total", "status=\"stored\"");
+
+	private static final LongAdder SKIPPED = MetricsRegistry.counter("eumssi_cas_store_documents_total", "status=\"skipped\"");
+
+	private static final LongAdder FAILED = MetricsRegistry.counter("eumssi_cas_store_documents_total", "status=\"error\"");
+
+	private static final LongAdder DROPPED = MetricsRegistry.counter("eumssi_cas_store_documents_total", "status=\"dropped\"");
+
+	private static final LongAdder CORRUPT = MetricsRegistry.counter("eumssi_cas_store_corrupt_records_total");
+
+	private static final LongAdder REPLAYED = MetricsRegistry.counter("eumssi_cas_replays_total", "status=\"ok\"");
+
+	private static final LongAdder MISSING = MetricsRegistry.counter("eumssi_cas_replays_total", "status=\"missing\"");
+
+	private static final LongAdder REPLAY_FAILED = MetricsRegistry.counter("eumssi_cas_replays_total", "status=\"error\"");
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private static final int KEY_LENGTH = 32;
+
+	/**
+	 * Longer than any list of annotators, so that most positions that are not the start of a
+	 * record are passed over without computing a checksum.
+	 */
+	private static final int MAX_ANNOTATORS_LENGTH = 256;
+
+	/**
+	 * Number of serialized documents waiting to be written before further ones are dropped.
+	 */
+	private static final int WRITE_QUEUE_SIZE = 256;
+
+	/**
+	 * Location of a stored document in the data file.
+	 */
+	private static class Record {
+
+		private final long position;
+
+		private final int length;
+
+		private final Annotators annotators;
+
+		private Record(long position, int length, Annotators annotators) {
+			this.position = position;
+			this.length = length;
+			this.annotators = annotators;
+		}
+	}
+
+	private final File file;
+
+	private final FileChannel channel;
+
+	private final TypeSystemDescription typeSystemDescription;
+
+	/**
+	 * Type system the documents are stored in, that of the JCases they are read into.
+	 */
+	private final TypeSystem typeSystem;
+
+	/**
+	 * JCases to read stored documents into, reused between documents.
+	 */
+	private final Queue<JCas> idle = new ConcurrentLinkedQueue<JCas>();
+
+	/**
+	 * Latest record of each document, by hex encoded key.
+	 */
+	private final Map<String, Record> index = new ConcurrentHashMap<String, Record>();
+
+	/**
+	 * Appends the records, the only thread writing to the data file.
+	 */
+	private final ExecutorService writer;
+
+	/**
+	 * End of the last complete record, where the next one is written.
+	 */
+	private volatile long end;
+
+	/**
+	 * Opens the store and indexes the documents stored so far.
+	 * @param directory directory of the data files, created if needed
+	 * @throws IOException if the data file cannot be opened or read
+	 * @throws UIMAException if the type system cannot be set up
+	 */
+	public CasStore(File directory) throws IOException, UIMAException {
+		directory.mkdirs();
+		this.typeSystemDescription = TypeSystemDescriptionFactory.createTypeSystemDescription();
+		JCas template = JCasFactory.createJCas(this.typeSystemDescription);
+		this.typeSystem = template.getTypeSystem();
+		this.idle.add(template);
+		this.file = new File(directory, "cas-" + fingerprint(this.typeSystem) + ".dat");
+		this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		load();
+		this.writer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(WRITE_QUEUE_SIZE), runnable -> {
+					Thread thread = new Thread(runnable, "cas-store-writer");
+					thread.setDaemon(true);
+					return thread;
+				});
+		MetricsRegistry.gauge("eumssi_cas_store_entries", "", this::size);
+		MetricsRegistry.gauge("eumssi_cas_store_bytes", "", () -> this.end);
+	}
+
+	private void load() throws IOException {
+		long size = this.channel.size();
+		long position = 0;
+		int corrupt = 0;
+		while (position < size) {
+			ByteBuffer record = readRecord(position, size);
+			if (record == null) {
+				long next = position + 1;
+				while (next < size && readRecord(next, size) == null) {
+					next++;
+				}
+				if (next == size) {
+					// no complete record follows, the tail is cut off below
+					break;
+				}
+				log.warn("Skipping " + (next - position) + " corrupt bytes at " + position + " in " + this.file);
+				CORRUPT.increment();
+				corrupt++;
+				position = next;
+				continue;
+			}
+			try {
+				record.position(4);
+				byte[] key = new byte[KEY_LENGTH];
+				record.get(key);
+				Annotators annotators = Annotators.parse(readString(record));
+				this.index.put(hex(key), new Record(position, record.limit(), annotators));
+			} catch (BufferUnderflowException | EumssiException e) {
+				log.warn("Skipping corrupt record at " + position + " in " + this.file + ": " + e);
+				CORRUPT.increment();
+				corrupt++;
+			}
+			position += record.limit();
+		}
+		if (corrupt > 0) {
+			log.warn("Skipped " + corrupt + " corrupt records in " + this.file);
+		}
+		if (position < size) {
+			log.warn("Discarding " + (size - position) + " bytes of incomplete records at the end of " + this.file);
+			this.channel.truncate(position);
+		}
+		this.end = position;
+		log.info("opened " + this.file + " with " + this.index.size() + " stored documents");
+	}
+
+	/**
+	 * stores the CAS of an analyzed document, unless a record with the same or more annotators exists.
+	 * The CAS is serialized on the calling thread, the record is written in the background.
+	 * @param text the analyzed text
+	 * @param language language the text was analyzed in
+	 * @param annotators annotators whose results the CAS holds
+	 * @param jCas the processed document, only read, and not used after this method returns
+	 */
+	public void put(String text, String language, Annotators annotators, JCas jCas) {
+		if (annotators.getStages().isEmpty()) {
+			return;
+		}
+		byte[] key = key(text, language);
+		String hexKey = hex(key);
+		if (covers(this.index.get(hexKey), annotators)) {
+			SKIPPED.increment();
+			return;
+		}
+		ByteArrayOutputStream cas = new ByteArrayOutputStream();
+		try {
+			Serialization.serializeWithCompression(jCas.getCas(), cas, this.typeSystem);
+		} catch (IOException | ResourceInitializationException e) {
+			log.warn("Could not serialize document, not storing it", e);
+			FAILED.increment();
+			return;
+		}
+		byte[] serialized = cas.toByteArray();
+		try {
+			this.writer.execute(() -> write(key, hexKey, language, annotators, serialized));
+		} catch (RejectedExecutionException e) {
+			DROPPED.increment();
+		}
+	}
+
+	/**
+	 * @return true if the record holds the results of all the annotators
+	 */
+	private static boolean covers(Record record, Annotators annotators) {
+		return record != null && record.annotators.getStages().containsAll(annotators.getStages());
+	}
+
+	/**
+	 * appends a record, on the writer thread
+	 */
+	private void write(byte[] key, String hexKey, String language, Annotators annotators, byte[] cas) {
+		if (covers(this.index.get(hexKey), annotators)) {
+			// stored in the meantime by another request
+			SKIPPED.increment();
+			return;
+		}
+		ByteBuffer record = record(key, annotators.toString(), language, cas);
+		long position = this.end;
+		try {
+			while (record.hasRemaining()) {
+				this.channel.write(record, position + record.position());
+			}
+		} catch (IOException e) {
+			log.warn("Could not write to " + this.file + ", document not stored", e);
+			FAILED.increment();
+			try {
+				this.channel.truncate(position);
+			} catch (IOException truncateError) {
+				// the partial record is overwritten by the next one, or cut off on startup
+			}
+			return;
+		}
+		this.end = position + record.limit();
+		this.index.put(hexKey, new Record(position, record.limit(), annotators));
+		STORED.increment();
+	}
+
+	/**
+	 * reads a stored document and extracts results from it
+	 * @param text the text of the document
+	 * @param language language the text was analyzed in
+	 * @param annotators selected annotators
+	 * @param extractor reads the results from the document, given the selected annotators that
+	 * were run on it; the JCas is only valid until it returns
+	 * @return the extracted results, or null if the document is not stored
+	 * @throws IOException if the record cannot be read or is corrupt
+	 */
+	public <T> T replay(String text, String language, Annotators annotators, BiFunction<JCas, Annotators, T> extractor)
+			throws IOException, UIMAException {
+		Record record = this.index.get(hex(key(text, language)));
+		if (record == null) {
+			MISSING.increment();
+			return null;
+		}
+		try {
+			ByteBuffer buffer = ByteBuffer.allocate(record.length);
+			read(buffer, record.position);
+			buffer.flip();
+			int bodyLength = buffer.getInt(0);
+			if (!checksumMatches(buffer)) {
+				throw new IOException("corrupt record at " + record.position + " in " + this.file);
+			}
+			buffer.position(4 + KEY_LENGTH);
+			readString(buffer);
+			readString(buffer);
+			Annotators stored = annotators;
+			for (String name : annotators.getStages()) {
+				if (!record.annotators.contains(name)) {
+					stored = stored.without(name);
+				}
+			}
+			JCas jCas = this.idle.poll();
+			if (jCas == null) {
+				jCas = JCasFactory.createJCas(this.typeSystemDescription);
+			}
+			try {
+				Serialization.deserializeCAS(jCas.getCas(),
+						new ByteArrayInputStream(buffer.array(), buffer.position(), 4 + bodyLength - buffer.position()));
+				T result = extractor.apply(jCas, stored);
+				REPLAYED.increment();
+				return result;
+			} finally {
+				jCas.reset();
+				this.idle.add(jCas);
+			}
+		} catch (IOException | UIMAException | RuntimeException e) {
+			REPLAY_FAILED.increment();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the record at the position, or null if there is no complete record with a matching
+	 * checksum
+	 */
+	private ByteBuffer readRecord(long position, long size) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(4 + KEY_LENGTH + 2);
+		if (position + header.capacity() > size) {
+			return null;
+		}
+		read(header, position);
+		int bodyLength = header.getInt(0);
+		int annotatorsLength = header.getShort(4 + KEY_LENGTH) & 0xffff;
+		long length = 4L + bodyLength + 4;
+		if (annotatorsLength > MAX_ANNOTATORS_LENGTH || bodyLength < KEY_LENGTH + 2 + annotatorsLength + 2
+				|| position + length > size) {
+			return null;
+		}
+		ByteBuffer record = ByteBuffer.allocate((int) length);
+		read(record, position);
+		record.flip();
+		return checksumMatches(record) ? record : null;
+	}
+
+	private void read(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (this.channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("unexpected end of " + this.file);
+			}
+		}
+	}
+
+	private static ByteBuffer record(byte[] key, String annotators, String language, byte[] cas) {
+		byte[] annotatorBytes = annotators.getBytes(StandardCharsets.UTF_8);
+		byte[] languageBytes = language.getBytes(StandardCharsets.UTF_8);
+		int bodyLength = KEY_LENGTH + 2 + annotatorBytes.length + 2 + languageBytes.length + cas.length;
+		ByteBuffer record = ByteBuffer.allocate(4 + bodyLength + 4);
+		record.putInt(bodyLength);
+		record.put(key);
+		record.putShort((short) annotatorBytes.length).put(annotatorBytes);
+		record.putShort((short) languageBytes.length).put(languageBytes);
+		record.put(cas);
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), 4, bodyLength);
+		record.putInt((int) crc.getValue());
+		record.flip();
+		return record;
+	}
+
+	/**
+	 * @param record a complete record, from position 0
+	 * @return true if the CRC-32 at the end of the record matches its body
+	 */
+	private static boolean checksumMatches(ByteBuffer record) {
+		int bodyLength = record.getInt(0);
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), 4, bodyLength);
+		return (int) crc.getValue() == record.getInt(4 + bodyLength);
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getShort() & 0xffff];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return SHA-256 of the language and the text
+	 */
+	private static byte[] key(String text, String language) {
+		MessageDigest digest = sha256();
+		digest.update(language.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		digest.update(text.getBytes(StandardCharsets.UTF_8));
+		return digest.digest();
+	}
+
+	/**
+	 * @return a short hash of the types and features, in the order that determines their codes
+	 * in the serialized form
+	 */
+	private static String fingerprint(TypeSystem typeSystem) {
+		MessageDigest digest = sha256();
+		Iterator<Type> types = typeSystem.getTypeIterator();
+		while (types.hasNext()) {
+			Type type = types.next();
+			StringBuilder description = new StringBuilder(type.getName());
+			for (Feature feature : type.getFeatures()) {
+				description.append(' ').append(feature.getShortName()).append(':').append(feature.getRange().getName());
+			}
+			description.append('\n');
+			digest.update(description.toString().getBytes(StandardCharsets.UTF_8));
+		}
+		return hex(digest.digest()).substring(0, 12);
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		char[] hex = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			hex[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+			hex[2 * i + 1] = HEX[bytes[i] & 0xf];
+		}
+		return new String(hex);
+	}
+
+	/**
+	 * @return number of stored documents
+	 */
+	public int size() {
+		return this.index.size();
+	}
+
+	/**
+	 * Writes the queued records and pending data to disk and closes the data file.
+	 */
+	public void close() {
+		this.writer.shutdown();
+		try {
+			if (!this.writer.awaitTermination(1, TimeUnit.MINUTES)) {
+				log.warn("Closing " + this.file + " with records still queued");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			this.channel.force(false);
+			this.channel.close();
+		} catch (IOException e) {
+			log.warn("Could not close " + this.file, e);
+		}
+	}
+
+}
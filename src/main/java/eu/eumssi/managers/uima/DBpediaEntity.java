@@ -0,0 +1,56 @@
+package eu.eumssi.managers.uima;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.dbpedia.spotlight.uima.types.DBpediaResource;
+
+/**
+ * An entity linked to a DBpedia resource.
+ *
+ */
+public class DBpediaEntity extends Entity {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String uri;
+
+	/**
+	 * @param text covered text
+	 * @param uri DBpedia resource URI
+	 * @param types DBpedia types of the resource
+	 * @param begin start offset in the document
+	 * @param end end offset in the document
+	 * @param buckets output type buckets, see {@link TypeMapper}
+	 */
+	public DBpediaEntity(String text, String uri, String types, int begin, int end, Set<String> buckets) {
+		super(text, types, begin, end, buckets);
+		this.uri = uri;
+	}
+
+	public String getUri() {
+		return uri;
+	}
+
+	/**
+	 * converts Spotlight annotations to entities, leaving out single lower case words, which
+	 * are mostly wrongly linked common nouns
+	 * @param resources DBpedia resource annotations in document order
+	 * @param typeMapper maps the resource types to output type buckets
+	 * @return the entities in document order
+	 */
+	public static List<DBpediaEntity> fromResources(Iterable<? extends DBpediaResource> resources, TypeMapper typeMapper) {
+		List<DBpediaEntity> entities = new ArrayList<DBpediaEntity>();
+		for (DBpediaResource resource : resources) {
+			String text = resource.getCoveredText();
+			// multiword or contains upper case
+			if (text.contains(" ") || !text.equals(text.toLowerCase())) {
+				entities.add(new DBpediaEntity(text, resource.getUri(), resource.getTypes(),
+						resource.getBegin(), resource.getEnd(), typeMapper.map(resource.getTypes())));
+			}
+		}
+		return entities;
+	}
+
+}
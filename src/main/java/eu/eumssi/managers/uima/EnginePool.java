@@ -0,0 +1,307 @@
+package eu.eumssi.managers.uima;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.uima.UIMAException;
+import org.apache.uima.analysis_engine.AnalysisEngineDescription;
+import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
+import org.apache.uima.jcas.JCas;
+
+/**
+ * Fixed-size pool of analysis engines built from the same pipeline stages.
+ * Each engine owns its (reused) JCas, so an engine is never used by two threads at once:
+ * callers block in {@link #acquire()} until an engine is free.
+ * <p>
+ * Documents are processed on a separate thread by {@link #process(PooledEngine, String, String, long)},
+ * so that callers can give up on an analysis that takes too long.
+ *
+ */
+public class EnginePool {
+
+	/**
+	 * Logger for this class and subclasses.
+	 */
+	protected final Log log = LogFactory.getLog(getClass());
+
+	private static final LongAdder ABANDONED = MetricsRegistry.counter("eumssi_engine_abandoned_total");
+
+	private static final LongAdder REPLACED = MetricsRegistry.counter("eumssi_engine_replaced_total");
+
+	private final BlockingQueue<PooledEngine> idle;
+
+	private final List<PooledEngine> engines;
+
+	private final Map<String, AnalysisEngineDescription> trunk;
+
+	private final List<Map<String, AnalysisEngineDescription>> branches;
+
+	private final int maxDocumentLength;
+
+	private final long abandonTimeout;
+
+	/**
+	 * Threads running the engines on behalf of the callers.
+	 */
+	private final ExecutorService processExecutor;
+
+	/**
+	 * Replaces abandoned engines that do not stop in time.
+	 */
+	private final ScheduledExecutorService scheduler;
+
+	/**
+	 * Threads running the parallel pipeline branches, null if there are none.
+	 */
+	private final ExecutorService branchExecutor;
+
+	/**
+	 * Number of threads currently waiting in {@link #acquire()}.
+	 */
+	private final AtomicInteger waiting = new AtomicInteger();
+
+	/**
+	 * Number of abandoned engines that neither stopped nor were replaced yet.
+	 */
+	private final AtomicInteger abandoned = new AtomicInteger();
+
+	/**
+	 * Set by {@link #destroy()}, the pool is torn down once no abandoned engine is left.
+	 */
+	private volatile boolean destroying = false;
+
+	private final AtomicBoolean destroyed = new AtomicBoolean(false);
+
+	private final Histogram acquireTimer = MetricsRegistry.histogram("eumssi_engine_acquire_seconds");
+
+	/**
+	 * Builds all engines of the pool up front.
+	 * @param trunk stages that run first, by name and in order
+	 * @param branches pipeline branches that only depend on the trunk and run in parallel,
+	 * each a map of stages by name in order, may be empty
+	 * @param size number of engine instances
+	 * @param maxDocumentLength documents longer than this (in characters) cause the engine's JCas
+	 * to be replaced instead of reset, 0 to always reuse it
+	 * @param abandonTimeout milliseconds an engine may keep running after its caller gave up,
+	 * before it is replaced by a new one
+	 * @throws UIMAException
+	 */
+	public EnginePool(Map<String, AnalysisEngineDescription> trunk, List<Map<String, AnalysisEngineDescription>> branches,
+			int size, int maxDocumentLength, long abandonTimeout) throws UIMAException {
+		this.trunk = trunk;
+		this.branches = branches;
+		this.maxDocumentLength = maxDocumentLength;
+		this.abandonTimeout = abandonTimeout;
+		this.idle = new ArrayBlockingQueue<PooledEngine>(size);
+		this.engines = new CopyOnWriteArrayList<PooledEngine>();
+		this.branchExecutor = branches.size() > 1 ? Executors.newFixedThreadPool(size * (branches.size() - 1)) : null;
+		this.processExecutor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "uima-engine");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "uima-engine-replacement");
+			thread.setDaemon(true);
+			return thread;
+		});
+		for (int i = 0; i < size; i++) {
+			PooledEngine engine = new PooledEngine(trunk, branches, this.branchExecutor, maxDocumentLength);
+			this.engines.add(engine);
+			this.idle.add(engine);
+		}
+	}
+
+	/**
+	 * Checks out an engine, waiting until one becomes available.
+	 * @return an engine for exclusive use by the calling thread
+	 * @throws InterruptedException
+	 */
+	public PooledEngine acquire() throws InterruptedException {
+		long start = System.nanoTime();
+		this.waiting.incrementAndGet();
+		try {
+			return this.idle.take();
+		} finally {
+			this.waiting.decrementAndGet();
+			this.acquireTimer.observeSince(start);
+		}
+	}
+
+	/**
+	 * Checks out an engine, waiting at most the given time for one to become available.
+	 * @param timeoutNanos maximum time to wait
+	 * @return an engine for exclusive use by the calling thread, or null if none became available
+	 * @throws InterruptedException
+	 */
+	public PooledEngine acquire(long timeoutNanos) throws InterruptedException {
+		long start = System.nanoTime();
+		this.waiting.incrementAndGet();
+		try {
+			return this.idle.poll(timeoutNanos, TimeUnit.NANOSECONDS);
+		} finally {
+			this.waiting.decrementAndGet();
+			this.acquireTimer.observeSince(start);
+		}
+	}
+
+	/**
+	 * Runs an engine on a separate thread, waiting at most the given time for it.
+	 * If the time runs out, the analysis is cancelled and the engine abandoned: it is returned
+	 * to the pool once it stops, or replaced by a new engine if it is still running after the
+	 * abandon timeout. The caller must not release an abandoned engine.
+	 * @param engine an engine obtained from {@link #acquire()}
+	 * @param text the text to analyze
+	 * @param language document language
+	 * @param timeoutNanos maximum time to wait for the analysis
+	 * @return the processed JCas, only valid until the engine is released
+	 * @throws AnalysisEngineProcessException
+	 * @throws TimeoutException if the analysis did not finish in time, the engine is abandoned
+	 * @throws InterruptedException if interrupted while waiting, the engine is abandoned
+	 */
+	public JCas process(PooledEngine engine, String text, String language, long timeoutNanos)
+			throws AnalysisEngineProcessException, TimeoutException, InterruptedException {
+		CompletableFuture<JCas> future = new CompletableFuture<JCas>();
+		this.processExecutor.execute(() -> {
+			try {
+				future.complete(engine.process(text, language));
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			}
+		});
+		try {
+			return future.get(timeoutNanos, TimeUnit.NANOSECONDS);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof AnalysisEngineProcessException) {
+				throw (AnalysisEngineProcessException) e.getCause();
+			}
+			throw new AnalysisEngineProcessException(e.getCause());
+		} catch (TimeoutException | InterruptedException e) {
+			abandon(engine, future);
+			throw e;
+		}
+	}
+
+	private void abandon(PooledEngine engine, CompletableFuture<JCas> future) {
+		ABANDONED.increment();
+		this.abandoned.incrementAndGet();
+		engine.cancel();
+		// whichever comes first: the engine stops and goes back to the pool, or it is replaced
+		AtomicBoolean settled = new AtomicBoolean(false);
+		future.whenComplete((jCas, error) -> {
+			if (settled.compareAndSet(false, true)) {
+				release(engine);
+				settle();
+			} else {
+				engine.destroy();
+			}
+		});
+		this.scheduler.schedule(() -> {
+			if (settled.compareAndSet(false, true)) {
+				replace(engine);
+				settle();
+			}
+		}, this.abandonTimeout, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Called once an abandoned engine stopped or was replaced, finishes a pending {@link #destroy()}.
+	 */
+	private void settle() {
+		if (this.abandoned.decrementAndGet() == 0 && this.destroying) {
+			shutdown();
+		}
+	}
+
+	private void replace(PooledEngine engine) {
+		log.warn("replacing an analysis engine that did not stop within " + this.abandonTimeout + " ms");
+		this.engines.remove(engine);
+		if (this.destroying) {
+			// no replacement needed, the engine is destroyed once it stops
+			return;
+		}
+		try {
+			PooledEngine replacement = new PooledEngine(this.trunk, this.branches, this.branchExecutor, this.maxDocumentLength);
+			this.engines.add(replacement);
+			this.idle.add(replacement);
+			REPLACED.increment();
+		} catch (UIMAException e) {
+			log.error("Could not build a replacement engine, the pool is one engine smaller", e);
+		}
+	}
+
+	/**
+	 * Returns an engine previously obtained from {@link #acquire()}.
+	 * @param engine the engine to return
+	 */
+	public void release(PooledEngine engine) {
+		engine.recycle();
+		this.idle.add(engine);
+	}
+
+	/**
+	 * @return total number of engines in the pool
+	 */
+	public int getSize() {
+		return this.engines.size();
+	}
+
+	/**
+	 * @return number of engines currently checked out
+	 */
+	public int getActiveCount() {
+		return this.engines.size() - this.idle.size();
+	}
+
+	/**
+	 * @return number of threads waiting for an engine
+	 */
+	public int getWaitingCount() {
+		return this.waiting.get();
+	}
+
+	/**
+	 * Releases the resources held by all engines of the pool. If abandoned engines are still
+	 * running, this is delayed until they stop or the abandon timeout expires, so that their
+	 * resources are not destroyed under them.
+	 */
+	public void destroy() {
+		this.destroying = true;
+		int running = this.abandoned.get();
+		if (running == 0) {
+			shutdown();
+		} else {
+			log.info("destroying the engine pool once " + running + " abandoned engines stopped");
+		}
+	}
+
+	private void shutdown() {
+		if (!this.destroyed.compareAndSet(false, true)) {
+			return;
+		}
+		this.scheduler.shutdownNow();
+		this.processExecutor.shutdownNow();
+		if (this.branchExecutor != null) {
+			this.branchExecutor.shutdownNow();
+		}
+		for (PooledEngine engine : this.engines) {
+			engine.destroy();
+		}
+	}
+
+}
@@ -0,0 +1,62 @@
+package eu.eumssi.managers.uima;
+
+import java.io.Serializable;
+import java.util.Set;
+
+/**
+ * A named entity found in the analyzed text.
+ *
+ */
+public class Entity implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String text;
+
+	private final String type;
+
+	private final int begin;
+
+	private final int end;
+
+	/**
+	 * Output type buckets the entity is listed under, besides "all".
+	 */
+	private final Set<String> buckets;
+
+	/**
+	 * @param text covered text
+	 * @param type entity type as returned by the annotator
+	 * @param begin start offset in the document
+	 * @param end end offset in the document
+	 * @param buckets output type buckets, see {@link TypeMapper}
+	 */
+	public Entity(String text, String type, int begin, int end, Set<String> buckets) {
+		this.text = text;
+		this.type = type;
+		this.begin = begin;
+		this.end = end;
+		this.buckets = buckets;
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public int getBegin() {
+		return begin;
+	}
+
+	public int getEnd() {
+		return end;
+	}
+
+	public Set<String> getBuckets() {
+		return buckets;
+	}
+
+}
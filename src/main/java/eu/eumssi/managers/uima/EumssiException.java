@@ -17,11 +17,25 @@ public class EumssiException extends Exception {
 	 */
 	private StatusType statusType;
 
+	/**
+	 * Seconds after which the client may retry, 0 if not applicable.
+	 */
+	private int retryAfter = 0;
+
 	
 	public EumssiException(StatusType statusType) {
 		super();
 		this.statusType = statusType;
 	}
+
+	/**
+	 * @param statusType status type of the error
+	 * @param retryAfter seconds after which the client may retry the request
+	 */
+	public EumssiException(StatusType statusType, int retryAfter) {
+		this(statusType);
+		this.retryAfter = retryAfter;
+	}
 	
 	/**
 	 * @return Status type instance attached to the exception.
@@ -30,4 +44,11 @@ public class EumssiException extends Exception {
 		return statusType;
 	}
 
+	/**
+	 * @return seconds after which the client may retry, 0 if not applicable
+	 */
+	public int getRetryAfter() {
+		return retryAfter;
+	}
+
 }
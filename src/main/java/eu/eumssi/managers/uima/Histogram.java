@@ -0,0 +1,74 @@
+package eu.eumssi.managers.uima;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with fixed buckets, cheap enough to be updated on every request.
+ *
+ */
+public class Histogram {
+
+	/**
+	 * Upper bounds of the buckets in seconds, from 1ms to 60s.
+	 */
+	private static final double[] BOUNDS = {
+		0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60
+	};
+
+	private final LongAdder[] buckets;
+
+	private final LongAdder count = new LongAdder();
+
+	private final LongAdder sumNanos = new LongAdder();
+
+	Histogram() {
+		this.buckets = new LongAdder[BOUNDS.length + 1];
+		for (int i = 0; i < this.buckets.length; i++) {
+			this.buckets[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * records one observation
+	 * @param nanos duration in nanoseconds
+	 */
+	public void observe(long nanos) {
+		double seconds = nanos / 1e9;
+		int i = 0;
+		while (i < BOUNDS.length && seconds > BOUNDS[i]) {
+			i++;
+		}
+		this.buckets[i].increment();
+		this.count.increment();
+		this.sumNanos.add(nanos);
+	}
+
+	/**
+	 * records the time elapsed since the given start
+	 * @param startNanos start time as returned by {@link System#nanoTime()}
+	 */
+	public void observeSince(long startNanos) {
+		observe(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * writes the histogram in Prometheus text format
+	 * @param out target buffer
+	 * @param name metric name
+	 * @param labels label string without braces, may be empty
+	 */
+	void write(StringBuilder out, String name, String labels) {
+		String prefix = labels.isEmpty() ? "" : labels + ",";
+		long cumulative = 0;
+		for (int i = 0; i < this.buckets.length; i++) {
+			cumulative += this.buckets[i].sum();
+			String bound = i < BOUNDS.length ? Double.toString(BOUNDS[i]) : "+Inf";
+			out.append(name).append("_bucket{").append(prefix).append("le=\"").append(bound).append("\"} ")
+					.append(cumulative).append('\n');
+		}
+		String suffix = labels.isEmpty() ? " " : "{" + labels + "} ";
+		out.append(name).append("_sum").append(suffix).append(this.sumNanos.sum() / 1e9).append('\n');
+		out.append(name).append("_count").append(suffix).append(this.count.sum()).append('\n');
+	}
+
+}
@@ -0,0 +1,193 @@
+package eu.eumssi.managers.uima;
+
+/**
+ * State and progress of a background analysis job, see {@link JobManager}.
+ * The same object is written to the job's checkpoint file and returned by the job API.
+ * Progress is only advanced once a whole segment of results has been written.
+ *
+ */
+public class Job {
+
+	/**
+	 * Lifecycle of a job. Queued and running jobs are resumed after a restart.
+	 */
+	public enum State {
+		QUEUED,
+		RUNNING,
+		DONE,
+		FAILED,
+	}
+
+	private final String id;
+
+	private final String input;
+
+	private final String annotators;
+
+	/**
+	 * Whether results are taken from the stored CASes instead of running the pipeline.
+	 */
+	private final boolean reextract;
+
+	private State state = State.QUEUED;
+
+	private String message;
+
+	/**
+	 * Number of documents in the input, -1 until counted.
+	 */
+	private long total = -1;
+
+	private long processed = 0;
+
+	private long failed = 0;
+
+	/**
+	 * Number of result segments written so far.
+	 */
+	private int segments = 0;
+
+	private final long created;
+
+	private long started = 0;
+
+	private long finished = 0;
+
+	/**
+	 * Throughput since the job was last started or resumed.
+	 */
+	private double documentsPerSecond = 0;
+
+	private transient long runStart;
+
+	private transient long runProcessed;
+
+	/**
+	 * @param id job id
+	 * @param input input file or directory, relative to the job input directory
+	 * @param annotators canonical list of annotators to run
+	 * @param reextract take the results from the stored CASes instead of running the pipeline
+	 */
+	Job(String id, String input, String annotators, boolean reextract) {
+		this.id = id;
+		this.input = input;
+		this.annotators = annotators;
+		this.reextract = reextract;
+		this.created = System.currentTimeMillis();
+	}
+
+	private Job(Job job) {
+		this.id = job.id;
+		this.input = job.input;
+		this.annotators = job.annotators;
+		this.reextract = job.reextract;
+		this.state = job.state;
+		this.message = job.message;
+		this.total = job.total;
+		this.processed = job.processed;
+		this.failed = job.failed;
+		this.segments = job.segments;
+		this.created = job.created;
+		this.started = job.started;
+		this.finished = job.finished;
+		this.documentsPerSecond = job.documentsPerSecond;
+	}
+
+	/**
+	 * @return a consistent copy of the current state
+	 */
+	synchronized Job snapshot() {
+		return new Job(this);
+	}
+
+	synchronized void start() {
+		this.state = State.RUNNING;
+		if (this.started == 0) {
+			this.started = System.currentTimeMillis();
+		}
+		this.runStart = System.nanoTime();
+		this.runProcessed = 0;
+		this.documentsPerSecond = 0;
+	}
+
+	synchronized void setTotal(long total) {
+		this.total = total;
+	}
+
+	/**
+	 * records a segment of results that has been written
+	 * @param documents number of documents in the segment
+	 * @param failed number of them that could not be analyzed
+	 */
+	synchronized void segmentDone(int documents, int failed) {
+		this.segments++;
+		this.processed += documents;
+		this.failed += failed;
+		this.runProcessed += documents;
+		double seconds = (System.nanoTime() - this.runStart) / 1e9;
+		this.documentsPerSecond = seconds > 0 ? this.runProcessed / seconds : 0;
+	}
+
+	synchronized void finish(State state, String message) {
+		this.state = state;
+		this.message = message;
+		this.finished = System.currentTimeMillis();
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getInput() {
+		return input;
+	}
+
+	public String getAnnotators() {
+		return annotators;
+	}
+
+	public boolean isReextract() {
+		return reextract;
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	public synchronized String getMessage() {
+		return message;
+	}
+
+	public synchronized long getTotal() {
+		return total;
+	}
+
+	public synchronized long getProcessed() {
+		return processed;
+	}
+
+	public synchronized long getFailed() {
+		return failed;
+	}
+
+	public synchronized int getSegments() {
+		return segments;
+	}
+
+	public long getCreated() {
+		return created;
+	}
+
+	public synchronized long getStarted() {
+		return started;
+	}
+
+	public synchronized long getFinished() {
+		return finished;
+	}
+
+	public synchronized double getDocumentsPerSecond() {
+		return documentsPerSecond;
+	}
+
+}
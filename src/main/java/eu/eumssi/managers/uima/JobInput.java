@@ -0,0 +1,160 @@
+package eu.eumssi.managers.uima;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import eu.eumssi.api.json.uima.JSONDocument;
+
+/**
+ * Reads the documents of a job, always in the same order, so that a resumed job can skip
+ * the documents it already processed.
+ * A file ending in .ndjson or .jsonl holds one document per line,
+ * <code>{"id": &lt;id&gt;, "text": &lt;text&gt;}</code>, optionally with a <code>"lang"</code>. Any other file is a single plain text
+ * document, identified by its path relative to the input. Directories are read recursively
+ * in path order, hidden files are ignored.
+ *
+ */
+public class JobInput implements Closeable {
+
+	/**
+	 * JSON converter for input lines
+	 */
+	private static Gson gson = new Gson();
+
+	private final Path root;
+
+	private final Iterator<Path> files;
+
+	/**
+	 * Reader of the current line-delimited file, null if there is none.
+	 */
+	private BufferedReader lines;
+
+	/**
+	 * @param input input file or directory
+	 * @throws IOException if the directory cannot be listed
+	 */
+	public JobInput(File input) throws IOException {
+		this.root = input.toPath();
+		if (input.isDirectory()) {
+			try (Stream<Path> paths = Files.walk(this.root)) {
+				this.files = paths
+						.filter(Files::isRegularFile)
+						.filter(path -> !isHidden(this.root.relativize(path)))
+						.sorted()
+						.collect(Collectors.toList())
+						.iterator();
+			}
+		} else {
+			this.files = Collections.singletonList(this.root).iterator();
+		}
+	}
+
+	/**
+	 * @param input input file or directory
+	 * @return number of documents in the input
+	 * @throws IOException
+	 */
+	public static long count(File input) throws IOException {
+		try (JobInput documents = new JobInput(input)) {
+			return documents.skip(Long.MAX_VALUE);
+		}
+	}
+
+	/**
+	 * @param max maximum number of documents to read
+	 * @return the next documents, empty at the end of the input; the text of a document
+	 * is null if its input line is not valid
+	 * @throws IOException
+	 */
+	public List<JSONDocument> next(int max) throws IOException {
+		List<JSONDocument> documents = new ArrayList<JSONDocument>();
+		JSONDocument document;
+		while (documents.size() < max && (document = next(true)) != null) {
+			documents.add(document);
+		}
+		return documents;
+	}
+
+	/**
+	 * skips documents without reading plain text files
+	 * @param count number of documents to skip
+	 * @return number of documents skipped, less than requested at the end of the input
+	 * @throws IOException
+	 */
+	public long skip(long count) throws IOException {
+		long skipped = 0;
+		while (skipped < count && next(false) != null) {
+			skipped++;
+		}
+		return skipped;
+	}
+
+	private JSONDocument next(boolean read) throws IOException {
+		while (true) {
+			if (this.lines != null) {
+				String line = this.lines.readLine();
+				if (line == null) {
+					this.lines.close();
+					this.lines = null;
+				} else if (!line.trim().isEmpty()) {
+					return read ? parse(line) : new JSONDocument(null, null);
+				}
+				continue;
+			}
+			if (!this.files.hasNext()) {
+				return null;
+			}
+			Path file = this.files.next();
+			String name = file.getFileName().toString();
+			if (name.endsWith(".ndjson") || name.endsWith(".jsonl")) {
+				this.lines = new BufferedReader(new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8));
+				continue;
+			}
+			String id = file.equals(this.root) ? name : this.root.relativize(file).toString().replace(File.separatorChar, '/');
+			return new JSONDocument(id, read ? new String(Files.readAllBytes(file), StandardCharsets.UTF_8) : null);
+		}
+	}
+
+	private static boolean isHidden(Path relative) {
+		for (Path part : relative) {
+			if (part.toString().startsWith(".")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static JSONDocument parse(String line) {
+		try {
+			JSONDocument document = gson.fromJson(line, JSONDocument.class);
+			return document != null ? document : new JSONDocument(null, null);
+		} catch (JsonParseException e) {
+			return new JSONDocument(null, null);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (this.lines != null) {
+			this.lines.close();
+			this.lines = null;
+		}
+	}
+
+}
@@ -0,0 +1,389 @@
+package eu.eumssi.managers.uima;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import eu.eumssi.api.json.uima.JSONDocument;
+import eu.eumssi.api.json.uima.JSONMeta;
+import eu.eumssi.api.json.uima.JSONMeta.StatusType;
+import eu.eumssi.api.json.uima.JSONResult;
+
+/**
+ * Runs background analysis jobs over local files, one job at a time in submission order.
+ * <p>
+ * The documents of a job are read with {@link JobInput} and analyzed in segments: the
+ * documents of a segment are analyzed in parallel, as bulk requests, and their results
+ * are written to a segment file in input order, one line per document as in
+ * <code>/analyze/stream</code>. After each segment the job's checkpoint file is updated,
+ * so a job interrupted by a restart resumes with the first segment that was not written.
+ * <p>
+ * Each job has its own directory below the job directory, holding <code>job.json</code>
+ * and the files <code>segment-00000.ndjson</code>, <code>segment-00001.ndjson</code>, ...
+ *
+ */
+public class JobManager {
+
+	/**
+	 * Logger for this class and subclasses.
+	 */
+	protected final Log log = LogFactory.getLog(getClass());
+
+	/**
+	 * JSON converter for checkpoint files
+	 */
+	private static Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+	private static final String CHECKPOINT_FILE = "job.json";
+
+	private static final LongAdder DOCUMENTS_OK = MetricsRegistry.counter("eumssi_job_documents_total", "status=\"ok\"");
+
+	private static final LongAdder DOCUMENTS_ERROR = MetricsRegistry.counter("eumssi_job_documents_total", "status=\"error\"");
+
+	private final UimaManager uimaManager;
+
+	private final File directory;
+
+	private final File inputDirectory;
+
+	private final int segmentSize;
+
+	/**
+	 * Runs the jobs, one at a time.
+	 */
+	private final ExecutorService scheduler;
+
+	/**
+	 * Analyzes the documents of the running job's current segment.
+	 */
+	private final ExecutorService workers;
+
+	/**
+	 * All known jobs by id, in submission order.
+	 */
+	private final Map<String, Job> jobs = Collections.synchronizedMap(new LinkedHashMap<String, Job>());
+
+	/**
+	 * Loads the checkpoints of earlier jobs; queued and running ones are only started
+	 * again by {@link #resume()}.
+	 * @param uimaManager analyzes the documents
+	 * @param directory directory for checkpoints and results
+	 * @param inputDirectory job inputs must be below this directory
+	 * @param segmentSize number of documents per result segment
+	 * @param concurrency number of documents of a job analyzed at the same time
+	 */
+	public JobManager(UimaManager uimaManager, File directory, File inputDirectory, int segmentSize, int concurrency) {
+		this.uimaManager = uimaManager;
+		this.directory = directory;
+		this.inputDirectory = inputDirectory;
+		this.segmentSize = Math.max(1, segmentSize);
+		this.scheduler = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "uima-job");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.workers = Executors.newFixedThreadPool(Math.max(1, concurrency), runnable -> {
+			Thread thread = new Thread(runnable, "uima-job-worker");
+			thread.setDaemon(true);
+			return thread;
+		});
+		directory.mkdirs();
+		load();
+		MetricsRegistry.gauge("eumssi_jobs", "state=\"queued\"", () -> countJobs(Job.State.QUEUED));
+		MetricsRegistry.gauge("eumssi_jobs", "state=\"running\"", () -> countJobs(Job.State.RUNNING));
+	}
+
+	private void load() {
+		File[] jobDirectories = this.directory.listFiles(File::isDirectory);
+		if (jobDirectories == null) {
+			return;
+		}
+		List<Job> loaded = new ArrayList<Job>();
+		for (File jobDirectory : jobDirectories) {
+			File checkpoint = new File(jobDirectory, CHECKPOINT_FILE);
+			if (!checkpoint.isFile()) {
+				continue;
+			}
+			try (Reader reader = Files.newBufferedReader(checkpoint.toPath(), StandardCharsets.UTF_8)) {
+				Job job = gson.fromJson(reader, Job.class);
+				if (job != null && job.getId() != null) {
+					loaded.add(job);
+				}
+			} catch (IOException | JsonParseException e) {
+				log.warn("Ignoring unreadable job checkpoint " + checkpoint, e);
+			}
+		}
+		loaded.sort(Comparator.comparingLong(Job::getCreated));
+		for (Job job : loaded) {
+			this.jobs.put(job.getId(), job);
+		}
+	}
+
+	/**
+	 * Starts the jobs that were queued or running when the service was stopped.
+	 */
+	public void resume() {
+		List<Job> pending;
+		synchronized (this.jobs) {
+			pending = new ArrayList<Job>(this.jobs.values());
+		}
+		for (Job job : pending) {
+			if (job.getState() == Job.State.QUEUED || job.getState() == Job.State.RUNNING) {
+				log.info("resuming job " + job.getId() + " after " + job.getProcessed() + " documents");
+				this.scheduler.execute(() -> run(job));
+			}
+		}
+	}
+
+	/**
+	 * queues a new job
+	 * @param input input file or directory, relative to the job input directory
+	 * @param annotators comma separated list of annotators to run, null or empty for all
+	 * @param reextract take the results from the stored CASes instead of running the pipeline
+	 * @return the new job
+	 * @throws EumssiException if an unknown annotator is listed, the input does not exist
+	 * or is outside of the job input directory, or re-extraction is requested without a CAS store
+	 */
+	public Job submit(String input, String annotators, boolean reextract) throws EumssiException {
+		Annotators selection = Annotators.parse(annotators);
+		resolve(input);
+		if (reextract && this.uimaManager.getCasStore() == null) {
+			throw new EumssiException(StatusType.ERROR);
+		}
+		Job job = new Job(UUID.randomUUID().toString(), input, selection.toString(), reextract);
+		try {
+			checkpoint(job);
+		} catch (IOException e) {
+			log.error("Could not create job " + job.getId(), e);
+			throw new EumssiException(StatusType.ERROR_UNKNOWN);
+		}
+		this.jobs.put(job.getId(), job);
+		this.scheduler.execute(() -> run(job));
+		log.info("queued job " + job.getId() + " for " + input);
+		return job.snapshot();
+	}
+
+	private File resolve(String input) throws EumssiException {
+		if (input == null || input.trim().isEmpty()) {
+			throw new EumssiException(StatusType.ERROR);
+		}
+		try {
+			File root = this.inputDirectory.getCanonicalFile();
+			File file = new File(root, input).getCanonicalFile();
+			if (!file.toPath().startsWith(root.toPath()) || !file.exists()) {
+				throw new EumssiException(StatusType.ERROR);
+			}
+			return file;
+		} catch (IOException e) {
+			throw new EumssiException(StatusType.ERROR);
+		}
+	}
+
+	/**
+	 * @param id job id
+	 * @return the current state of the job, or null if there is no such job
+	 */
+	public Job getJob(String id) {
+		Job job = this.jobs.get(id);
+		return job == null ? null : job.snapshot();
+	}
+
+	/**
+	 * @return the current state of all jobs, in submission order
+	 */
+	public List<Job> getJobs() {
+		List<Job> snapshots = new ArrayList<Job>();
+		synchronized (this.jobs) {
+			for (Job job : this.jobs.values()) {
+				snapshots.add(job.snapshot());
+			}
+		}
+		return snapshots;
+	}
+
+	/**
+	 * @param job a job, as returned by {@link #getJob(String)}
+	 * @return the result segments written so far, in input order
+	 */
+	public List<File> getSegments(Job job) {
+		List<File> segments = new ArrayList<File>();
+		for (int i = 0; i < job.getSegments(); i++) {
+			segments.add(segmentFile(job, i));
+		}
+		return segments;
+	}
+
+	private long countJobs(Job.State state) {
+		return getJobs().stream().filter(job -> job.getState() == state).count();
+	}
+
+	private File jobDirectory(Job job) {
+		return new File(this.directory, job.getId());
+	}
+
+	private File segmentFile(Job job, int segment) {
+		return new File(jobDirectory(job), String.format("segment-%05d.ndjson", segment));
+	}
+
+	private void run(Job job) {
+		job.start();
+		try {
+			File input = resolve(job.getInput());
+			Annotators annotators = Annotators.parse(job.getAnnotators());
+			if (job.getTotal() < 0) {
+				job.setTotal(JobInput.count(input));
+			}
+			checkpoint(job);
+			try (JobInput documents = new JobInput(input)) {
+				documents.skip((long) job.getSegments() * this.segmentSize);
+				List<JSONDocument> segment;
+				while (!(segment = documents.next(this.segmentSize)).isEmpty()) {
+					List<JSONResult> results = analyze(segment, annotators, job.isReextract());
+					int failed = 0;
+					for (JSONResult result : results) {
+						if (result.getMeta().getStatusType() != StatusType.SUCCESS) {
+							failed++;
+						}
+					}
+					writeSegment(job, results);
+					job.segmentDone(segment.size(), failed);
+					checkpoint(job);
+				}
+			}
+			job.finish(Job.State.DONE, null);
+			log.info("finished job " + job.getId() + ", " + job.getProcessed() + " documents");
+		} catch (InterruptedException e) {
+			// shutting down, the job stays running and is resumed on the next start
+			log.info("stopped job " + job.getId() + " after " + job.getProcessed() + " documents");
+			return;
+		} catch (EumssiException e) {
+			job.finish(Job.State.FAILED, "input not found or invalid annotators");
+		} catch (IOException e) {
+			if (Thread.currentThread().isInterrupted()) {
+				log.info("stopped job " + job.getId() + " after " + job.getProcessed() + " documents");
+				return;
+			}
+			log.error("Job " + job.getId() + " failed", e);
+			job.finish(Job.State.FAILED, e.toString());
+		}
+		try {
+			checkpoint(job);
+		} catch (IOException e) {
+			log.error("Could not write checkpoint of job " + job.getId(), e);
+		}
+	}
+
+	/**
+	 * analyzes the documents of a segment in parallel
+	 * @return one result per document, in input order
+	 * @throws InterruptedException
+	 */
+	private List<JSONResult> analyze(List<JSONDocument> segment, Annotators annotators, boolean reextract) throws InterruptedException {
+		List<Future<JSONResult>> futures = new ArrayList<Future<JSONResult>>();
+		for (JSONDocument document : segment) {
+			futures.add(this.workers.submit(() -> analyze(document, annotators, reextract)));
+		}
+		List<JSONResult> results = new ArrayList<JSONResult>();
+		try {
+			for (int i = 0; i < futures.size(); i++) {
+				try {
+					results.add(futures.get(i).get());
+				} catch (ExecutionException e) {
+					log.error("Unknown exception", e.getCause());
+					results.add(new JSONResult(segment.get(i).getId(), StatusType.ERROR_UNKNOWN));
+				}
+			}
+		} finally {
+			if (results.size() < futures.size()) {
+				for (Future<JSONResult> future : futures) {
+					future.cancel(true);
+				}
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * analyzes a document, or re-extracts its results, waiting as long as the service is overloaded
+	 * @throws InterruptedException
+	 */
+	private JSONResult analyze(JSONDocument document, Annotators annotators, boolean reextract) throws InterruptedException {
+		if (document.getText() == null || document.getText().isEmpty()) {
+			DOCUMENTS_ERROR.increment();
+			return new JSONResult(document.getId(), StatusType.ERROR);
+		}
+		while (true) {
+			try {
+				AnalysisResult data = reextract
+						? this.uimaManager.reextract(document.getText(), document.getLang(), annotators)
+						: this.uimaManager.analyze(document.getText(), document.getLang(), annotators,
+								AdmissionController.Lane.BULK, 0);
+				DOCUMENTS_OK.increment();
+				return new JSONResult(document.getId(), new JSONMeta(StatusType.SUCCESS), data);
+			} catch (EumssiException e) {
+				if (e.getStatusType() == StatusType.ERROR_OVERLOADED || e.getStatusType() == StatusType.ERROR_UNAVAILABLE) {
+					// leave room for interactive requests
+					Thread.sleep(1000L * Math.max(1, e.getRetryAfter()));
+					continue;
+				}
+				DOCUMENTS_ERROR.increment();
+				return new JSONResult(document.getId(), e.getStatusType());
+			}
+		}
+	}
+
+	private void writeSegment(Job job, List<JSONResult> results) throws IOException {
+		File file = segmentFile(job, job.getSegments());
+		File tmp = new File(file.getPath() + ".tmp");
+		try (Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(tmp.toPath()), StandardCharsets.UTF_8))) {
+			for (JSONResult result : results) {
+				writer.write(result.toJson());
+				writer.write('\n');
+			}
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private void checkpoint(Job job) throws IOException {
+		File jobDirectory = jobDirectory(job);
+		jobDirectory.mkdirs();
+		File file = new File(jobDirectory, CHECKPOINT_FILE);
+		File tmp = new File(jobDirectory, CHECKPOINT_FILE + ".tmp");
+		Files.write(tmp.toPath(), gson.toJson(job.snapshot()).getBytes(StandardCharsets.UTF_8));
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Stops the running job, which is resumed from its last checkpoint on the next start.
+	 */
+	public void destroy() {
+		this.scheduler.shutdownNow();
+		this.workers.shutdownNow();
+	}
+
+}
@@ -0,0 +1,65 @@
+package eu.eumssi.managers.uima;
+
+import java.io.Serializable;
+
+/**
+ * A keyphrase extracted by KEA.
+ *
+ */
+public class KeyPhrase implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String text;
+
+	private final String keyphrase;
+
+	private final String stemmed;
+
+	private final int rank;
+
+	private final double probability;
+
+	private final int begin;
+
+	private final int end;
+
+	public KeyPhrase(String text, String keyphrase, String stemmed, int rank, double probability, int begin, int end) {
+		this.text = text;
+		this.keyphrase = keyphrase;
+		this.stemmed = stemmed;
+		this.rank = rank;
+		this.probability = probability;
+		this.begin = begin;
+		this.end = end;
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	public String getKeyphrase() {
+		return keyphrase;
+	}
+
+	public String getStemmed() {
+		return stemmed;
+	}
+
+	public int getRank() {
+		return rank;
+	}
+
+	public double getProbability() {
+		return probability;
+	}
+
+	public int getBegin() {
+		return begin;
+	}
+
+	public int getEnd() {
+		return end;
+	}
+
+}
@@ -0,0 +1,113 @@
+package eu.eumssi.managers.uima;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Guesses the language of a document from the function words it contains.
+ * Only the beginning of the document is looked at, which is enough to tell apart the
+ * few languages the service is configured for, at a fraction of the cost of the analysis.
+ *
+ */
+public class LanguageDetector {
+
+	/**
+	 * Stopword lists in UTF-8, one line per language: <code>language = word, word, ...</code>
+	 */
+	private static final String STOPWORDS_FILE = "/eu/eumssi/properties/stopwords.properties";
+
+	/**
+	 * Number of characters looked at.
+	 */
+	private static final int MAX_LENGTH = 2000;
+
+	/**
+	 * Minimum number of stopwords found for a language to be detected.
+	 */
+	private static final int MIN_HITS = 3;
+
+	/**
+	 * Languages by stopword, a word may belong to several languages.
+	 */
+	private final Map<String, Set<String>> languagesByWord = new HashMap<String, Set<String>>();
+
+	/**
+	 * @param stopwords stopword list of each language
+	 */
+	public LanguageDetector(Map<String, Collection<String>> stopwords) {
+		for (Entry<String, Collection<String>> language : stopwords.entrySet()) {
+			for (String word : language.getValue()) {
+				this.languagesByWord.computeIfAbsent(word, w -> new HashSet<String>()).add(language.getKey());
+			}
+		}
+	}
+
+	/**
+	 * @param languages languages to detect, languages without a bundled stopword list are ignored
+	 * @return a detector using the bundled stopword lists
+	 * @throws IOException
+	 */
+	public static LanguageDetector load(Collection<String> languages) throws IOException {
+		Properties properties = new Properties();
+		try (InputStream in = LanguageDetector.class.getResourceAsStream(STOPWORDS_FILE)) {
+			properties.load(new InputStreamReader(in, StandardCharsets.UTF_8));
+		}
+		Map<String, Collection<String>> stopwords = new HashMap<String, Collection<String>>();
+		for (String language : languages) {
+			String words = properties.getProperty(language);
+			if (words != null) {
+				stopwords.put(language, Arrays.asList(words.trim().split("\\s*,\\s*")));
+			}
+		}
+		return new LanguageDetector(stopwords);
+	}
+
+	/**
+	 * @param text the document text
+	 * @return the detected language, or null if the text contains too few stopwords
+	 * or is ambiguous
+	 */
+	public String detect(String text) {
+		Map<String, Integer> hits = new HashMap<String, Integer>();
+		int end = Math.min(text.length(), MAX_LENGTH);
+		int start = -1;
+		for (int i = 0; i <= end; i++) {
+			boolean letter = i < end && Character.isLetter(text.charAt(i));
+			if (letter && start < 0) {
+				start = i;
+			} else if (!letter && start >= 0) {
+				Set<String> languages = this.languagesByWord.get(text.substring(start, i).toLowerCase());
+				if (languages != null) {
+					for (String language : languages) {
+						hits.merge(language, 1, Integer::sum);
+					}
+				}
+				start = -1;
+			}
+		}
+		String best = null;
+		int bestHits = 0;
+		int secondHits = 0;
+		for (Entry<String, Integer> language : hits.entrySet()) {
+			if (language.getValue() > bestHits) {
+				secondHits = bestHits;
+				best = language.getKey();
+				bestHits = language.getValue();
+			} else if (language.getValue() > secondHits) {
+				secondHits = language.getValue();
+			}
+		}
+		return bestHits >= MIN_HITS && bestHits > secondHits ? best : null;
+	}
+
+}
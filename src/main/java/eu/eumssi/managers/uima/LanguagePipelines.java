@@ -0,0 +1,395 @@
+package eu.eumssi.managers.uima;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.uima.UIMAException;
+import org.apache.uima.resource.ResourceInitializationException;
+
+import eu.eumssi.api.json.uima.JSONMeta.StatusType;
+
+/**
+ * One {@link Pipeline} per supported language, built from the same configuration.
+ * The pipeline of the default language is built up front, the others on first use, in the
+ * background: requests for a language that is being loaded wait for it until their deadline,
+ * then fail with {@link StatusType#ERROR_UNAVAILABLE}. A language that failed to load is not
+ * tried again until the back-off period has passed.
+ * <p>
+ * If a memory budget is set, loading a language evicts the least recently used languages
+ * until the model sets still loaded, including the new one, fit into the budget. Languages are
+ * only evicted once the new pipeline is built and warmed up, so a failed load leaves the loaded
+ * ones alone, and the default language is never evicted. The size
+ * of each model set is the configured estimate <code>languageMemory</code> (per language, e.g.
+ * <code>languageMemory.de</code>), as the heap used by a model set cannot be measured reliably
+ * while requests are running. Evicted pipelines are retired, requests already running on them
+ * finish normally.
+ *
+ */
+public class LanguagePipelines {
+
+	/**
+	 * Logger for this class and subclasses.
+	 */
+	protected final Log log = LogFactory.getLog(getClass());
+
+	private static final LongAdder LOADS = MetricsRegistry.counter("eumssi_language_loads_total");
+
+	private static final LongAdder EVICTIONS = MetricsRegistry.counter("eumssi_language_evictions_total");
+
+	/**
+	 * A loaded pipeline and the configured estimate of its heap size in bytes.
+	 */
+	private static class Loaded {
+
+		private final Pipeline pipeline;
+
+		private final long footprint;
+
+		private Loaded(Pipeline pipeline, long footprint) {
+			this.pipeline = pipeline;
+			this.footprint = footprint;
+		}
+	}
+
+	/**
+	 * Default estimate of the heap size of a model set, in MB.
+	 */
+	private static final String DEFAULT_LANGUAGE_MEMORY = "1024";
+
+	private final Properties properties;
+
+	private final int poolSize;
+
+	private final String version;
+
+	private final String defaultLanguage;
+
+	private final Set<String> languages;
+
+	private final long memoryBudget;
+
+	/**
+	 * Milliseconds during which a language that failed to load is not tried again.
+	 */
+	private final long loadBackoff;
+
+	/**
+	 * Seconds after which clients may retry while a language is being loaded.
+	 */
+	private final int loadRetryAfter;
+
+	/**
+	 * Detects the language of documents, null if only one language is supported.
+	 */
+	private final LanguageDetector detector;
+
+	/**
+	 * Whether the language of documents that do not specify one is detected.
+	 */
+	private final boolean detectByDefault;
+
+	/**
+	 * Loaded pipelines by language, least recently used first.
+	 */
+	private final LinkedHashMap<String, Loaded> loaded = new LinkedHashMap<String, Loaded>(16, 0.75f, true);
+
+	/**
+	 * Pipelines being built, by language.
+	 */
+	private final Map<String, CompletableFuture<Pipeline>> loading = new HashMap<String, CompletableFuture<Pipeline>>();
+
+	/**
+	 * {@link System#nanoTime()} until which a language that failed to load is not tried again.
+	 */
+	private final Map<String, Long> failures = new HashMap<String, Long>();
+
+	/**
+	 * Builds the pipelines of languages on first use, one at a time.
+	 */
+	private final ExecutorService loader;
+
+	private boolean retired = false;
+
+	/**
+	 * Whether these pipelines are live and register their gauges, see {@link #publishMetrics()}.
+	 */
+	private boolean published = false;
+
+	private final Supplier<Number> loadedGauge = this::getLoadedCount;
+
+	/**
+	 * Builds the pipeline of the default language.
+	 * @param properties configuration properties, see {@link Pipeline#SETTINGS}
+	 * @param poolSize number of engines in the pool running all stages, per language
+	 * @throws UIMAException
+	 */
+	public LanguagePipelines(Properties properties, int poolSize) throws UIMAException {
+		this.properties = properties;
+		this.poolSize = poolSize;
+		this.version = Pipeline.version(properties);
+		this.defaultLanguage = properties.getProperty("language", "en").trim().toLowerCase();
+		Set<String> languages = new LinkedHashSet<String>();
+		languages.add(this.defaultLanguage);
+		for (String language : properties.getProperty("languages", "").split(",")) {
+			if (!language.trim().isEmpty()) {
+				languages.add(language.trim().toLowerCase());
+			}
+		}
+		this.languages = Collections.unmodifiableSet(languages);
+		this.memoryBudget = Long.parseLong(properties.getProperty("languageMemoryBudget", "0").trim()) * 1024 * 1024;
+		this.loadBackoff = Long.parseLong(properties.getProperty("languageLoadBackoff", "60000").trim());
+		this.loadRetryAfter = Integer.parseInt(properties.getProperty("languageLoadRetryAfter", "10").trim());
+		this.detectByDefault = Boolean.parseBoolean(properties.getProperty("languageDetection", "false").trim());
+		if (languages.size() > 1) {
+			try {
+				this.detector = LanguageDetector.load(languages);
+			} catch (IOException e) {
+				throw new ResourceInitializationException(e);
+			}
+		} else {
+			this.detector = null;
+		}
+		Pipeline pipeline = new Pipeline(properties, this.defaultLanguage, poolSize);
+		this.loaded.put(this.defaultLanguage, new Loaded(pipeline, footprint(this.defaultLanguage)));
+		this.loader = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "uima-language-loader");
+			thread.setDaemon(true);
+			return thread;
+		});
+		log.info("supported languages: " + String.join(",", languages));
+	}
+
+	/**
+	 * Registers the gauges of these pipelines and of the pipelines loaded from now on, replacing
+	 * those of the pipelines they take over from. Called once they are live.
+	 */
+	public synchronized void publishMetrics() {
+		if (this.retired) {
+			return;
+		}
+		this.published = true;
+		MetricsRegistry.gauge("eumssi_languages_loaded", "", this.loadedGauge);
+		for (Loaded language : this.loaded.values()) {
+			language.pipeline.publishMetrics();
+		}
+	}
+
+	/**
+	 * runs a sample text through every engine of the loaded pipelines
+	 * @throws ResourceInitializationException if a pipeline fails to warm up
+	 */
+	public void warmUp() throws ResourceInitializationException {
+		for (Loaded language : loadedPipelines()) {
+			language.pipeline.warmUp();
+		}
+	}
+
+	/**
+	 * chooses the language a document is analyzed in
+	 * @param text the document text
+	 * @param language requested language, "auto" to detect it, or null or empty for the default
+	 * or, if detection is enabled, the detected language
+	 * @return a supported language
+	 * @throws EumssiException with {@link StatusType#ERROR} if the language is not supported
+	 */
+	public String resolve(String text, String language) throws EumssiException {
+		boolean auto = language != null && language.trim().equalsIgnoreCase("auto");
+		if (language == null || language.trim().isEmpty() || auto) {
+			String detected = null;
+			if (this.detector != null && (auto || this.detectByDefault)) {
+				detected = this.detector.detect(text);
+			}
+			return detected != null ? detected : this.defaultLanguage;
+		}
+		language = language.trim().toLowerCase();
+		if (!this.languages.contains(language)) {
+			throw new EumssiException(StatusType.ERROR);
+		}
+		return language;
+	}
+
+	/**
+	 * Returns the pipeline of a language, starting to build it in the background if it is not
+	 * loaded. Every successful call must be followed by a call to {@link Pipeline#done()}.
+	 * @param language a supported language, see {@link #resolve(String, String)}
+	 * @param deadline {@link System#nanoTime()} until which to wait for the pipeline to be built
+	 * @return the pipeline, registered as used by the caller, or null if these pipelines were
+	 * retired and the caller must use the current ones instead
+	 * @throws EumssiException with {@link StatusType#ERROR_UNAVAILABLE} if the pipeline is not
+	 * built by the deadline or failed to build recently
+	 */
+	public Pipeline use(String language, long deadline) throws EumssiException {
+		while (true) {
+			CompletableFuture<Pipeline> pending;
+			synchronized (this) {
+				if (this.retired) {
+					return null;
+				}
+				Loaded current = this.loaded.get(language);
+				if (current != null && current.pipeline.use()) {
+					return current.pipeline;
+				}
+				Long failedUntil = this.failures.get(language);
+				if (failedUntil != null) {
+					long remaining = failedUntil - System.nanoTime();
+					if (remaining > 0) {
+						throw new EumssiException(StatusType.ERROR_UNAVAILABLE,
+								(int) Math.max(1, TimeUnit.NANOSECONDS.toSeconds(remaining)));
+					}
+					this.failures.remove(language);
+				}
+				pending = this.loading.get(language);
+				if (pending == null) {
+					CompletableFuture<Pipeline> building = new CompletableFuture<Pipeline>();
+					this.loading.put(language, building);
+					this.loader.execute(() -> load(language, building));
+					pending = building;
+				}
+			}
+			try {
+				pending.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+			} catch (TimeoutException e) {
+				throw new EumssiException(StatusType.ERROR_UNAVAILABLE, this.loadRetryAfter);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new EumssiException(StatusType.ERROR_UNKNOWN);
+			} catch (ExecutionException e) {
+				throw new EumssiException(StatusType.ERROR_UNAVAILABLE,
+						(int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(this.loadBackoff)));
+			}
+		}
+	}
+
+	private void load(String language, CompletableFuture<Pipeline> pending) {
+		try {
+			Pipeline pipeline = new Pipeline(this.properties, language, this.poolSize);
+			pipeline.warmUp();
+			synchronized (this) {
+				this.loading.remove(language);
+				if (this.retired) {
+					pipeline.retire();
+				} else {
+					this.loaded.put(language, new Loaded(pipeline, footprint(language)));
+					if (this.published) {
+						pipeline.publishMetrics();
+					}
+					evictFor(language);
+				}
+			}
+			LOADS.increment();
+			log.info("loaded language " + language);
+			pending.complete(pipeline);
+		} catch (UIMAException | RuntimeException e) {
+			log.error("Could not build the pipeline for language " + language + ", not trying again for "
+					+ this.loadBackoff + " ms", e);
+			synchronized (this) {
+				this.loading.remove(language);
+				this.failures.put(language, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.loadBackoff));
+			}
+			pending.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * @param language a supported language
+	 * @return the configured estimate of the heap size of the model set of the language, in bytes
+	 */
+	private long footprint(String language) {
+		String megabytes = this.properties.getProperty("languageMemory." + language,
+				this.properties.getProperty("languageMemory", DEFAULT_LANGUAGE_MEMORY));
+		return Long.parseLong(megabytes.trim()) * 1024 * 1024;
+	}
+
+	/**
+	 * evicts the least recently used languages, other than the default one, until the loaded
+	 * ones fit into the memory budget
+	 * @param language the language that was just loaded, kept as well
+	 */
+	private synchronized void evictFor(String language) {
+		if (this.memoryBudget <= 0) {
+			return;
+		}
+		long used = 0;
+		for (Loaded current : this.loaded.values()) {
+			used += current.footprint;
+		}
+		Iterator<Entry<String, Loaded>> eldest = this.loaded.entrySet().iterator();
+		while (used > this.memoryBudget && eldest.hasNext()) {
+			Entry<String, Loaded> evicted = eldest.next();
+			if (evicted.getKey().equals(this.defaultLanguage) || evicted.getKey().equals(language)) {
+				continue;
+			}
+			eldest.remove();
+			used -= evicted.getValue().footprint;
+			evicted.getValue().pipeline.retire();
+			EVICTIONS.increment();
+			log.info("evicted language " + evicted.getKey() + " to load " + language);
+		}
+	}
+
+	private synchronized List<Loaded> loadedPipelines() {
+		return new ArrayList<Loaded>(this.loaded.values());
+	}
+
+	/**
+	 * Stops taking new requests and retires all loaded pipelines.
+	 */
+	public synchronized void retire() {
+		this.retired = true;
+		this.loader.shutdown();
+		MetricsRegistry.removeGauge("eumssi_languages_loaded", "", this.loadedGauge);
+		for (Loaded language : this.loaded.values()) {
+			language.pipeline.retire();
+		}
+		this.loaded.clear();
+	}
+
+	/**
+	 * @return the pipeline settings these pipelines were built from, see {@link Pipeline#version(Properties)}
+	 */
+	public String getVersion() {
+		return this.version;
+	}
+
+	/**
+	 * @return language of documents that do not specify one
+	 */
+	public String getDefaultLanguage() {
+		return this.defaultLanguage;
+	}
+
+	/**
+	 * @return all supported languages, the default first
+	 */
+	public Set<String> getLanguages() {
+		return this.languages;
+	}
+
+	/**
+	 * @return number of languages whose pipeline is loaded
+	 */
+	public synchronized int getLoadedCount() {
+		return this.loaded.size();
+	}
+
+}
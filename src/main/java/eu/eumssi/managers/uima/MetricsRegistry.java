@@ -0,0 +1,128 @@
+package eu.eumssi.managers.uima;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide registry of service metrics, exported in the Prometheus text format.
+ * Metrics are identified by name and an optional label string such as <code>stage="ner"</code>.
+ *
+ */
+public class MetricsRegistry {
+
+	private static final ConcurrentMap<String, ConcurrentMap<String, Histogram>> histograms =
+			new ConcurrentHashMap<String, ConcurrentMap<String, Histogram>>();
+
+	private static final ConcurrentMap<String, ConcurrentMap<String, LongAdder>> counters =
+			new ConcurrentHashMap<String, ConcurrentMap<String, LongAdder>>();
+
+	private static final ConcurrentMap<String, ConcurrentMap<String, Supplier<Number>>> gauges =
+			new ConcurrentHashMap<String, ConcurrentMap<String, Supplier<Number>>>();
+
+	private MetricsRegistry() {
+	}
+
+	/**
+	 * @param name metric name
+	 * @return the histogram with the given name and no labels, created if necessary
+	 */
+	public static Histogram histogram(String name) {
+		return histogram(name, "");
+	}
+
+	/**
+	 * @param name metric name
+	 * @param labels label string, e.g. <code>stage="ner"</code>
+	 * @return the histogram with the given name and labels, created if necessary
+	 */
+	public static Histogram histogram(String name, String labels) {
+		return series(histograms, name).computeIfAbsent(labels, l -> new Histogram());
+	}
+
+	/**
+	 * @param name metric name
+	 * @return the counter with the given name and no labels, created if necessary
+	 */
+	public static LongAdder counter(String name) {
+		return counter(name, "");
+	}
+
+	/**
+	 * @param name metric name
+	 * @param labels label string, e.g. <code>status="error"</code>
+	 * @return the counter with the given name and labels, created if necessary
+	 */
+	public static LongAdder counter(String name, String labels) {
+		return series(counters, name).computeIfAbsent(labels, l -> new LongAdder());
+	}
+
+	/**
+	 * registers a gauge, replacing any previous gauge with the same name and labels
+	 * @param name metric name
+	 * @param labels label string, may be empty
+	 * @param value supplier of the current value
+	 */
+	public static void gauge(String name, String labels, Supplier<Number> value) {
+		series(gauges, name).put(labels, value);
+	}
+
+	/**
+	 * removes a gauge, unless it has been replaced by another one in the meantime
+	 * @param name metric name
+	 * @param labels label string, may be empty
+	 * @param value the supplier the gauge was registered with
+	 */
+	public static void removeGauge(String name, String labels, Supplier<Number> value) {
+		series(gauges, name).remove(labels, value);
+	}
+
+	private static <T> ConcurrentMap<String, T> series(ConcurrentMap<String, ConcurrentMap<String, T>> metrics, String name) {
+		return metrics.computeIfAbsent(name, n -> new ConcurrentHashMap<String, T>());
+	}
+
+	/**
+	 * @return all metrics in the Prometheus text exposition format
+	 */
+	public static String export() {
+		StringBuilder out = new StringBuilder();
+		for (Entry<String, Map<String, LongAdder>> metric : sorted(counters).entrySet()) {
+			out.append("# TYPE ").append(metric.getKey()).append(" counter\n");
+			for (Entry<String, LongAdder> series : metric.getValue().entrySet()) {
+				out.append(metric.getKey()).append(braces(series.getKey())).append(' ')
+						.append(series.getValue().sum()).append('\n');
+			}
+		}
+		for (Entry<String, Map<String, Supplier<Number>>> metric : sorted(gauges).entrySet()) {
+			out.append("# TYPE ").append(metric.getKey()).append(" gauge\n");
+			for (Entry<String, Supplier<Number>> series : metric.getValue().entrySet()) {
+				out.append(metric.getKey()).append(braces(series.getKey())).append(' ')
+						.append(series.getValue().get()).append('\n');
+			}
+		}
+		for (Entry<String, Map<String, Histogram>> metric : sorted(histograms).entrySet()) {
+			out.append("# TYPE ").append(metric.getKey()).append(" histogram\n");
+			for (Entry<String, Histogram> series : metric.getValue().entrySet()) {
+				series.getValue().write(out, metric.getKey(), series.getKey());
+			}
+		}
+		return out.toString();
+	}
+
+	private static <T> Map<String, Map<String, T>> sorted(ConcurrentMap<String, ConcurrentMap<String, T>> metrics) {
+		Map<String, Map<String, T>> result = new TreeMap<String, Map<String, T>>();
+		for (Entry<String, ConcurrentMap<String, T>> metric : metrics.entrySet()) {
+			result.put(metric.getKey(), new TreeMap<String, T>(metric.getValue()));
+		}
+		return result;
+	}
+
+	private static String braces(String labels) {
+		return labels.isEmpty() ? "" : "{" + labels + "}";
+	}
+
+}
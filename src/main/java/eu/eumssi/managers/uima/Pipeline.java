@@ -0,0 +1,539 @@
+package eu.eumssi.managers.uima;
+
+import static org.apache.uima.fit.factory.AnalysisEngineFactory.createEngineDescription;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.uima.UIMAException;
+import org.apache.uima.analysis_engine.AnalysisEngineDescription;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.dbpedia.spotlight.uima.SpotlightAnnotator;
+
+import com.iai.uima.analysis_component.KeyPhraseAnnotator;
+
+import de.tudarmstadt.ukp.dkpro.core.languagetool.LanguageToolSegmenter;
+import de.tudarmstadt.ukp.dkpro.core.opennlp.OpenNlpChunker;
+import de.tudarmstadt.ukp.dkpro.core.opennlp.OpenNlpPosTagger;
+import de.tudarmstadt.ukp.dkpro.core.stanfordnlp.StanfordNamedEntityRecognizer;
+
+/**
+ * The engine pools and Spotlight client built from one pipeline configuration, for one language.
+ * Every setting can be overridden for a language by appending the language code to its name,
+ * e.g. <code>dbpediaUrl.de</code>; <code>pipelineAnnotators</code> lists the annotators that
+ * have models for the language.
+ * When the configuration changes, a new pipeline is built and warmed up next to the running
+ * one, then swapped in. Requests that already started on the old pipeline finish on it, and
+ * it is destroyed once the last of them is done, see {@link #use()} and {@link #retire()}.
+ *
+ */
+public class Pipeline {
+
+	/**
+	 * Logger for this class and subclasses.
+	 */
+	protected final Log log = LogFactory.getLog(getClass());
+
+	/**
+	 * Configuration properties that determine the pipeline, all others are fixed at startup.
+	 */
+	public static final List<String> SETTINGS = Arrays.asList("dbpediaUrl", "language", "languages",
+			"languageDetection", "languageMemoryBudget", "languageMemory", "languageLoadBackoff", "languageLoadRetryAfter", "pipelineAnnotators", "spotlightAsync", "spotlightConfidence", "spotlightAllCandidates", "spotlightMaxConcurrent",
+			"spotlightTimeout", "spotlightCacheEntries", "pipelineBranches", "pipelineVariants",
+			"pipelineVariantPoolSize", "casMaxDocumentLength", "engineAbandonTimeout", "warmupIterations");
+
+	/**
+	 * Text used to warm up the pooled engines before the pipeline takes requests.
+	 */
+	private static final String WARMUP_TEXT = "Angela Merkel met Barack Obama in Berlin on Monday. "
+			+ "The leaders of Germany and the United States discussed trade, security and the situation in Ukraine. "
+			+ "Later, representatives of the European Union and NATO joined the talks at the Chancellery.";
+
+	private final String version;
+
+	private final String language;
+
+	private final int spotlightTimeout;
+
+	private final int warmupIterations;
+
+	private final Properties properties;
+
+	/**
+	 * Annotators with models for the language.
+	 */
+	private Annotators annotators;
+
+	/**
+	 * Pools of analysis engines by the stages they run after segmentation, each engine
+	 * with its own JCas. The first pool runs all stages, the others the configured variants.
+	 */
+	private final Map<Set<String>, EnginePool> pools = new LinkedHashMap<Set<String>, EnginePool>();
+
+	/**
+	 * Asynchronous Spotlight client, null if Spotlight runs inside the pipeline.
+	 */
+	private SpotlightClient spotlightClient;
+
+	/**
+	 * A gauge of this pipeline, registered by {@link #publishMetrics()} and removed when the
+	 * pipeline is destroyed.
+	 */
+	private static class Gauge {
+
+		private final String name;
+
+		private final String labels;
+
+		private final Supplier<Number> value;
+
+		private Gauge(String name, String labels, Supplier<Number> value) {
+			this.name = name;
+			this.labels = labels;
+			this.value = value;
+		}
+	}
+
+	private final List<Gauge> gauges = new ArrayList<Gauge>();
+
+	/**
+	 * Number of requests currently using the pipeline.
+	 */
+	private int users = 0;
+
+	private boolean retired = false;
+
+	/**
+	 * Builds all engine pools of the pipeline.
+	 * @param properties configuration properties, see {@link #SETTINGS}
+	 * @param language language of the analyzed documents
+	 * @param poolSize number of engines in the pool running all stages
+	 * @throws UIMAException
+	 */
+	public Pipeline(Properties properties, String language, int poolSize) throws UIMAException {
+		this.version = version(properties);
+		this.language = language;
+		this.properties = properties;
+		this.spotlightTimeout = Integer.parseInt(setting("spotlightTimeout", "30000"));
+		this.warmupIterations = Integer.parseInt(setting("warmupIterations", "3"));
+		try {
+			build(poolSize);
+		} catch (UIMAException | RuntimeException e) {
+			destroy();
+			throw e;
+		}
+	}
+
+	/**
+	 * @param name property name
+	 * @return true if the property is a pipeline setting or a language specific override of one
+	 */
+	public static boolean isSetting(String name) {
+		int dot = name.lastIndexOf('.');
+		return SETTINGS.contains(name) || (dot > 0 && SETTINGS.contains(name.substring(0, dot)));
+	}
+
+	/**
+	 * @param properties configuration properties
+	 * @return a string identifying the pipeline settings among the properties
+	 */
+	public static String version(Properties properties) {
+		Map<String, String> settings = new TreeMap<String, String>();
+		for (String name : properties.stringPropertyNames()) {
+			if (isSetting(name)) {
+				settings.put(name, properties.getProperty(name).trim());
+			}
+		}
+		return settings.toString();
+	}
+
+	/**
+	 * @param name setting name
+	 * @param defaultValue value if the setting is not configured
+	 * @return the value of the setting for the language of this pipeline
+	 */
+	private String setting(String name, String defaultValue) {
+		String value = this.properties.getProperty(name + "." + this.language, this.properties.getProperty(name));
+		return value == null ? defaultValue : value.trim();
+	}
+
+	private void build(int poolSize) throws UIMAException {
+		String dbpediaService = setting("dbpediaUrl", null);
+		float confidence = Float.parseFloat(setting("spotlightConfidence", "0.35"));
+		try {
+			this.annotators = Annotators.parse(setting("pipelineAnnotators", ""));
+		} catch (EumssiException e) {
+			throw new ResourceInitializationException(
+					new IllegalArgumentException("unknown annotator in pipelineAnnotators for " + this.language));
+		}
+		log.info("building pipeline for language " + this.language + " with annotators " + this.annotators
+				+ " and dbpediaUrl " + dbpediaService);
+
+		AnalysisEngineDescription segmenter = createEngineDescription(LanguageToolSegmenter.class);
+
+		// stages that run after segmentation, by name
+		Map<String, AnalysisEngineDescription> stages = new LinkedHashMap<String, AnalysisEngineDescription>();
+
+		boolean dbpedia = this.annotators.contains(Annotators.DBPEDIA);
+		if (dbpedia && Boolean.parseBoolean(setting("spotlightAsync", "true"))) {
+			// Spotlight is queried in parallel with the pipeline, see UimaManager.runPipeline
+			this.spotlightClient = new SpotlightClient(dbpediaService, confidence,
+					Boolean.parseBoolean(setting("spotlightAllCandidates", "false")),
+					Integer.parseInt(setting("spotlightMaxConcurrent", "8")),
+					this.spotlightTimeout,
+					Integer.parseInt(setting("spotlightCacheEntries", "10000")));
+		} else if (dbpedia) {
+			AnalysisEngineDescription spotlight = createEngineDescription(SpotlightAnnotator.class,
+					SpotlightAnnotator.PARAM_ENDPOINT, dbpediaService,
+					SpotlightAnnotator.PARAM_CONFIDENCE, confidence,
+					SpotlightAnnotator.PARAM_ALL_CANDIDATES,
+					Boolean.parseBoolean(setting("spotlightAllCandidates", "false")));
+			stages.put("dbpedia", spotlight);
+		}
+
+		if (this.annotators.contains(Annotators.NER)) {
+			AnalysisEngineDescription ner = createEngineDescription(StanfordNamedEntityRecognizer.class,
+					StanfordNamedEntityRecognizer.PARAM_LANGUAGE, this.language);
+			stages.put("ner", ner);
+		}
+
+		if (this.annotators.contains(Annotators.POS)) {
+			AnalysisEngineDescription pos = createEngineDescription(OpenNlpPosTagger.class,
+					OpenNlpPosTagger.PARAM_LANGUAGE, this.language);
+			stages.put("pos", pos);
+		}
+
+		if (this.annotators.contains(Annotators.CHUNK)) {
+			AnalysisEngineDescription chunk = createEngineDescription(OpenNlpChunker.class,
+					OpenNlpChunker.PARAM_LANGUAGE, this.language);
+			stages.put("chunk", chunk);
+		}
+
+		if (this.annotators.contains(Annotators.KEA)) {
+			AnalysisEngineDescription key = createEngineDescription(KeyPhraseAnnotator.class,
+					KeyPhraseAnnotator.PARAM_LANGUAGE, this.language);
+			stages.put("kea", key);
+		}
+
+		int maxDocumentLength = Integer.parseInt(setting("casMaxDocumentLength", "100000"));
+		long abandonTimeout = Long.parseLong(setting("engineAbandonTimeout", "60000"));
+		List<List<String>> branches = parseBranches(setting("pipelineBranches", ""), stages.keySet());
+		addPool(new LinkedHashSet<String>(stages.keySet()), "all", segmenter, stages, branches, poolSize,
+				maxDocumentLength, abandonTimeout);
+
+		// smaller pipelines for requests that only need some of the annotators
+		int variantPoolSize = Integer.parseInt(setting("pipelineVariantPoolSize", Integer.toString(poolSize)));
+		for (String variant : setting("pipelineVariants", "").split(";")) {
+			if (variant.trim().isEmpty()) {
+				continue;
+			}
+			Set<String> variantStages;
+			try {
+				variantStages = poolStages(supported(Annotators.parse(variant)));
+			} catch (EumssiException e) {
+				throw new ResourceInitializationException(
+						new IllegalArgumentException("unknown stage in pipeline variant: " + variant));
+			}
+			if (!this.pools.containsKey(variantStages)) {
+				String name = variantStages.isEmpty() ? "segmenter" : String.join(",", variantStages);
+				addPool(variantStages, name, segmenter, stages, branches, variantPoolSize,
+						maxDocumentLength, abandonTimeout);
+			}
+		}
+	}
+
+	/**
+	 * builds a pool of engines running the given stages
+	 * @param variant names of the stages to run after segmentation
+	 * @param name pool name for metrics and logging
+	 * @param segmenter segmentation stage, always run first
+	 * @param stages descriptions of all stages by name
+	 * @param branches branch configuration for all stages, see {@link #parseBranches(String, Set)}
+	 * @param size number of engines
+	 * @param maxDocumentLength see {@link EnginePool#EnginePool(Map, List, int, int, long)}
+	 * @param abandonTimeout see {@link EnginePool#EnginePool(Map, List, int, int, long)}
+	 * @throws UIMAException
+	 */
+	private void addPool(Set<String> variant, String name, AnalysisEngineDescription segmenter,
+			Map<String, AnalysisEngineDescription> stages, List<List<String>> branches, int size,
+			int maxDocumentLength, long abandonTimeout) throws UIMAException {
+		Map<String, AnalysisEngineDescription> trunk = new LinkedHashMap<String, AnalysisEngineDescription>();
+		trunk.put("segmenter", segmenter);
+		List<Map<String, AnalysisEngineDescription>> variantBranches = new ArrayList<Map<String, AnalysisEngineDescription>>();
+		for (List<String> branch : branches) {
+			Map<String, AnalysisEngineDescription> branchStages = new LinkedHashMap<String, AnalysisEngineDescription>();
+			for (String stage : branch) {
+				if (variant.contains(stage)) {
+					branchStages.put(stage, stages.get(stage));
+				}
+			}
+			if (!branchStages.isEmpty()) {
+				variantBranches.add(branchStages);
+			}
+		}
+		if (variantBranches.size() == 1) {
+			// nothing to parallelize, run everything in sequence
+			trunk.putAll(variantBranches.remove(0));
+		}
+		log.info("building pipeline " + name + " with " + size + " engines");
+		EnginePool pool = new EnginePool(trunk, variantBranches, size, maxDocumentLength, abandonTimeout);
+		this.pools.put(variant, pool);
+		registerPoolMetrics(name, pool);
+	}
+
+	private void registerPoolMetrics(String name, EnginePool pool) {
+		String labels = "pipeline=\"" + name + "\",language=\"" + this.language + "\"";
+		registerGauge("eumssi_pool_size", labels, () -> pool.getSize());
+		registerGauge("eumssi_pool_active", labels, () -> pool.getActiveCount());
+		registerGauge("eumssi_pool_waiting", labels, () -> pool.getWaitingCount());
+	}
+
+	private void registerGauge(String name, String labels, Supplier<Number> value) {
+		this.gauges.add(new Gauge(name, labels, value));
+	}
+
+	/**
+	 * Registers the gauges of the pipeline, replacing those of the pipeline it takes over from.
+	 * Only called once the pipeline is live, so that one failing to build or warm up does not
+	 * take the gauges of the running one with it.
+	 */
+	public synchronized void publishMetrics() {
+		if (this.retired) {
+			return;
+		}
+		for (Gauge gauge : this.gauges) {
+			MetricsRegistry.gauge(gauge.name, gauge.labels, gauge.value);
+		}
+	}
+
+	/**
+	 * @param annotators selected annotators
+	 * @return names of the pipeline stages needed for the annotators, without segmentation
+	 */
+	private Set<String> poolStages(Annotators annotators) {
+		Set<String> stages = new LinkedHashSet<String>(annotators.getStages());
+		if (this.spotlightClient != null) {
+			// queried outside of the pipeline
+			stages.remove(Annotators.DBPEDIA);
+		}
+		return stages;
+	}
+
+	/**
+	 * @param annotators selected annotators
+	 * @return the selected annotators that have models for the language of this pipeline
+	 */
+	public Annotators supported(Annotators annotators) {
+		Annotators supported = annotators;
+		for (String name : annotators.getStages()) {
+			if (!this.annotators.contains(name)) {
+				supported = supported.without(name);
+			}
+		}
+		return supported;
+	}
+
+	/**
+	 * @param annotators selected annotators, all supported by this pipeline
+	 * @return the pool with the fewest stages that runs all stages needed for the annotators
+	 */
+	public EnginePool selectPool(Annotators annotators) {
+		Set<String> required = poolStages(annotators);
+		EnginePool selected = null;
+		int selectedStages = Integer.MAX_VALUE;
+		for (Entry<Set<String>, EnginePool> pool : this.pools.entrySet()) {
+			if (pool.getKey().size() < selectedStages && pool.getKey().containsAll(required)) {
+				selected = pool.getValue();
+				selectedStages = pool.getKey().size();
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * parses the pipeline branch configuration. Branches are separated by "|" and contain a comma
+	 * separated list of stages, e.g. "ner | pos, chunk, kea". Each branch only depends on segmentation.
+	 * Stages that are not listed are appended to the first branch.
+	 * <p>
+	 * Features that branches set on segmentation annotations, such as the part of speech of tokens,
+	 * are merged into the results, see {@link PooledEngine}, but two branches must not set the same
+	 * feature. Stages whose annotations point to segmentation annotations, such as a dependency
+	 * parser, must be in the first branch, which runs on the CAS the results are read from.
+	 * @param config the branch configuration
+	 * @param stageNames names of all available stages, in default order
+	 * @return list of branches, each a list of stage names
+	 * @throws ResourceInitializationException if an unknown stage is listed
+	 */
+	private static List<List<String>> parseBranches(String config, Set<String> stageNames) throws ResourceInitializationException {
+		List<List<String>> branches = new ArrayList<List<String>>();
+		Set<String> unused = new LinkedHashSet<String>(stageNames);
+		for (String branchConfig : config.split("\\|")) {
+			List<String> branch = new ArrayList<String>();
+			for (String name : branchConfig.split(",")) {
+				name = name.trim();
+				if (name.isEmpty()) {
+					continue;
+				}
+				if (!unused.remove(name)) {
+					throw new ResourceInitializationException(
+							new IllegalArgumentException("unknown or duplicate pipeline stage: " + name));
+				}
+				branch.add(name);
+			}
+			if (!branch.isEmpty()) {
+				branches.add(branch);
+			}
+		}
+		if (branches.isEmpty()) {
+			branches.add(new ArrayList<String>());
+		}
+		branches.get(0).addAll(unused);
+		return branches;
+	}
+
+	/**
+	 * runs a sample text through every engine of every pool, so that models are loaded and
+	 * the hot code paths are compiled before the pipeline takes requests
+	 * @throws ResourceInitializationException if an engine fails on the sample text, or if
+	 * interrupted; the pipeline must not take requests then
+	 */
+	public void warmUp() throws ResourceInitializationException {
+		for (EnginePool pool : this.pools.values()) {
+			warmUp(pool);
+		}
+	}
+
+	private void warmUp(EnginePool pool) throws ResourceInitializationException {
+		log.info("warming up " + pool.getSize() + " engines");
+		List<PooledEngine> engines = new ArrayList<PooledEngine>();
+		ExecutorService executor = Executors.newFixedThreadPool(pool.getSize());
+		try {
+			// hold all engines, so that each one is warmed up exactly once
+			for (int i = 0; i < pool.getSize(); i++) {
+				engines.add(pool.acquire());
+			}
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (PooledEngine engine : engines) {
+				futures.add(executor.submit(() -> {
+					for (int i = 0; i < this.warmupIterations; i++) {
+						engine.process(WARMUP_TEXT, this.language);
+						engine.recycle();
+					}
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+			log.info("warm-up done");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ResourceInitializationException(e);
+		} catch (ExecutionException e) {
+			throw new ResourceInitializationException(e.getCause());
+		} finally {
+			executor.shutdown();
+			for (PooledEngine engine : engines) {
+				pool.release(engine);
+			}
+		}
+	}
+
+	/**
+	 * Registers a request using the pipeline. Every successful call must be followed by a call
+	 * to {@link #done()}.
+	 * @return false if the pipeline was retired, the caller must use the current one instead
+	 */
+	public synchronized boolean use() {
+		if (this.retired) {
+			return false;
+		}
+		this.users++;
+		return true;
+	}
+
+	/**
+	 * Registers another use by a caller that already uses the pipeline, for work it hands to
+	 * other threads. Unlike {@link #use()} this also succeeds once the pipeline is retired, as
+	 * it is not destroyed before the caller is done. Must be followed by a call to {@link #done()}.
+	 */
+	synchronized void share() {
+		this.users++;
+	}
+
+	/**
+	 * Unregisters a request registered with {@link #use()} or {@link #share()}.
+	 */
+	public synchronized void done() {
+		this.users--;
+		if (this.retired && this.users == 0) {
+			destroy();
+		}
+	}
+
+	/**
+	 * Stops taking new requests and destroys the pipeline once the running ones are done.
+	 */
+	public synchronized void retire() {
+		this.retired = true;
+		if (this.users == 0) {
+			destroy();
+		}
+	}
+
+	private void destroy() {
+		if (this.spotlightClient != null) {
+			this.spotlightClient.close();
+		}
+		for (EnginePool pool : this.pools.values()) {
+			pool.destroy();
+		}
+		for (Gauge gauge : this.gauges) {
+			MetricsRegistry.removeGauge(gauge.name, gauge.labels, gauge.value);
+		}
+	}
+
+	/**
+	 * @return the pipeline settings this pipeline was built from, see {@link #version(Properties)}
+	 */
+	public String getVersion() {
+		return this.version;
+	}
+
+	/**
+	 * @return language of the analyzed documents
+	 */
+	public String getLanguage() {
+		return this.language;
+	}
+
+	/**
+	 * @return the asynchronous Spotlight client, or null if Spotlight runs inside the pipeline
+	 */
+	public SpotlightClient getSpotlightClient() {
+		return this.spotlightClient;
+	}
+
+	/**
+	 * @return maximum time to wait for Spotlight in milliseconds
+	 */
+	public int getSpotlightTimeout() {
+		return this.spotlightTimeout;
+	}
+
+}
@@ -0,0 +1,390 @@
+package eu.eumssi.managers.uima;
+
+import static org.apache.uima.fit.factory.AnalysisEngineFactory.createEngine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.uima.analysis_engine.AnalysisEngine;
+import org.apache.uima.analysis_engine.AnalysisEngineDescription;
+import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.CASException;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.apache.uima.resource.metadata.ProcessingResourceMetaData;
+import org.apache.uima.util.CasCopier;
+import org.apache.uima.util.CasCreationUtils;
+
+/**
+ * An analysis engine together with the JCas it processes.
+ * Instances are handed out by {@link EnginePool} to one thread at a time and must be
+ * released back to the pool once the results have been read from the JCas.
+ * <p>
+ * The JCas is created once from the merged type systems of all stages and reset between
+ * documents. Since a CAS heap never shrinks on reset, the JCas is replaced by a fresh
+ * one after processing a document longer than the configured maximum.
+ * <p>
+ * The pipeline consists of a trunk followed by zero or more independent branches.
+ * The first branch runs on the main JCas, every other branch on a copy of it in a
+ * separate thread. Annotations a branch added are then copied back into the main JCas,
+ * and features it set on annotations of the trunk, such as the part of speech of tokens,
+ * are set on the corresponding annotations of the main JCas. Branches must not change
+ * the same feature of a trunk annotation, only one of the values is kept.
+ * <p>
+ * Each stage is a separate engine, so that its processing time can be recorded.
+ * A running analysis can be cancelled with {@link #cancel()}, it then stops before the
+ * next stage.
+ *
+ */
+public class PooledEngine {
+
+	/**
+	 * Logger for this class and subclasses.
+	 */
+	protected final Log log = LogFactory.getLog(getClass());
+
+	/**
+	 * A named pipeline stage and its timer.
+	 */
+	private static class Stage {
+
+		private final String name;
+
+		private final AnalysisEngine ae;
+
+		private final Histogram timer;
+
+		private Stage(String name, AnalysisEngine ae) {
+			this.name = name;
+			this.ae = ae;
+			this.timer = MetricsRegistry.histogram("eumssi_stage_duration_seconds", "stage=\"" + name + "\"");
+		}
+	}
+
+	/**
+	 * Features that place an annotation in the document, never changed by copying back.
+	 */
+	private static final Set<String> LOCATION_FEATURES = new HashSet<String>(Arrays.asList(
+			CAS.FEATURE_FULL_NAME_SOFA, CAS.FEATURE_FULL_NAME_BEGIN, CAS.FEATURE_FULL_NAME_END));
+
+	/**
+	 * The copy of the main CAS a branch runs on, with the annotations of the trunk it was made from.
+	 */
+	private static class BranchCas {
+
+		private final CAS main;
+
+		private final CAS cas;
+
+		/**
+		 * Trunk annotations of the main CAS by their copy.
+		 */
+		private final Map<FeatureStructure, FeatureStructure> trunk = new HashMap<FeatureStructure, FeatureStructure>();
+
+		/**
+		 * Feature values of the copies before the branch ran, see {@link #values(FeatureStructure)}.
+		 */
+		private final Map<FeatureStructure, Object[]> before = new HashMap<FeatureStructure, Object[]>();
+
+		private BranchCas(CAS main, CAS cas, List<AnnotationFS> trunkAnnotations) {
+			this.main = main;
+			this.cas = cas;
+			CasCopier copier = new CasCopier(main, cas);
+			cas.setDocumentText(main.getDocumentText());
+			cas.setDocumentLanguage(main.getDocumentLanguage());
+			for (AnnotationFS annotation : trunkAnnotations) {
+				AnnotationFS copy = copier.copyFs(annotation);
+				cas.addFsToIndexes(copy);
+				this.trunk.put(copy, annotation);
+				this.before.put(copy, values(copy));
+			}
+		}
+
+		/**
+		 * @return the values of the features of an annotation, strings for primitive features
+		 * and feature structures for the others
+		 */
+		private static Object[] values(FeatureStructure annotation) {
+			List<Feature> features = annotation.getType().getFeatures();
+			Object[] values = new Object[features.size()];
+			for (int i = 0; i < values.length; i++) {
+				Feature feature = features.get(i);
+				values[i] = feature.getRange().isPrimitive() ? annotation.getFeatureValueAsString(feature)
+						: annotation.getFeatureValue(feature);
+			}
+			return values;
+		}
+
+		/**
+		 * Copies the annotations added by the branch into the main CAS, and the features the
+		 * branch set on trunk annotations into the corresponding annotations of the main CAS.
+		 */
+		private void copyBack() {
+			CasCopier back = new CasCopier(this.cas, this.main);
+			AnnotationFS document = this.cas.getDocumentAnnotation();
+			for (AnnotationFS annotation : this.cas.getAnnotationIndex()) {
+				FeatureStructure original = this.trunk.get(annotation);
+				if (original != null) {
+					mergeFeatures(annotation, original, back);
+				} else if (!annotation.equals(document)) {
+					this.main.addFsToIndexes(back.copyFs(annotation));
+				}
+			}
+		}
+
+		private void mergeFeatures(FeatureStructure copy, FeatureStructure original, CasCopier back) {
+			List<Feature> features = copy.getType().getFeatures();
+			Object[] before = this.before.get(copy);
+			Object[] after = values(copy);
+			for (int i = 0; i < features.size(); i++) {
+				Feature feature = features.get(i);
+				if (LOCATION_FEATURES.contains(feature.getName()) || Objects.equals(before[i], after[i])) {
+					continue;
+				}
+				if (feature.getRange().isPrimitive()) {
+					original.setFeatureValueFromString(feature, (String) after[i]);
+				} else {
+					FeatureStructure value = (FeatureStructure) after[i];
+					original.setFeatureValue(feature, value == null ? null
+							: this.trunk.containsKey(value) ? this.trunk.get(value) : back.copyFs(value));
+				}
+			}
+		}
+	}
+
+	private final List<Stage> trunk;
+
+	private final List<List<Stage>> branches;
+
+	/**
+	 * Metadata of all stages, whose type systems, type priorities and indexes are merged into
+	 * those of the JCases.
+	 */
+	private final List<ProcessingResourceMetaData> metaData = new ArrayList<ProcessingResourceMetaData>();
+
+	private final ExecutorService branchExecutor;
+
+	private final int maxDocumentLength;
+
+	private JCas jCas;
+
+	/**
+	 * JCas copies for the branches after the first one, which runs on the main JCas.
+	 */
+	private final List<JCas> branchCases;
+
+	private int lastDocumentLength = 0;
+
+	/**
+	 * Set when the caller gave up on the current document.
+	 */
+	private volatile boolean cancelled = false;
+
+	PooledEngine(Map<String, AnalysisEngineDescription> trunk, List<Map<String, AnalysisEngineDescription>> branches,
+			ExecutorService branchExecutor, int maxDocumentLength) throws ResourceInitializationException {
+		this.trunk = createStages(trunk);
+		this.branches = new ArrayList<List<Stage>>();
+		for (Map<String, AnalysisEngineDescription> branch : branches) {
+			this.branches.add(createStages(branch));
+		}
+		for (Stage stage : this.trunk) {
+			this.metaData.add(stage.ae.getProcessingResourceMetaData());
+		}
+		for (List<Stage> branch : this.branches) {
+			for (Stage stage : branch) {
+				this.metaData.add(stage.ae.getProcessingResourceMetaData());
+			}
+		}
+		this.branchExecutor = branchExecutor;
+		this.maxDocumentLength = maxDocumentLength;
+		this.jCas = newJCas();
+		this.branchCases = new ArrayList<JCas>();
+		for (int i = 1; i < branches.size(); i++) {
+			this.branchCases.add(newJCas());
+		}
+	}
+
+	private static List<Stage> createStages(Map<String, AnalysisEngineDescription> descriptions) throws ResourceInitializationException {
+		List<Stage> stages = new ArrayList<Stage>();
+		for (Entry<String, AnalysisEngineDescription> description : descriptions.entrySet()) {
+			stages.add(new Stage(description.getKey(), createEngine(description.getValue())));
+		}
+		return stages;
+	}
+
+	private JCas newJCas() throws ResourceInitializationException {
+		try {
+			return CasCreationUtils.createCas(this.metaData).getJCas();
+		} catch (CASException e) {
+			throw new ResourceInitializationException(e);
+		}
+	}
+
+	private void run(List<Stage> stages, JCas jCas) throws AnalysisEngineProcessException {
+		for (Stage stage : stages) {
+			if (this.cancelled) {
+				throw new AnalysisEngineProcessException(new InterruptedException("analysis cancelled before stage " + stage.name));
+			}
+			long start = System.nanoTime();
+			try {
+				stage.ae.process(jCas);
+			} finally {
+				stage.timer.observeSince(start);
+			}
+		}
+	}
+
+	/**
+	 * Runs the pipeline on the given text, reusing this engine's JCas.
+	 * @param text the text to analyze
+	 * @param language document language
+	 * @return the processed JCas, only valid until the engine is released
+	 * @throws AnalysisEngineProcessException
+	 */
+	public JCas process(String text, String language) throws AnalysisEngineProcessException {
+		this.lastDocumentLength = text.length();
+		this.jCas.setDocumentText(text);
+		this.jCas.setDocumentLanguage(language);
+		run(this.trunk, this.jCas);
+		if (this.branches.size() == 1) {
+			run(this.branches.get(0), this.jCas);
+		} else if (this.branches.size() > 1) {
+			processBranches();
+		}
+		return this.jCas;
+	}
+
+	private void processBranches() throws AnalysisEngineProcessException {
+		CAS main = this.jCas.getCas();
+		List<AnnotationFS> trunkAnnotations = new ArrayList<AnnotationFS>();
+		AnnotationFS document = main.getDocumentAnnotation();
+		for (AnnotationFS annotation : main.getAnnotationIndex()) {
+			if (!annotation.equals(document)) {
+				trunkAnnotations.add(annotation);
+			}
+		}
+		List<BranchCas> copies = new ArrayList<BranchCas>();
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int i = 1; i < this.branches.size(); i++) {
+			final List<Stage> branch = this.branches.get(i);
+			final JCas copy = this.branchCases.get(i - 1);
+			copies.add(new BranchCas(main, copy.getCas(), trunkAnnotations));
+			futures.add(this.branchExecutor.submit(() -> {
+				run(branch, copy);
+				return null;
+			}));
+		}
+		Throwable error = null;
+		try {
+			run(this.branches.get(0), this.jCas);
+		} catch (AnalysisEngineProcessException e) {
+			error = e;
+		}
+		// always wait for all branches, their CASes must not be reset while still in use
+		boolean interrupted = false;
+		for (Future<?> future : futures) {
+			while (true) {
+				try {
+					future.get();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					if (error == null) {
+						error = e.getCause();
+					}
+					break;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (error instanceof AnalysisEngineProcessException) {
+			throw (AnalysisEngineProcessException) error;
+		} else if (error != null) {
+			throw new AnalysisEngineProcessException(error);
+		}
+		for (BranchCas copy : copies) {
+			copy.copyBack();
+		}
+	}
+
+	/**
+	 * Asks a running analysis to stop. Stages cannot be interrupted, so the analysis
+	 * ends with an exception once the current stage is done.
+	 */
+	void cancel() {
+		this.cancelled = true;
+	}
+
+	/**
+	 * Prepares the JCas for the next document. Called when the engine is returned to the pool,
+	 * so that idle engines don't keep the last document and its annotations reachable.
+	 */
+	void recycle() {
+		boolean replace = this.maxDocumentLength > 0 && this.lastDocumentLength > this.maxDocumentLength;
+		this.jCas = recycle(this.jCas, replace);
+		for (int i = 0; i < this.branchCases.size(); i++) {
+			this.branchCases.set(i, recycle(this.branchCases.get(i), replace));
+		}
+		this.lastDocumentLength = 0;
+		this.cancelled = false;
+	}
+
+	private JCas recycle(JCas jCas, boolean replace) {
+		if (replace) {
+			try {
+				return newJCas();
+			} catch (ResourceInitializationException e) {
+				log.warn("Could not replace oversized JCas, reusing it", e);
+			}
+		}
+		jCas.reset();
+		return jCas;
+	}
+
+	/**
+	 * @return names of all stages run by this engine, in order
+	 */
+	public List<String> getStageNames() {
+		List<String> names = new ArrayList<String>();
+		for (Stage stage : this.trunk) {
+			names.add(stage.name);
+		}
+		for (List<Stage> branch : this.branches) {
+			for (Stage stage : branch) {
+				names.add(stage.name);
+			}
+		}
+		return names;
+	}
+
+	void destroy() {
+		for (Stage stage : this.trunk) {
+			stage.ae.destroy();
+		}
+		for (List<Stage> branch : this.branches) {
+			for (Stage stage : branch) {
+				stage.ae.destroy();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,383 @@
+package eu.eumssi.managers.uima;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Bounded LRU cache of analysis results, keyed by a hash of the document text and
+ * the pipeline configuration version.
+ * Entries expire after a fixed time to live. If a directory is given, entries are also
+ * written to disk so that the cache survives a restart. The files are written and deleted by a
+ * background thread, so that requests do not wait for the disk. They are kept in a subdirectory
+ * per configuration version and deleted when their entry is evicted or expires; on startup,
+ * the directories of other versions are removed and the current one is cut down to the
+ * newest unexpired entries.
+ * Hits, misses and evictions are counted in the <code>eumssi_cache_*_total</code> counters,
+ * labeled with the name of the cache.
+ *
+ * @param <V> type of the cached results
+ */
+public class ResultCache<V> {
+
+	/**
+	 * Logger for this class and subclasses.
+	 */
+	protected final Log log = LogFactory.getLog(getClass());
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Number of entries waiting to be written to disk before further ones are only kept in memory.
+	 */
+	private static final int WRITE_QUEUE_SIZE = 256;
+
+	private final String version;
+
+	private final int maxEntries;
+
+	private final long ttlMillis;
+
+	/**
+	 * Directory of the files of the current version, or null.
+	 */
+	private final File directory;
+
+	private final Map<String, CacheEntry<V>> entries;
+
+	private final LongAdder hits;
+
+	private final LongAdder misses;
+
+	private final LongAdder evictions;
+
+	/**
+	 * Entries that were not written to disk because the writer was behind.
+	 */
+	private final LongAdder dropped;
+
+	/**
+	 * Writes and deletes the files in order, null if the cache is kept in memory only.
+	 */
+	private final ExecutorService writer;
+
+	private static class CacheEntry<V> implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final V value;
+
+		private final long expires;
+
+		private CacheEntry(V value, long expires) {
+			this.value = value;
+			this.expires = expires;
+		}
+	}
+
+	/**
+	 * @param name name of the cache, the <code>cache</code> label of its metrics
+	 * @param version pipeline configuration version, part of every key
+	 * @param maxEntries maximum number of entries kept in memory
+	 * @param ttlSeconds time to live of an entry, 0 for no expiry
+	 * @param directory directory for the on-disk copy, or null to keep the cache in memory only
+	 */
+	@SuppressWarnings("serial")
+	public ResultCache(String name, String version, final int maxEntries, long ttlSeconds, File directory) {
+		String labels = "cache=\"" + name + "\"";
+		this.hits = MetricsRegistry.counter("eumssi_cache_hits_total", labels);
+		this.misses = MetricsRegistry.counter("eumssi_cache_misses_total", labels);
+		this.evictions = MetricsRegistry.counter("eumssi_cache_evictions_total", labels);
+		this.dropped = MetricsRegistry.counter("eumssi_cache_writes_dropped_total", labels);
+		this.version = version;
+		this.maxEntries = maxEntries;
+		this.ttlMillis = ttlSeconds * 1000;
+		this.directory = directory == null ? null : new File(directory, hex(digest(version)).substring(0, 12));
+		if (directory != null) {
+			this.directory.mkdirs();
+			Thread pruning = new Thread(() -> prune(directory), "result-cache-prune");
+			pruning.setDaemon(true);
+			pruning.start();
+			this.writer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+					new LinkedBlockingQueue<Runnable>(WRITE_QUEUE_SIZE), runnable -> {
+						Thread thread = new Thread(runnable, "result-cache-writer");
+						thread.setDaemon(true);
+						return thread;
+					});
+		} else {
+			this.writer = null;
+		}
+		this.entries = new LinkedHashMap<String, CacheEntry<V>>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CacheEntry<V>> eldest) {
+				if (size() > maxEntries) {
+					evictions.increment();
+					deleteFromDisk(eldest.getKey());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * removes the files of other versions, and all but the newest unexpired files of this one
+	 * @param root directory given to the constructor
+	 */
+	private void prune(File root) {
+		long started = System.currentTimeMillis();
+		File[] versions = root.listFiles();
+		if (versions == null) {
+			return;
+		}
+		for (File version : versions) {
+			if (!version.equals(this.directory)) {
+				log.info("deleting result cache files of an old configuration in " + version);
+				delete(version);
+			}
+		}
+		List<File> files = new ArrayList<File>();
+		File[] prefixes = this.directory.listFiles();
+		for (File prefix : prefixes == null ? new File[0] : prefixes) {
+			File[] cached = prefix.listFiles();
+			if (cached != null) {
+				files.addAll(Arrays.asList(cached));
+			}
+		}
+		files.sort(Comparator.comparingLong(File::lastModified).reversed());
+		int deleted = 0;
+		for (int i = 0; i < files.size(); i++) {
+			File file = files.get(i);
+			if (file.lastModified() >= started) {
+				// written since startup, managed by the cache
+				continue;
+			}
+			boolean expired = this.ttlMillis > 0 && file.lastModified() + this.ttlMillis < started;
+			if (i >= this.maxEntries || expired || file.getName().contains(".tmp")) {
+				file.delete();
+				deleted++;
+			}
+		}
+		if (deleted > 0) {
+			log.info("deleted " + deleted + " old result cache files from " + this.directory);
+		}
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	/**
+	 * computes the cache key for a document
+	 * @param parts the text and any request options that change the result
+	 * @return hex encoded SHA-256 of the configuration version and the given parts
+	 */
+	public String key(String... parts) {
+		String[] all = new String[parts.length + 1];
+		all[0] = this.version;
+		System.arraycopy(parts, 0, all, 1, parts.length);
+		return hex(digest(all));
+	}
+
+	/**
+	 * @return SHA-256 of the given strings, separated by zero bytes
+	 */
+	private static byte[] digest(String... parts) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (int i = 0; i < parts.length; i++) {
+				if (i > 0) {
+					digest.update((byte) 0);
+				}
+				digest.update(parts[i].getBytes(StandardCharsets.UTF_8));
+			}
+			return digest.digest();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String hex(byte[] hash) {
+		char[] hex = new char[hash.length * 2];
+		for (int i = 0; i < hash.length; i++) {
+			hex[2 * i] = HEX[(hash[i] >> 4) & 0xf];
+			hex[2 * i + 1] = HEX[hash[i] & 0xf];
+		}
+		return new String(hex);
+	}
+
+	/**
+	 * @param key key computed with {@link #key(String...)}
+	 * @return the cached result, or null if there is none or it expired
+	 */
+	public V get(String key) {
+		long now = System.currentTimeMillis();
+		CacheEntry<V> entry;
+		synchronized (this.entries) {
+			entry = this.entries.get(key);
+			if (entry != null && isExpired(entry, now)) {
+				this.entries.remove(key);
+				deleteFromDisk(key);
+				this.misses.increment();
+				return null;
+			}
+		}
+		if (entry == null && this.directory != null) {
+			entry = readFromDisk(key, now);
+			if (entry != null) {
+				synchronized (this.entries) {
+					this.entries.put(key, entry);
+				}
+			}
+		}
+		if (entry == null) {
+			this.misses.increment();
+			return null;
+		}
+		this.hits.increment();
+		return entry.value;
+	}
+
+	/**
+	 * @param key key computed with {@link #key(String...)}
+	 * @param value result to cache, must not be modified afterwards and must be serializable
+	 * if the cache is written to disk
+	 */
+	public void put(String key, V value) {
+		CacheEntry<V> entry = new CacheEntry<V>(value, this.ttlMillis > 0 ? System.currentTimeMillis() + this.ttlMillis : Long.MAX_VALUE);
+		synchronized (this.entries) {
+			this.entries.put(key, entry);
+		}
+		if (this.writer != null) {
+			try {
+				this.writer.execute(() -> writeToDisk(key, entry));
+			} catch (RejectedExecutionException e) {
+				this.dropped.increment();
+			}
+		}
+	}
+
+	private boolean isExpired(CacheEntry<V> entry, long now) {
+		return entry.expires < now;
+	}
+
+	private File fileFor(String key) {
+		return new File(new File(this.directory, key.substring(0, 2)), key);
+	}
+
+	/**
+	 * deletes the file of an entry after any pending write of it
+	 */
+	private void deleteFromDisk(String key) {
+		if (this.writer != null) {
+			try {
+				this.writer.execute(() -> fileFor(key).delete());
+			} catch (RejectedExecutionException e) {
+				fileFor(key).delete();
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private CacheEntry<V> readFromDisk(String key, long now) {
+		File file = fileFor(key);
+		if (!file.isFile()) {
+			return null;
+		}
+		try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file))) {
+			CacheEntry<V> entry = (CacheEntry<V>) in.readObject();
+			if (isExpired(entry, now)) {
+				file.delete();
+				return null;
+			}
+			return entry;
+		} catch (IOException | ClassNotFoundException | ClassCastException e) {
+			log.warn("Discarding unreadable cache file " + file, e);
+			file.delete();
+			return null;
+		}
+	}
+
+	private void writeToDisk(String key, CacheEntry<V> entry) {
+		File file = fileFor(key);
+		file.getParentFile().mkdirs();
+		File tmp = new File(file.getPath() + ".tmp" + Thread.currentThread().getId());
+		try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(tmp))) {
+			out.writeObject(entry);
+		} catch (IOException e) {
+			log.warn("Could not write cache file " + file, e);
+			tmp.delete();
+			return;
+		}
+		try {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			log.warn("Could not write cache file " + file, e);
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * @return number of entries currently held in memory
+	 */
+	public int size() {
+		synchronized (this.entries) {
+			return this.entries.size();
+		}
+	}
+
+	/**
+	 * @return maximum number of entries held in memory
+	 */
+	public int getMaxEntries() {
+		return this.maxEntries;
+	}
+
+	/**
+	 * Finishes writing the queued entries to disk.
+	 */
+	public void close() {
+		if (this.writer == null) {
+			return;
+		}
+		this.writer.shutdown();
+		try {
+			if (!this.writer.awaitTermination(1, TimeUnit.MINUTES)) {
+				log.warn("Closing the result cache with entries still queued");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
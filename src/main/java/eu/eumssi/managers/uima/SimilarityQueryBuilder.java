@@ -0,0 +1,149 @@
+package eu.eumssi.managers.uima;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.solr.client.solrj.util.ClientUtils;
+
+/**
+ * Builds the Solr query for documents similar to an analyzed one, from its DBpedia
+ * resources and named entities.
+ * Each distinct term appears once, boosted by the number of times it occurs in the document.
+ * If there are more distinct terms than the clause limit, only the most frequent ones are kept,
+ * so that long documents do not produce huge boolean queries. The most recently used escaped
+ * terms are memoized, since the same resources and names come up over and over.
+ *
+ */
+public class SimilarityQueryBuilder {
+
+	public static final String DBPEDIA_FIELD = "meta.extracted.text_nerl.dbpedia.all";
+
+	public static final String NER_FIELD = "meta.extracted.text_nerl.ner.all";
+
+	/**
+	 * Upper bound for the number of memoized escaped terms.
+	 */
+	private static final int MAX_MEMOIZED = 10000;
+
+	private final int maxClauses;
+
+	/**
+	 * Escaped terms in access order, the least recently used one is evicted first.
+	 */
+	private final Map<String, String> escaped = Collections.synchronizedMap(new LinkedHashMap<String, String>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > MAX_MEMOIZED;
+		}
+	});
+
+	/**
+	 * A distinct term of the query, with its number of occurrences.
+	 */
+	private static class Term {
+
+		private final String field;
+
+		private final String text;
+
+		private int count = 0;
+
+		private Term(String field, String text) {
+			this.field = field;
+			this.text = text;
+		}
+	}
+
+	/**
+	 * @param maxClauses maximum number of terms in a query, 0 for no limit
+	 */
+	public SimilarityQueryBuilder(int maxClauses) {
+		this.maxClauses = maxClauses;
+	}
+
+	/**
+	 * @param dbpedia DBpedia entities of the document, or null if not extracted
+	 * @param stanford named entities of the document, or null if not extracted
+	 * @return the query, empty if no entities were found, or null if neither list was extracted
+	 */
+	public String build(List<DBpediaEntity> dbpedia, List<Entity> stanford) {
+		if (dbpedia == null && stanford == null) {
+			return null;
+		}
+		// distinct terms in order of first occurrence, DBpedia first
+		Map<String, Term> terms = new LinkedHashMap<String, Term>();
+		if (dbpedia != null) {
+			for (DBpediaEntity entity : dbpedia) {
+				count(terms, DBPEDIA_FIELD, entity.getUri());
+			}
+		}
+		if (stanford != null) {
+			for (Entity entity : stanford) {
+				count(terms, NER_FIELD, entity.getText());
+			}
+		}
+		List<Term> selected = new ArrayList<Term>(terms.values());
+		if (this.maxClauses > 0 && selected.size() > this.maxClauses) {
+			// stable sort, of equally frequent terms the first ones are kept
+			List<Term> byCount = new ArrayList<Term>(selected);
+			byCount.sort((a, b) -> Integer.compare(b.count, a.count));
+			Set<Term> kept = new HashSet<Term>(byCount.subList(0, this.maxClauses));
+			selected.removeIf(term -> !kept.contains(term));
+		}
+		StringBuilder query = new StringBuilder();
+		appendClause(query, DBPEDIA_FIELD, selected);
+		appendClause(query, NER_FIELD, selected);
+		return query.toString();
+	}
+
+	private static void count(Map<String, Term> terms, String field, String text) {
+		terms.computeIfAbsent(field + '\u0000' + text, key -> new Term(field, text)).count++;
+	}
+
+	private void appendClause(StringBuilder query, String field, List<Term> terms) {
+		boolean open = false;
+		for (Term term : terms) {
+			if (!term.field.equals(field)) {
+				continue;
+			}
+			if (open) {
+				query.append(' ');
+			} else {
+				if (query.length() > 0) {
+					query.append(' ');
+				}
+				query.append(field).append(":(");
+				open = true;
+			}
+			query.append(escape(term.text));
+			if (term.count > 1) {
+				query.append('^').append(term.count);
+			}
+		}
+		if (open) {
+			query.append(')');
+		}
+	}
+
+	/**
+	 * @param term a query term
+	 * @return the term with all query syntax characters escaped
+	 */
+	public String escape(String term) {
+		String escapedTerm = this.escaped.get(term);
+		if (escapedTerm == null) {
+			escapedTerm = ClientUtils.escapeQueryChars(term);
+			this.escaped.put(term, escapedTerm);
+		}
+		return escapedTerm;
+	}
+
+}
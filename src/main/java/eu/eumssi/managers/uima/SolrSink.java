@@ -0,0 +1,317 @@
+package eu.eumssi.managers.uima;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.HttpSolrClient;
+import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.apache.solr.common.SolrInputDocument;
+
+/**
+ * Sends analysis results to a Solr collection, as atomic updates of the
+ * <code>meta.extracted.text_nerl.*</code> fields of each document, so that other fields
+ * of existing documents are kept.
+ * Documents are buffered and sent in batches, once the batch size is reached or the flush
+ * interval has passed since the first buffered document. Batches are sent on the sink's own
+ * threads, each as a blocking request, so that documents are only counted as sent, and their
+ * futures completed, once Solr acknowledged them. In production the client is an {@link HttpSolrClient}; any other
+ * client, e.g. an embedded Solr server, can be passed in instead.
+ *
+ */
+public class SolrSink {
+
+	/**
+	 * Logger for this class and subclasses.
+	 */
+	protected final Log log = LogFactory.getLog(getClass());
+
+	/**
+	 * Common prefix of the fields written by the sink.
+	 */
+	public static final String FIELD_PREFIX = "meta.extracted.text_nerl.";
+
+	private static final LongAdder SENT = MetricsRegistry.counter("eumssi_solr_documents_total", "status=\"sent\"");
+
+	private static final LongAdder FAILED = MetricsRegistry.counter("eumssi_solr_documents_total", "status=\"failed\"");
+
+	private final SolrClient client;
+
+	private final String collection;
+
+	private final String idField;
+
+	private final int batchSize;
+
+	private final long flushInterval;
+
+	private final int commitWithin;
+
+	/**
+	 * Buckets whose fields are cleared if a result has no entities in them.
+	 */
+	private final Set<String> buckets;
+
+	private final ScheduledExecutorService scheduler;
+
+	/**
+	 * Threads sending the batches, the caller sends a batch itself if the queue is full.
+	 */
+	private final ThreadPoolExecutor sender;
+
+	private Batch buffer = new Batch();
+
+	/**
+	 * Pending flush of a partial batch, null if the buffer is empty.
+	 */
+	private ScheduledFuture<?> scheduledFlush;
+
+	/**
+	 * Documents sent in one update request, with the futures completed once Solr answered it.
+	 */
+	private static class Batch {
+
+		final List<SolrInputDocument> documents = new ArrayList<SolrInputDocument>();
+
+		final List<CompletableFuture<Void>> acknowledged = new ArrayList<CompletableFuture<Void>>();
+
+		int size() {
+			return this.documents.size();
+		}
+
+		void complete() {
+			for (CompletableFuture<Void> future : this.acknowledged) {
+				future.complete(null);
+			}
+		}
+
+		void fail(Throwable error) {
+			for (CompletableFuture<Void> future : this.acknowledged) {
+				future.completeExceptionally(error);
+			}
+		}
+
+	}
+
+	/**
+	 * @param client Solr client, closed by {@link #close()}
+	 * @param collection name of the target collection
+	 * @param idField name of the unique key field of the collection
+	 * @param batchSize number of documents sent in one update request
+	 * @param flushInterval maximum time in milliseconds a document is buffered
+	 * @param commitWithin milliseconds within which Solr commits the updates, -1 to leave
+	 * commits to the server configuration
+	 * @param buckets names of all output type buckets, see {@link TypeMapper#getBuckets()}
+	 * @param queueSize number of batches queued before {@link #add(String, AnalysisResult)} sends
+	 * a batch on the calling thread
+	 * @param threads number of threads sending batches to Solr
+	 */
+	public SolrSink(SolrClient client, String collection, String idField, int batchSize, long flushInterval, int commitWithin,
+			Set<String> buckets, int queueSize, int threads) {
+		this.client = client;
+		this.collection = collection;
+		this.idField = idField;
+		this.batchSize = Math.max(1, batchSize);
+		this.flushInterval = flushInterval;
+		this.commitWithin = commitWithin;
+		this.buckets = new LinkedHashSet<String>(buckets);
+		this.buckets.add(AnalysisResult.ALL);
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "solr-sink-flush");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.sender = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)), runnable -> {
+					Thread thread = new Thread(runnable, "solr-sink");
+					thread.setDaemon(true);
+					return thread;
+				}, new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
+	/**
+	 * @param url Solr base URL, e.g. http://localhost:8983/solr
+	 * @return a sink using an {@link HttpSolrClient}, see
+	 * {@link #SolrSink(SolrClient, String, String, int, long, int, Set, int, int)} for the other parameters
+	 */
+	public static SolrSink create(String url, String collection, String idField, int batchSize, long flushInterval,
+			int commitWithin, Set<String> buckets, int queueSize, int threads) {
+		SolrClient client = new HttpSolrClient.Builder(url).build();
+		return new SolrSink(client, collection, idField, batchSize, flushInterval, commitWithin, buckets, queueSize, threads);
+	}
+
+	/**
+	 * maps an analysis result to an atomic update of the extracted fields. Sections of
+	 * annotators that were not run are left out, so the stored values are kept. For the
+	 * annotators that were run, the fields of buckets without entities are removed, so that
+	 * no values of an earlier analysis are left.
+	 * @param id unique key of the document
+	 * @param result analysis results of the document
+	 * @return the update document
+	 */
+	public SolrInputDocument toDocument(String id, AnalysisResult result) {
+		SolrInputDocument document = new SolrInputDocument();
+		document.addField(this.idField, id);
+		if (result.getDbpedia() != null) {
+			Map<String, List<DBpediaEntity>> byBucket = AnalysisResult.byBucket(result.getDbpedia());
+			for (Entry<String, List<DBpediaEntity>> bucket : byBucket.entrySet()) {
+				Set<String> uris = new LinkedHashSet<String>();
+				for (DBpediaEntity entity : bucket.getValue()) {
+					uris.add(entity.getUri());
+				}
+				set(document, FIELD_PREFIX + "dbpedia." + bucket.getKey(), uris);
+			}
+			clear(document, FIELD_PREFIX + "dbpedia.", byBucket.keySet());
+		}
+		if (result.getStanford() != null) {
+			Map<String, List<Entity>> byBucket = AnalysisResult.byBucket(result.getStanford());
+			for (Entry<String, List<Entity>> bucket : byBucket.entrySet()) {
+				Set<String> texts = new LinkedHashSet<String>();
+				for (Entity entity : bucket.getValue()) {
+					texts.add(entity.getText());
+				}
+				set(document, FIELD_PREFIX + "ner." + bucket.getKey(), texts);
+			}
+			clear(document, FIELD_PREFIX + "ner.", byBucket.keySet());
+		}
+		if (result.getKea() != null) {
+			Set<String> keyphrases = new LinkedHashSet<String>();
+			for (KeyPhrase keyphrase : result.getKea()) {
+				keyphrases.add(keyphrase.getKeyphrase());
+			}
+			set(document, FIELD_PREFIX + "kea", keyphrases);
+		}
+		return document;
+	}
+
+	private static void set(SolrInputDocument document, String field, Collection<String> values) {
+		Map<String, Object> update = Collections.<String, Object>singletonMap("set", new ArrayList<String>(values));
+		document.addField(field, update);
+	}
+
+	/**
+	 * removes the fields of all known buckets that are not present
+	 */
+	private void clear(SolrInputDocument document, String prefix, Set<String> present) {
+		for (String bucket : this.buckets) {
+			if (!present.contains(bucket)) {
+				document.addField(prefix + bucket, Collections.<String, Object>singletonMap("set", null));
+			}
+		}
+	}
+
+	/**
+	 * queues the results of a document for indexing
+	 * @param id unique key of the document
+	 * @param result analysis results of the document
+	 * @return a future completed once Solr acknowledged the batch holding the document, or
+	 * exceptionally if the batch could not be sent
+	 */
+	public CompletableFuture<Void> add(String id, AnalysisResult result) {
+		SolrInputDocument document = toDocument(id, result);
+		CompletableFuture<Void> acknowledged = new CompletableFuture<Void>();
+		Batch batch = null;
+		synchronized (this) {
+			this.buffer.documents.add(document);
+			this.buffer.acknowledged.add(acknowledged);
+			// once the sink is closing nothing flushes the buffer later
+			if (this.buffer.size() >= this.batchSize || this.scheduler.isShutdown()) {
+				batch = takeBuffer();
+			} else if (this.scheduledFlush == null) {
+				this.scheduledFlush = this.scheduler.schedule(this::flush, this.flushInterval, TimeUnit.MILLISECONDS);
+			}
+		}
+		if (batch != null) {
+			submit(batch);
+		}
+		return acknowledged;
+	}
+
+	/**
+	 * sends all buffered documents right away
+	 */
+	public void flush() {
+		Batch batch;
+		synchronized (this) {
+			batch = takeBuffer();
+		}
+		if (batch.size() > 0) {
+			submit(batch);
+		}
+	}
+
+	private Batch takeBuffer() {
+		Batch batch = this.buffer;
+		this.buffer = new Batch();
+		if (this.scheduledFlush != null) {
+			this.scheduledFlush.cancel(false);
+			this.scheduledFlush = null;
+		}
+		return batch;
+	}
+
+	private void submit(Batch batch) {
+		if (this.sender.isShutdown()) {
+			FAILED.add(batch.size());
+			log.error("Dropping " + batch.size() + " documents, the Solr sink is closed");
+			batch.fail(new IOException("The Solr sink is closed"));
+			return;
+		}
+		this.sender.execute(() -> send(batch));
+	}
+
+	private void send(Batch batch) {
+		try {
+			UpdateResponse response = this.client.add(this.collection, batch.documents, this.commitWithin);
+			if (response.getStatus() != 0) {
+				throw new IOException("Solr returned status " + response.getStatus());
+			}
+			SENT.add(batch.size());
+			batch.complete();
+		} catch (SolrServerException | IOException | RuntimeException e) {
+			FAILED.add(batch.size());
+			log.error("Could not send " + batch.size() + " documents to Solr", e);
+			batch.fail(e);
+		}
+	}
+
+	/**
+	 * Sends the buffered documents, waits until Solr answered all batches and closes the client.
+	 */
+	public void close() {
+		this.scheduler.shutdownNow();
+		flush();
+		this.sender.shutdown();
+		try {
+			if (!this.sender.awaitTermination(1, TimeUnit.MINUTES)) {
+				log.warn("Closing the Solr client with batches still being sent");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			this.client.close();
+		} catch (IOException e) {
+			log.warn("Error closing Solr client", e);
+		}
+	}
+
+}
@@ -0,0 +1,251 @@
+package eu.eumssi.managers.uima;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+/**
+ * Asynchronous client for the DBpedia Spotlight annotate service, or the candidates service
+ * if all candidate resources of each surface form are wanted.
+ * Requests run on a dedicated thread pool, which also bounds the number of concurrent
+ * requests, over pooled keep-alive connections. Requests beyond a bounded queue fail right away,
+ * and cancelling a request drops it from the queue or aborts it, so that requests nobody waits
+ * for any more do not hold up the others. Responses are cached per document text,
+ * since Spotlight disambiguation depends on the context of each surface form.
+ *
+ */
+public class SpotlightClient {
+
+	/**
+	 * Logger for this class and subclasses.
+	 */
+	protected final Log log = LogFactory.getLog(getClass());
+
+	/**
+	 * Prefix of the resource names returned by the candidates service.
+	 */
+	private static final String RESOURCE_PREFIX = "http://dbpedia.org/resource/";
+
+	/**
+	 * Number of queued requests per concurrent request.
+	 */
+	private static final int QUEUED_PER_REQUEST = 4;
+
+	private final String annotateUrl;
+
+	private final float confidence;
+
+	private final boolean allCandidates;
+
+	private final CloseableHttpClient httpClient;
+
+	private final ExecutorService executor;
+
+	private final ResultCache<List<SpotlightResource>> cache;
+
+	private final Histogram requestTimer = MetricsRegistry.histogram("eumssi_spotlight_request_seconds");
+
+	/**
+	 * @param endpoint Spotlight REST endpoint, e.g. http://localhost:2222/rest
+	 * @param confidence minimum disambiguation confidence
+	 * @param allCandidates true to return all candidate resources of each surface form instead of
+	 * the best one, like the <code>allCandidates</code> parameter of the Spotlight annotator
+	 * @param maxConcurrent maximum number of concurrent requests
+	 * @param timeoutMillis connect and read timeout
+	 * @param cacheEntries number of cached responses, 0 to disable caching
+	 */
+	public SpotlightClient(String endpoint, float confidence, boolean allCandidates, int maxConcurrent, int timeoutMillis,
+			int cacheEntries) {
+		this.annotateUrl = endpoint.replaceAll("/+$", "") + (allCandidates ? "/candidates" : "/annotate");
+		this.confidence = confidence;
+		this.allCandidates = allCandidates;
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(maxConcurrent);
+		connectionManager.setDefaultMaxPerRoute(maxConcurrent);
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(timeoutMillis)
+				.setSocketTimeout(timeoutMillis)
+				.build();
+		this.httpClient = HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(requestConfig)
+				.build();
+		this.executor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(QUEUED_PER_REQUEST * maxConcurrent));
+		this.cache = cacheEntries > 0 ? new ResultCache<List<SpotlightResource>>("spotlight", this.annotateUrl + confidence,
+				cacheEntries, 0, null) : null;
+	}
+
+	/**
+	 * annotates a text with DBpedia resources, without blocking the caller
+	 * @param text the text to annotate
+	 * @return a future completed with the resources found in the text; cancelling it stops the request
+	 */
+	public CompletableFuture<List<SpotlightResource>> annotate(String text) {
+		final String key = this.cache == null ? null : this.cache.key(text);
+		if (key != null) {
+			List<SpotlightResource> cached = this.cache.get(key);
+			if (cached != null) {
+				return CompletableFuture.completedFuture(cached);
+			}
+		}
+		CompletableFuture<List<SpotlightResource>> future = new CompletableFuture<List<SpotlightResource>>();
+		try {
+			this.executor.execute(() -> {
+				if (future.isDone()) {
+					// cancelled while queued
+					return;
+				}
+				HttpPost post = new HttpPost(this.annotateUrl);
+				future.whenComplete((resources, error) -> {
+					if (future.isCancelled()) {
+						post.abort();
+					}
+				});
+				try {
+					List<SpotlightResource> resources = request(post, text);
+					if (key != null) {
+						this.cache.put(key, resources);
+					}
+					future.complete(resources);
+				} catch (Throwable e) {
+					future.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(new IOException("too many pending Spotlight requests"));
+		}
+		return future;
+	}
+
+	private List<SpotlightResource> request(HttpPost post, String text) throws IOException {
+		post.setHeader("Accept", "application/json");
+		post.setEntity(new UrlEncodedFormEntity(Arrays.asList(
+				new BasicNameValuePair("text", text),
+				new BasicNameValuePair("confidence", Float.toString(this.confidence))),
+				StandardCharsets.UTF_8));
+		long start = System.nanoTime();
+		try (CloseableHttpResponse response = this.httpClient.execute(post)) {
+			// always read the entity, so that the connection can be reused
+			String body = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+			int status = response.getStatusLine().getStatusCode();
+			if (status != 200) {
+				throw new IOException("Spotlight returned HTTP " + status);
+			}
+			return this.allCandidates ? parseCandidates(body, text.length()) : parse(body, text.length());
+		} finally {
+			this.requestTimer.observeSince(start);
+		}
+	}
+
+	private List<SpotlightResource> parse(String body, int textLength) throws IOException {
+		JsonElement resources;
+		try {
+			resources = new JsonParser().parse(body).getAsJsonObject().get("Resources");
+		} catch (JsonParseException | IllegalStateException e) {
+			throw new IOException("Invalid Spotlight response", e);
+		}
+		if (resources == null || !resources.isJsonArray()) {
+			return Collections.emptyList();
+		}
+		List<SpotlightResource> result = new ArrayList<SpotlightResource>();
+		for (JsonElement element : resources.getAsJsonArray()) {
+			JsonObject resource = element.getAsJsonObject();
+			int begin = resource.get("@offset").getAsInt();
+			int end = begin + resource.get("@surfaceForm").getAsString().length();
+			if (begin < 0 || end > textLength) {
+				log.warn("Ignoring Spotlight resource outside of the text: " + resource);
+				continue;
+			}
+			JsonElement types = resource.get("@types");
+			result.add(new SpotlightResource(resource.get("@URI").getAsString(),
+					types == null ? "" : types.getAsString(), begin, end));
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	private List<SpotlightResource> parseCandidates(String body, int textLength) throws IOException {
+		JsonElement surfaceForms;
+		try {
+			JsonElement annotation = new JsonParser().parse(body).getAsJsonObject().get("annotation");
+			surfaceForms = annotation == null ? null : annotation.getAsJsonObject().get("surfaceForm");
+		} catch (JsonParseException | IllegalStateException e) {
+			throw new IOException("Invalid Spotlight response", e);
+		}
+		List<SpotlightResource> result = new ArrayList<SpotlightResource>();
+		for (JsonElement element : asList(surfaceForms)) {
+			JsonObject surfaceForm = element.getAsJsonObject();
+			int begin = surfaceForm.get("@offset").getAsInt();
+			int end = begin + surfaceForm.get("@name").getAsString().length();
+			if (begin < 0 || end > textLength) {
+				log.warn("Ignoring Spotlight surface form outside of the text: " + surfaceForm);
+				continue;
+			}
+			for (JsonElement candidate : asList(surfaceForm.get("resource"))) {
+				JsonObject resource = candidate.getAsJsonObject();
+				JsonElement types = resource.get("@types");
+				result.add(new SpotlightResource(RESOURCE_PREFIX + resource.get("@uri").getAsString(),
+						types == null ? "" : types.getAsString(), begin, end));
+			}
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	/**
+	 * @param element a JSON array, a single value as returned by Spotlight for lists of one, or null
+	 * @return the elements
+	 */
+	private static List<JsonElement> asList(JsonElement element) {
+		List<JsonElement> list = new ArrayList<JsonElement>();
+		if (element == null || element.isJsonNull()) {
+			return list;
+		}
+		if (element.isJsonArray()) {
+			for (JsonElement item : element.getAsJsonArray()) {
+				list.add(item);
+			}
+		} else {
+			list.add(element);
+		}
+		return list;
+	}
+
+	/**
+	 * Stops the request threads and closes all pooled connections.
+	 */
+	public void close() {
+		this.executor.shutdownNow();
+		try {
+			this.httpClient.close();
+		} catch (IOException e) {
+			log.warn("Error closing Spotlight client", e);
+		}
+	}
+
+}
@@ -0,0 +1,47 @@
+package eu.eumssi.managers.uima;
+
+import java.io.Serializable;
+
+/**
+ * A DBpedia resource returned by the Spotlight annotate service.
+ *
+ */
+public class SpotlightResource implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String uri;
+
+	private final String types;
+
+	private final int begin;
+
+	private final int end;
+
+	public SpotlightResource(String uri, String types, int begin, int end) {
+		this.uri = uri;
+		this.types = types;
+		this.begin = begin;
+		this.end = end;
+	}
+
+	public String getUri() {
+		return uri;
+	}
+
+	/**
+	 * @return comma separated list of DBpedia types, as returned by Spotlight
+	 */
+	public String getTypes() {
+		return types;
+	}
+
+	public int getBegin() {
+		return begin;
+	}
+
+	public int getEnd() {
+		return end;
+	}
+
+}
@@ -0,0 +1,244 @@
+package eu.eumssi.managers.uima;
+
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Splits long texts into overlapping chunks at sentence boundaries, and merges the
+ * analysis results of the chunks back into a result for the whole text.
+ * <p>
+ * Consecutive chunks share up to <code>overlap</code> characters of whole sentences, so
+ * that entities near a chunk border are seen with some context by both chunks. Each chunk
+ * owns the part of the text up to the middle of its overlap with the next chunk; when
+ * merging, only annotations starting in the owned part of their chunk are kept.
+ *
+ */
+public class TextChunker {
+
+	/**
+	 * A part of the text, processed as a separate document.
+	 */
+	public static class Chunk {
+
+		private final String text;
+
+		private final int begin;
+
+		private int ownBegin;
+
+		private int ownEnd;
+
+		private Chunk(String document, int begin, int end) {
+			this.text = document.substring(begin, end);
+			this.begin = begin;
+			this.ownBegin = begin;
+			this.ownEnd = end;
+		}
+
+		/**
+		 * @return the text of the chunk
+		 */
+		public String getText() {
+			return text;
+		}
+
+		/**
+		 * @return offset of the chunk in the document
+		 */
+		public int getBegin() {
+			return begin;
+		}
+
+		/**
+		 * @param offset document offset of an annotation start
+		 * @return true if annotations starting there are taken from this chunk
+		 */
+		private boolean owns(int offset) {
+			return offset >= this.ownBegin && offset < this.ownEnd;
+		}
+	}
+
+	private final int maxLength;
+
+	private final int overlap;
+
+	/**
+	 * @param maxLength maximum chunk length in characters
+	 * @param overlap maximum number of characters shared by consecutive chunks, less than half of maxLength
+	 */
+	public TextChunker(int maxLength, int overlap) {
+		this.maxLength = maxLength;
+		this.overlap = Math.max(0, Math.min(overlap, maxLength / 2 - 1));
+	}
+
+	/**
+	 * @param text a document
+	 * @return true if the document is longer than the maximum chunk length
+	 */
+	public boolean needsSplit(String text) {
+		return text.length() > this.maxLength;
+	}
+
+	/**
+	 * splits a text into chunks of at most the maximum length, ending at sentence boundaries
+	 * where possible
+	 * @param text the document text
+	 * @param language language of the document, for sentence detection
+	 * @return chunks in document order
+	 */
+	public List<Chunk> split(String text, String language) {
+		List<Integer> boundaries = new ArrayList<Integer>();
+		BreakIterator sentences = BreakIterator.getSentenceInstance(Locale.forLanguageTag(language));
+		sentences.setText(text);
+		for (int boundary = sentences.first(); boundary != BreakIterator.DONE; boundary = sentences.next()) {
+			boundaries.add(boundary);
+		}
+		List<Chunk> chunks = new ArrayList<Chunk>();
+		int begin = 0;
+		while (begin < text.length()) {
+			int limit = begin + this.maxLength;
+			int end;
+			if (limit >= text.length()) {
+				end = text.length();
+			} else {
+				end = lastBoundary(boundaries, begin, limit);
+				if (end <= begin) {
+					// sentence longer than a chunk, split at white space
+					end = splitPoint(text, begin, limit);
+				}
+			}
+			chunks.add(new Chunk(text, begin, end));
+			if (end >= text.length()) {
+				break;
+			}
+			// start the next chunk with the sentences in the last overlap characters
+			int next = firstBoundary(boundaries, end - this.overlap, end);
+			if (next <= begin || next > end) {
+				next = end;
+			}
+			begin = next;
+		}
+		for (int i = 1; i < chunks.size(); i++) {
+			Chunk previous = chunks.get(i - 1);
+			Chunk chunk = chunks.get(i);
+			int middle = (chunk.begin + previous.begin + previous.text.length()) / 2;
+			previous.ownEnd = middle;
+			chunk.ownBegin = middle;
+		}
+		return chunks;
+	}
+
+	/**
+	 * @return the last sentence boundary in (from, to], or -1
+	 */
+	private static int lastBoundary(List<Integer> boundaries, int from, int to) {
+		int last = -1;
+		for (int boundary : boundaries) {
+			if (boundary > to) {
+				break;
+			}
+			if (boundary > from) {
+				last = boundary;
+			}
+		}
+		return last;
+	}
+
+	/**
+	 * @return the first sentence boundary in [from, to], or -1
+	 */
+	private static int firstBoundary(List<Integer> boundaries, int from, int to) {
+		for (int boundary : boundaries) {
+			if (boundary > to) {
+				break;
+			}
+			if (boundary >= from) {
+				return boundary;
+			}
+		}
+		return -1;
+	}
+
+	private static int splitPoint(String text, int begin, int limit) {
+		for (int i = limit; i > begin + (limit - begin) / 2; i--) {
+			if (Character.isWhitespace(text.charAt(i - 1))) {
+				return i;
+			}
+		}
+		return limit;
+	}
+
+	/**
+	 * merges the results of all chunks of a document. Offsets are made relative to the document,
+	 * entities outside the owned part of their chunk are dropped, and keyphrases found in several
+	 * chunks are kept once, with the highest probability, and ranked again by probability.
+	 * @param chunks the chunks, as returned by {@link #split(String, String)}
+	 * @param results analysis results for each chunk
+	 * @return merged results, without the Solr similarity query; a section missing from
+	 * any partial chunk result is left out of the merged result
+	 */
+	public AnalysisResult merge(List<Chunk> chunks, List<AnalysisResult> results) {
+		Set<String> incomplete = new LinkedHashSet<String>();
+		for (AnalysisResult result : results) {
+			incomplete.addAll(result.getIncomplete());
+		}
+		AnalysisResult first = results.get(0);
+		List<DBpediaEntity> dbpedia = first.getDbpedia() == null || incomplete.contains(Annotators.DBPEDIA)
+				? null : new ArrayList<DBpediaEntity>();
+		List<Entity> stanford = first.getStanford() == null || incomplete.contains(Annotators.NER)
+				? null : new ArrayList<Entity>();
+		Map<String, KeyPhrase> keyPhrases = first.getKea() == null || incomplete.contains(Annotators.KEA)
+				? null : new LinkedHashMap<String, KeyPhrase>();
+		for (int i = 0; i < chunks.size(); i++) {
+			Chunk chunk = chunks.get(i);
+			AnalysisResult result = results.get(i);
+			int offset = chunk.begin;
+			if (dbpedia != null) {
+				for (DBpediaEntity entity : result.getDbpedia()) {
+					if (chunk.owns(entity.getBegin() + offset)) {
+						dbpedia.add(new DBpediaEntity(entity.getText(), entity.getUri(), entity.getType(),
+								entity.getBegin() + offset, entity.getEnd() + offset, entity.getBuckets()));
+					}
+				}
+			}
+			if (stanford != null) {
+				for (Entity entity : result.getStanford()) {
+					if (chunk.owns(entity.getBegin() + offset)) {
+						stanford.add(new Entity(entity.getText(), entity.getType(),
+								entity.getBegin() + offset, entity.getEnd() + offset, entity.getBuckets()));
+					}
+				}
+			}
+			if (keyPhrases != null) {
+				for (KeyPhrase keyPhrase : result.getKea()) {
+					String key = keyPhrase.getStemmed() != null ? keyPhrase.getStemmed() : keyPhrase.getKeyphrase();
+					KeyPhrase known = keyPhrases.get(key);
+					if (known == null || known.getProbability() < keyPhrase.getProbability()) {
+						keyPhrases.put(key, new KeyPhrase(keyPhrase.getText(), keyPhrase.getKeyphrase(), keyPhrase.getStemmed(),
+								keyPhrase.getRank(), keyPhrase.getProbability(),
+								keyPhrase.getBegin() + offset, keyPhrase.getEnd() + offset));
+					}
+				}
+			}
+		}
+		List<KeyPhrase> kea = null;
+		if (keyPhrases != null) {
+			List<KeyPhrase> byProbability = new ArrayList<KeyPhrase>(keyPhrases.values());
+			byProbability.sort(Comparator.comparingDouble(KeyPhrase::getProbability).reversed());
+			kea = new ArrayList<KeyPhrase>();
+			for (KeyPhrase keyPhrase : byProbability) {
+				kea.add(new KeyPhrase(keyPhrase.getText(), keyPhrase.getKeyphrase(), keyPhrase.getStemmed(),
+						kea.size() + 1, keyPhrase.getProbability(), keyPhrase.getBegin(), keyPhrase.getEnd()));
+			}
+		}
+		return new AnalysisResult(dbpedia, stanford, kea, null, incomplete);
+	}
+
+}
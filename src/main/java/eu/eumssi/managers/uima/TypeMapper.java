@@ -0,0 +1,116 @@
+package eu.eumssi.managers.uima;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Maps DBpedia resource types and NER labels to the output type buckets
+ * (PERSON, LOCATION, ORGANIZATION, ...).
+ * Each bucket is defined by a regular expression that must match the whole type string.
+ * The patterns are compiled once, and the results for the most recently used type strings are
+ * memoized, since Spotlight returns the same type lists over and over.
+ *
+ */
+public class TypeMapper {
+
+	/**
+	 * Type mapping table, one line per bucket: <code>bucket = regex</code>
+	 */
+	private static final String MAPPING_FILE = "/eu/eumssi/properties/typemapping.properties";
+
+	/**
+	 * Bucket used for types that match no other bucket.
+	 */
+	private static final Set<String> OTHER = Collections.singleton("other");
+
+	/**
+	 * Upper bound for the number of memoized type strings.
+	 */
+	private static final int MAX_MEMOIZED = 10000;
+
+	private final Map<String, Pattern> buckets;
+
+	/**
+	 * Buckets by type string in access order, the least recently used one is evicted first.
+	 */
+	private final Map<String, Set<String>> memo = Collections.synchronizedMap(new LinkedHashMap<String, Set<String>>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Set<String>> eldest) {
+			return size() > MAX_MEMOIZED;
+		}
+	});
+
+	/**
+	 * @param mapping regular expression for each bucket
+	 */
+	public TypeMapper(Map<String, String> mapping) {
+		this.buckets = new LinkedHashMap<String, Pattern>();
+		for (Entry<String, String> bucket : mapping.entrySet()) {
+			this.buckets.put(bucket.getKey(), Pattern.compile(bucket.getValue()));
+		}
+	}
+
+	/**
+	 * @return a mapper using the bundled type mapping table
+	 * @throws IOException
+	 */
+	public static TypeMapper load() throws IOException {
+		Properties properties = new Properties();
+		try (InputStream in = TypeMapper.class.getResourceAsStream(MAPPING_FILE)) {
+			properties.load(in);
+		}
+		Map<String, String> mapping = new TreeMap<String, String>();
+		for (String bucket : properties.stringPropertyNames()) {
+			mapping.put(bucket, properties.getProperty(bucket).trim());
+		}
+		return new TypeMapper(mapping);
+	}
+
+	/**
+	 * @return names of all buckets an entity can be mapped to, including "other"
+	 */
+	public Set<String> getBuckets() {
+		Set<String> names = new LinkedHashSet<String>(this.buckets.keySet());
+		names.addAll(OTHER);
+		return names;
+	}
+
+	/** convert DBpedia resource types or NER labels to output type buckets
+	 * @param types DBpedia type list or NER label
+	 * @return unmodifiable set of matching buckets, "other" if none matches
+	 */
+	public Set<String> map(String types) {
+		Set<String> typeSet = this.memo.get(types);
+		if (typeSet == null) {
+			typeSet = compute(types);
+			this.memo.put(types, typeSet);
+		}
+		return typeSet;
+	}
+
+	private Set<String> compute(String types) {
+		Set<String> typeSet = null;
+		for (Entry<String, Pattern> bucket : this.buckets.entrySet()) {
+			if (bucket.getValue().matcher(types).matches()) {
+				if (typeSet == null) {
+					typeSet = new LinkedHashSet<String>();
+				}
+				typeSet.add(bucket.getKey());
+			}
+		}
+		return typeSet == null ? OTHER : Collections.unmodifiableSet(typeSet);
+	}
+
+}
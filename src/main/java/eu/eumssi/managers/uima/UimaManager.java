@@ -1,44 +1,54 @@
 package eu.eumssi.managers.uima;
 
-import static org.apache.uima.fit.factory.AnalysisEngineFactory.createEngine;
-import static org.apache.uima.fit.factory.AnalysisEngineFactory.createEngineDescription;
 import static org.apache.uima.fit.util.JCasUtil.select;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.log4j.BasicConfigurator;
-import org.apache.solr.client.solrj.util.ClientUtils;
 import org.apache.uima.UIMAException;
-import org.apache.uima.analysis_engine.AnalysisEngine;
-import org.apache.uima.analysis_engine.AnalysisEngineDescription;
-import org.apache.uima.fit.factory.JCasFactory;
 import org.apache.uima.jcas.JCas;
 import org.apache.uima.resource.ResourceInitializationException;
-import org.dbpedia.spotlight.uima.SpotlightAnnotator;
-import org.dbpedia.spotlight.uima.types.DBpediaResource;
 import org.dbpedia.spotlight.uima.types.TopDBpediaResource;
 
-import com.iai.uima.analysis_component.KeyPhraseAnnotator;
 import com.iai.uima.jcas.tcas.KeyPhraseAnnotation;
 import com.iai.uima.jcas.tcas.KeyPhraseAnnotationDeprecated;
 
 import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
-import de.tudarmstadt.ukp.dkpro.core.languagetool.LanguageToolSegmenter;
-import de.tudarmstadt.ukp.dkpro.core.opennlp.OpenNlpChunker;
-import de.tudarmstadt.ukp.dkpro.core.opennlp.OpenNlpPosTagger;
-import de.tudarmstadt.ukp.dkpro.core.stanfordnlp.StanfordNamedEntityRecognizer;
 import eu.eumssi.api.json.uima.JSONMeta.StatusType;
 
 /**
@@ -60,31 +70,255 @@ public class UimaManager {
 	private static final String PROPERTIES_FILE = "/eu/eumssi/properties/uima.properties";
 
 	/**
-	 * Singleton instance of QueryManager.
+	 * Prefix of system properties that override entries of the properties file,
+	 * e.g. <code>-Deumssi.uima.dbpediaUrl=http://spotlight:2222/rest</code>
 	 */
-	private static UimaManager instance;
+	private static final String SYSTEM_PROPERTY_PREFIX = "eumssi.uima.";
+
+	/**
+	 * Configuration property naming an external properties file, whose entries override the
+	 * bundled ones. Changes to the file are picked up while the service is running.
+	 */
+	private static final String CONFIG_FILE_PROPERTY = "configFile";
+
+	/**
+	 * Retry-After of requests rejected while the pipeline is warming up, in seconds.
+	 */
+	private static final int WARM_UP_RETRY_AFTER = 10;
+
+	/**
+	 * Settings besides the pipeline settings that change the analysis results, see {@link #configurationVersion()}.
+	 */
+	private static final List<String> RESULT_SETTINGS = Arrays.asList("chunkMaxLength", "chunkOverlap", "similarityMaxClauses");
+
+	private static final Histogram ANALYSIS_TIMER = MetricsRegistry.histogram("eumssi_analysis_seconds");
+
+	private static final Histogram EXTRACTION_TIMER = MetricsRegistry.histogram("eumssi_extraction_seconds");
+
+	/**
+	 * Time spent extracting results from stored CASes, see {@link #reextract(String, String, Annotators)}.
+	 */
+	private static final Histogram REEXTRACTION_TIMER = MetricsRegistry.histogram("eumssi_reextraction_seconds");
+
+	/**
+	 * Time spent waiting for Spotlight after the pipeline has finished.
+	 */
+	private static final Histogram SPOTLIGHT_WAIT_TIMER = MetricsRegistry.histogram("eumssi_spotlight_wait_seconds");
+
+	/**
+	 * Number of chunks long documents were split into.
+	 */
+	private static final LongAdder CHUNK_COUNTER = MetricsRegistry.counter("eumssi_chunks_total");
+
+	/**
+	 * Singleton instance of QueryManager, only set once the pipeline is warmed up.
+	 */
+	private static volatile UimaManager instance;
+
+	/**
+	 * Pending or completed initialization of the singleton instance.
+	 */
+	private static CompletableFuture<UimaManager> initialization;
 
 	/**
 	 * Configuration properties.
 	 */
 	private Properties properties;
 
-	private AnalysisEngine ae;
+	/**
+	 * Engine pools and Spotlight clients of all languages, replaced as a whole when the
+	 * configuration changes.
+	 */
+	private volatile LanguagePipelines pipelines;
 
-	private String dbpediaService;
+	/**
+	 * External configuration file, null if only the bundled properties are used.
+	 */
+	private File configFile;
+
+	private long configModified;
+
+	/**
+	 * Checks the external configuration file for changes, null if reloading is disabled.
+	 */
+	private ScheduledExecutorService configWatcher;
+
+	/**
+	 * Worker threads for multi-document requests, one per pooled engine.
+	 */
+	private ExecutorService executor;
+
+	/**
+	 * Threads for single-document requests, one for each request that may be admitted or
+	 * queued by the admission controller. Requests beyond that are rejected right away.
+	 */
+	private ExecutorService requestExecutor;
+
+	private int retryAfter;
+
+	/**
+	 * Limits the number of documents in analysis, in front of the engine pools.
+	 */
+	private AdmissionController admission;
+
+	/**
+	 * Splits long documents, null if chunking is disabled.
+	 */
+	private TextChunker chunker;
+
+	/**
+	 * Threads processing the chunks of long documents, so that workers waiting for
+	 * their chunks do not block them.
+	 */
+	private ExecutorService chunkExecutor;
+
+	/**
+	 * Cache of analysis results, null if disabled.
+	 */
+	private ResultCache<AnalysisResult> cache;
+
+	/**
+	 * Maps DBpedia and NER types to output type buckets.
+	 */
+	private TypeMapper typeMapper;
+
+	/**
+	 * Builds the Solr query for similar documents.
+	 */
+	private SimilarityQueryBuilder similarityQuery;
+
+	/**
+	 * Default time budget of a request in milliseconds.
+	 */
+	private long requestTimeout;
+
+	/**
+	 * Maximum time budget a request may ask for, in milliseconds.
+	 */
+	private long requestTimeoutMax;
+
+	private int poolSize;
+
+	private int streamMaxInFlight;
+
+	/**
+	 * Sends analysis results to Solr, null if indexing is not configured.
+	 */
+	private SolrSink solrSink;
+
+	/**
+	 * Runs background analysis jobs, null if jobs are not configured.
+	 */
+	private JobManager jobManager;
+
+	/**
+	 * Stored annotated documents for re-extraction, null if not configured.
+	 */
+	private CasStore casStore;
 
 
 	/**
 	 * Return a unique instance of QueryManager (Singleton pattern).
+	 * Waits for the initialization started by {@link #initialize()} if it is still running;
+	 * request threads use {@link #getReadyInstance()} instead.
 	 * @return a unique instance of QueryManager
 	 * @throws UnknownHostException 
 	 * @throws EumssiException 
 	 */
 	public static UimaManager getInstance() throws UnknownHostException, EumssiException {
-		if (instance == null) {
-			instance = new UimaManager();
+		UimaManager manager = instance;
+		if (manager != null) {
+			return manager;
+		}
+		try {
+			return initialize().get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new EumssiException(StatusType.ERROR_UNKNOWN);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof EumssiException) {
+				throw (EumssiException) e.getCause();
+			}
+			throw new EumssiException(StatusType.ERROR_UNKNOWN);
+		}
+	}
+
+	/**
+	 * Returns the instance without waiting for the initialization, for request threads.
+	 * @return the initialized instance
+	 * @throws EumssiException with {@link StatusType#ERROR_UNAVAILABLE} while the pipeline is
+	 * still being built and warmed up; the initialization is started if it is not running
+	 */
+	public static UimaManager getReadyInstance() throws EumssiException {
+		UimaManager manager = instance;
+		if (manager == null) {
+			initialize();
+			throw new EumssiException(StatusType.ERROR_UNAVAILABLE, WARM_UP_RETRY_AFTER);
+		}
+		return manager;
+	}
+
+	/**
+	 * Starts building and warming up the pipeline in a background thread, unless this is
+	 * already running or done. A failed initialization is retried on the next call.
+	 * @return the pending initialization
+	 */
+	public static synchronized CompletableFuture<UimaManager> initialize() {
+		if (initialization == null || initialization.isCompletedExceptionally()) {
+			final CompletableFuture<UimaManager> future = new CompletableFuture<UimaManager>();
+			Thread thread = new Thread(() -> {
+				UimaManager manager = null;
+				try {
+					manager = new UimaManager();
+					manager.warmUp();
+					synchronized (UimaManager.class) {
+						if (initialization != future) {
+							// shut down while initializing, see shutdown()
+							throw new EumssiException(StatusType.ERROR_UNAVAILABLE);
+						}
+						instance = manager;
+					}
+					if (manager.jobManager != null) {
+						manager.jobManager.resume();
+					}
+					future.complete(manager);
+				} catch (Throwable e) {
+					if (manager != null) {
+						synchronized (UimaManager.class) {
+							if (instance == manager) {
+								instance = null;
+							}
+						}
+						manager.destroy();
+					}
+					future.completeExceptionally(e);
+				}
+			}, "uima-initialization");
+			thread.setDaemon(true);
+			thread.start();
+			initialization = future;
 		}
-		return instance;
+		return initialization;
+	}
+
+	/**
+	 * @return true once the pipeline is built and all pooled engines are warmed up
+	 */
+	public static boolean isReady() {
+		return instance != null;
+	}
+
+	/**
+	 * Releases the singleton instance and all its resources. An initialization that is still
+	 * running destroys its instance instead of publishing it.
+	 */
+	public static synchronized void shutdown() {
+		if (initialization == null) {
+			return;
+		}
+		initialization.thenAccept(UimaManager::destroy);
+		initialization = null;
+		instance = null;
 	}
 
 	/**
@@ -95,183 +329,1040 @@ public class UimaManager {
 	private UimaManager() throws EumssiException{
 		try {
 			BasicConfigurator.configure(); // ugly hack to get it working, should use properties file instead
-			loadProperties();
-			this.dbpediaService = this.properties.getProperty("dbpediaUrl");
-			log.info("set dbpediaUrl to "+this.dbpediaService);
+			this.properties = loadProperties();
+			this.typeMapper = TypeMapper.load();
+			this.similarityQuery = new SimilarityQueryBuilder(
+					Integer.parseInt(this.properties.getProperty("similarityMaxClauses", "64").trim()));
+			this.poolSize = Integer.parseInt(this.properties.getProperty("poolSize",
+					Integer.toString(Runtime.getRuntime().availableProcessors())).trim());
+			log.info("set poolSize to "+this.poolSize);
+			this.streamMaxInFlight = Integer.parseInt(this.properties.getProperty("streamMaxInFlight",
+					Integer.toString(2 * this.poolSize)).trim());
+			this.requestTimeoutMax = Long.parseLong(this.properties.getProperty("requestTimeoutMax", "300000").trim());
+			this.requestTimeout = Math.min(this.requestTimeoutMax,
+					Long.parseLong(this.properties.getProperty("requestTimeout", "60000").trim()));
 		} catch (Exception e) {
 			log.error("Error loading properties file", e);
 			throw new EumssiException(StatusType.ERROR);
 		}
 		try {
-			setupPipeline();
-		} catch (ResourceInitializationException e) {
+			this.pipelines = new LanguagePipelines(this.properties, this.poolSize);
+			this.pipelines.publishMetrics();
+			setupAdmission();
+			setupChunking();
+			setupCache();
+			setupCasStore();
+			setupSolr();
+			setupJobs();
+			setupReload();
+		} catch (UIMAException e) {
 			log.error("Error configuring UIMA pipeline", e);
 			throw new EumssiException(StatusType.ERROR_UNKNOWN);
 		}
 	}
 
-	private void setupPipeline() throws ResourceInitializationException {
-		AnalysisEngineDescription segmenter = createEngineDescription(LanguageToolSegmenter.class);
+	/**
+	 * runs a sample text through every engine of the pipeline, so that models are loaded and
+	 * the hot code paths are compiled before the first request arrives
+	 */
+	private void warmUp() throws ResourceInitializationException {
+		this.pipelines.warmUp();
+	}
 
-		AnalysisEngineDescription dbpedia = createEngineDescription(SpotlightAnnotator.class,
-				//SpotlightAnnotator.PARAM_ENDPOINT, "http://localhost:2222/rest",
-				SpotlightAnnotator.PARAM_ENDPOINT, this.dbpediaService,
-				SpotlightAnnotator.PARAM_CONFIDENCE, 0.35f,
-				SpotlightAnnotator.PARAM_ALL_CANDIDATES, false);
+	private void destroy() {
+		if (this.jobManager != null) {
+			this.jobManager.destroy();
+		}
+		if (this.configWatcher != null) {
+			this.configWatcher.shutdownNow();
+		}
+		this.executor.shutdownNow();
+		this.requestExecutor.shutdownNow();
+		if (this.chunkExecutor != null) {
+			this.chunkExecutor.shutdownNow();
+		}
+		// analyses that already started still hand their results to the sink and the store
+		try {
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.requestTimeout);
+			if (!this.executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)
+					|| !this.requestExecutor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+				log.warn("Analyses still running at shutdown, their results may not be indexed or stored");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (this.solrSink != null) {
+			this.solrSink.close();
+		}
+		if (this.casStore != null) {
+			this.casStore.close();
+		}
+		if (this.cache != null) {
+			this.cache.close();
+		}
+		this.pipelines.retire();
+	}
+
+	private void setupAdmission() {
+		int maxConcurrent = Integer.parseInt(this.properties.getProperty("admissionMaxConcurrent",
+				Integer.toString(this.poolSize)).trim());
+		int maxQueued = Integer.parseInt(this.properties.getProperty("admissionMaxQueued",
+				Integer.toString(4 * this.poolSize)).trim());
+		long maxWait = Long.parseLong(this.properties.getProperty("admissionMaxWait", "10000").trim());
+		this.retryAfter = Integer.parseInt(this.properties.getProperty("admissionRetryAfter", "1").trim());
+		this.admission = new AdmissionController(maxConcurrent, maxQueued, maxWait, this.retryAfter);
+		int requestThreads = maxConcurrent + maxQueued;
+		this.requestExecutor = new ThreadPoolExecutor(requestThreads, requestThreads, 0L, TimeUnit.MILLISECONDS,
+				new SynchronousQueue<Runnable>(), runnable -> new Thread(runnable, "uima-request"));
+		// bulk documents beyond the queue are rejected as overloaded instead of piling up in front of admission
+		ThreadPoolExecutor workers = new ThreadPoolExecutor(this.poolSize, this.poolSize, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(Math.max(1, maxQueued)));
+		MetricsRegistry.gauge("eumssi_worker_queue_depth", "", () -> workers.getQueue().size());
+		this.executor = workers;
+	}
+
+	private void setupChunking() {
+		int maxLength = Integer.parseInt(this.properties.getProperty("chunkMaxLength", "0").trim());
+		if (maxLength <= 0) {
+			return;
+		}
+		int overlap = Integer.parseInt(this.properties.getProperty("chunkOverlap", "200").trim());
+		this.chunker = new TextChunker(maxLength, overlap);
+		this.chunkExecutor = Executors.newFixedThreadPool(this.poolSize);
+		log.info("splitting documents longer than " + maxLength + " characters");
+	}
 
-		AnalysisEngineDescription ner = createEngineDescription(StanfordNamedEntityRecognizer.class);
+	private void setupCache() {
+		if (!Boolean.parseBoolean(this.properties.getProperty("cacheEnabled", "false").trim())) {
+			return;
+		}
+		int maxEntries = Integer.parseInt(this.properties.getProperty("cacheMaxEntries", "10000").trim());
+		long ttlSeconds = Long.parseLong(this.properties.getProperty("cacheTtlSeconds", "0").trim());
+		String directory = this.properties.getProperty("cacheDirectory", "").trim();
+		this.cache = new ResultCache<AnalysisResult>("results", configurationVersion(), maxEntries, ttlSeconds,
+				directory.isEmpty() ? null : new File(directory));
+		MetricsRegistry.gauge("eumssi_cache_entries", "cache=\"results\"", this.cache::size);
+		log.info("enabled result cache with " + maxEntries + " entries"
+				+ (directory.isEmpty() ? "" : ", stored in " + directory));
+	}
+
+	private void setupCasStore() throws UIMAException {
+		String directory = this.properties.getProperty("casStoreDirectory", "").trim();
+		if (directory.isEmpty()) {
+			return;
+		}
+		try {
+			this.casStore = new CasStore(new File(directory));
+		} catch (IOException e) {
+			throw new ResourceInitializationException(e);
+		}
+		log.info("storing annotated documents in " + directory);
+	}
+
+	/**
+	 * @return the store of annotated documents, or null if it is not configured
+	 */
+	public CasStore getCasStore() {
+		return this.casStore;
+	}
+
+	private void setupSolr() {
+		String url = this.properties.getProperty("solrUrl", "").trim();
+		if (url.isEmpty()) {
+			return;
+		}
+		String collection = this.properties.getProperty("solrCollection", "").trim();
+		String idField = this.properties.getProperty("solrIdField", "id").trim();
+		int batchSize = Integer.parseInt(this.properties.getProperty("solrBatchSize", "100").trim());
+		long flushInterval = Long.parseLong(this.properties.getProperty("solrFlushInterval", "1000").trim());
+		int commitWithin = Integer.parseInt(this.properties.getProperty("solrCommitWithin", "10000").trim());
+		int queueSize = Integer.parseInt(this.properties.getProperty("solrQueueSize", "10").trim());
+		int threads = Integer.parseInt(this.properties.getProperty("solrThreads", "2").trim());
+		this.solrSink = SolrSink.create(url, collection, idField, batchSize, flushInterval, commitWithin,
+				this.typeMapper.getBuckets(), queueSize, threads);
+		log.info("indexing results in Solr collection " + collection + " at " + url);
+	}
+
+	/**
+	 * @return the Solr sink, or null if indexing is not configured
+	 */
+	public SolrSink getSolrSink() {
+		return this.solrSink;
+	}
+
+	private void setupJobs() {
+		String directory = this.properties.getProperty("jobDirectory", "").trim();
+		String inputDirectory = this.properties.getProperty("jobInputDirectory", "").trim();
+		if (directory.isEmpty() || inputDirectory.isEmpty()) {
+			return;
+		}
+		int segmentSize = Integer.parseInt(this.properties.getProperty("jobSegmentSize", "1000").trim());
+		int concurrency = Integer.parseInt(this.properties.getProperty("jobConcurrency",
+				Integer.toString(this.poolSize)).trim());
+		this.jobManager = new JobManager(this, new File(directory), new File(inputDirectory), segmentSize, concurrency);
+		log.info("running jobs on input from " + inputDirectory + ", results in " + directory);
+	}
+
+	/**
+	 * @return the job manager, or null if jobs are not configured
+	 */
+	public JobManager getJobManager() {
+		return this.jobManager;
+	}
 
-		AnalysisEngineDescription pos = createEngineDescription(OpenNlpPosTagger.class,
-				OpenNlpPosTagger.PARAM_LANGUAGE,"en");
-		
-		AnalysisEngineDescription chunk = createEngineDescription(OpenNlpChunker.class,
-				OpenNlpChunker.PARAM_LANGUAGE,"en");
-		
-		AnalysisEngineDescription key = createEngineDescription(KeyPhraseAnnotator.class,
-				KeyPhraseAnnotator.PARAM_LANGUAGE, "en");
+	/**
+	 * @return a string identifying the pipeline configuration, so that cached results
+	 * are not reused after a change of the pipeline settings or of the service version
+	 */
+	private String configurationVersion() {
+		StringBuilder version = new StringBuilder();
+		version.append(getClass().getPackage().getImplementationVersion()).append(Pipeline.version(this.properties));
+		for (String name : RESULT_SETTINGS) {
+			version.append(' ').append(name).append('=').append(this.properties.getProperty(name, "").trim());
+		}
+		return version.toString();
+	}
 
-		this.ae = createEngine(createEngineDescription(segmenter, dbpedia, ner, pos, chunk, key));
+	/**
+	 * @return the result cache, or null if caching is disabled
+	 */
+	public ResultCache<AnalysisResult> getCache() {
+		return this.cache;
 	}
 
 	/**
 	 * Load the QueryManager properties file.
+	 * Entries of the external configuration file, if one is given with {@link #CONFIG_FILE_PROPERTY},
+	 * override the bundled ones. System properties starting with {@link #SYSTEM_PROPERTY_PREFIX}
+	 * take precedence over both.
 	 * 
-	 * @return
+	 * @return the configuration properties
 	 * @throws IOException
 	 */
-	private boolean loadProperties() throws IOException
+	private Properties loadProperties() throws IOException
 	{
-		this.properties = new Properties();
+		Properties properties = new Properties();
 		InputStream in = this.getClass().getResourceAsStream(PROPERTIES_FILE);
-		this.properties.load(in);
+		properties.load(in);
 		in.close();
-		return true;		
+		String configFile = System.getProperty(SYSTEM_PROPERTY_PREFIX + CONFIG_FILE_PROPERTY,
+				properties.getProperty(CONFIG_FILE_PROPERTY, "")).trim();
+		if (!configFile.isEmpty()) {
+			this.configFile = new File(configFile);
+			try (InputStream external = new FileInputStream(this.configFile)) {
+				properties.load(external);
+			}
+		}
+		for (String name : System.getProperties().stringPropertyNames()) {
+			if (name.startsWith(SYSTEM_PROPERTY_PREFIX)) {
+				String key = name.substring(SYSTEM_PROPERTY_PREFIX.length());
+				log.debug("overriding " + key + " from system property " + name);
+				properties.setProperty(key, System.getProperty(name));
+			}
+		}
+		return properties;
 	}
 
-	/** convert DBpedia resource types to Stanford NER types
-	 * @param types space separated list of DBpedia types
-	 * @return set of matching NER types
+	private void setupReload() {
+		long interval = Long.parseLong(this.properties.getProperty("configReloadInterval", "10").trim());
+		if (this.configFile == null || interval <= 0) {
+			return;
+		}
+		this.configModified = this.configFile.lastModified();
+		this.configWatcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "uima-config-watcher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.configWatcher.scheduleWithFixedDelay(() -> {
+			long modified = this.configFile.lastModified();
+			if (modified != this.configModified) {
+				this.configModified = modified;
+				reloadConfiguration();
+			}
+		}, interval, interval, TimeUnit.SECONDS);
+		log.info("reloading " + this.configFile + " when it changes");
+	}
+
+	/**
+	 * Reads the configuration again. If the pipeline settings changed, a new pipeline is built
+	 * and warmed up in the calling thread while requests are still served by the current one,
+	 * then swapped in. Other settings only take effect after a restart.
+	 * @return true if a new pipeline was swapped in
 	 */
-	private static Set<String> convertTypes(String types) {
-		Set<String> typeSet = new HashSet<String>();
-		if (types.matches("(PERSON)|(I-PER)|(.*Person.*)")) typeSet.add("PERSON");
-		if (types.matches("(LOCATION)|(I-LOC)|(.*Place.*)")) 
-			typeSet.add("LOCATION");
-		if (types.matches("(ORGANIZATION)|(I-ORG)|(.*Organisation.*)")) typeSet.add("ORGANIZATION");
-		if (types.matches("(MISC)|(I-MISC)")) typeSet.add("MISC");
-		if (types.matches(".*City.*"))
-			typeSet.add("City");
-		if (types.matches(".*Country.*")) typeSet.add("Country");
-		if (typeSet.isEmpty()) {
-			typeSet.add("other");
+	public synchronized boolean reloadConfiguration() {
+		Properties properties;
+		try {
+			properties = loadProperties();
+		} catch (IOException | RuntimeException e) {
+			log.error("Could not read the configuration, keeping the current pipeline", e);
+			MetricsRegistry.counter("eumssi_config_reloads_total", "status=\"error\"").increment();
+			return false;
+		}
+		for (String name : properties.stringPropertyNames()) {
+			if (!Pipeline.isSetting(name) && !properties.getProperty(name).equals(this.properties.getProperty(name))) {
+				log.warn("changed setting " + name + " only takes effect after a restart");
+			}
+		}
+		if (Pipeline.version(properties).equals(this.pipelines.getVersion())) {
+			return false;
+		}
+		LanguagePipelines next;
+		try {
+			next = new LanguagePipelines(properties, this.poolSize);
+		} catch (UIMAException | RuntimeException e) {
+			log.error("Could not build the new pipeline, keeping the current one", e);
+			MetricsRegistry.counter("eumssi_config_reloads_total", "status=\"error\"").increment();
+			return false;
 		}
-		return typeSet;
+		try {
+			next.warmUp();
+		} catch (ResourceInitializationException e) {
+			log.error("Could not warm up the new pipeline, keeping the current one", e);
+			MetricsRegistry.counter("eumssi_config_reloads_total", "status=\"error\"").increment();
+			next.retire();
+			return false;
+		}
+		LanguagePipelines previous = this.pipelines;
+		this.pipelines = next;
+		next.publishMetrics();
+		previous.retire();
+		for (String name : this.properties.stringPropertyNames()) {
+			if (Pipeline.isSetting(name) && properties.getProperty(name) == null) {
+				this.properties.remove(name);
+			}
+		}
+		for (String name : properties.stringPropertyNames()) {
+			if (Pipeline.isSetting(name)) {
+				this.properties.setProperty(name, properties.getProperty(name));
+			}
+		}
+		MetricsRegistry.counter("eumssi_config_reloads_total", "status=\"ok\"").increment();
+		log.info("switched to the new pipeline");
+		return true;
 	}
 
-	/** adds entities/resources to the entityMap structure according to the entity type
-	 * @param entityMap MongoDB structure to be filled
-	 * @param type type of the entity to add
-	 * @param entity the entity name/URI
+	/**
+	 * @param language a supported language
+	 * @param deadline {@link System#nanoTime()} until which to wait for the pipeline to be built
+	 * @return the current pipeline for the language, registered as used by the caller,
+	 * see {@link Pipeline#use()}
+	 * @throws EumssiException if the pipeline for the language is not available by the deadline
 	 */
-	@SuppressWarnings("unchecked")
-	private static void addWithType(Map<String,Object> entityMap, String type, Map<String,Object> entity) {
-		List<Object> entityList = null;
-		// create field for each entity type
-		if (entityMap.containsKey(type)) {
-			entityList = (List<Object>) entityMap.get(type);
-		} else {
-			entityList = new ArrayList<Object>();
-			entityMap.put(type, entityList);
+	private Pipeline usePipeline(String language, long deadline) throws EumssiException {
+		while (true) {
+			// retired pipelines have already been replaced, read again
+			Pipeline current = this.pipelines.use(language, deadline);
+			if (current != null) {
+				return current;
+			}
 		}
-		entityList.add(entity);
 	}
 
 	/**
-	 * analyzes a given text
+	 * analyzes a given text with all annotators
+	 * @param text the text to analyze
+	 * @return
+	 * @throws EumssiException
+	 */
+	public AnalysisResult analyze(String text) throws EumssiException  {
+		return analyze(text, Annotators.ALL);
+	}
+
+	/**
+	 * analyzes a given text as an interactive request
+	 * @param text the text to analyze
+	 * @param annotators annotators to run, results of the others are left out
+	 * @return
+	 * @throws EumssiException
+	 */
+	public AnalysisResult analyze(String text, Annotators annotators) throws EumssiException  {
+		return analyze(text, annotators, AdmissionController.Lane.INTERACTIVE);
+	}
+
+	/**
+	 * analyzes a given text within the default time budget
 	 * @param text the text to analyze
+	 * @param annotators annotators to run, results of the others are left out
+	 * @param lane admission priority of the request
 	 * @return
 	 * @throws EumssiException
 	 */
-	public Map<String, Object> analyze(String text) throws EumssiException  {
-		Map<String, Object> analysisResult = new HashMap<String,Object>();
-		JCas jCas;
+	public AnalysisResult analyze(String text, Annotators annotators, AdmissionController.Lane lane) throws EumssiException  {
+		return analyze(text, annotators, lane, 0);
+	}
+
+	/**
+	 * analyzes a given text in the default language, or the detected one if detection is enabled
+	 * @param text the text to analyze
+	 * @param annotators annotators to run, results of the others are left out
+	 * @param lane admission priority of the request
+	 * @param timeout time budget in milliseconds, capped by the server maximum; 0 for the default
+	 * @return
+	 * @throws EumssiException
+	 */
+	public AnalysisResult analyze(String text, Annotators annotators, AdmissionController.Lane lane, long timeout) throws EumssiException  {
+		return analyze(text, null, annotators, lane, timeout);
+	}
+
+	/**
+	 * analyzes a given text, answering from the result cache when possible
+	 * @param text the text to analyze
+	 * @param language language of the text, "auto" to detect it, or null for the default
+	 * @param annotators annotators to run, results of the others are left out, as are those
+	 * without models for the language
+	 * @param lane admission priority of the request
+	 * @param timeout time budget in milliseconds, capped by the server maximum; 0 for the default
+	 * @return the results, partial if Spotlight did not answer in time
+	 * @throws EumssiException with {@link StatusType#ERROR_TIMEOUT} if the pipeline did not finish in time,
+	 * or {@link StatusType#ERROR} if the language is not supported
+	 */
+	public AnalysisResult analyze(String text, String language, Annotators annotators, AdmissionController.Lane lane, long timeout) throws EumssiException  {
+		language = this.pipelines.resolve(text, language);
+		long start = System.nanoTime();
+		long budget = timeout > 0 ? Math.min(timeout, this.requestTimeoutMax) : this.requestTimeout;
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(budget);
 		try {
-			jCas = JCasFactory.createText(text);
-			jCas.setDocumentLanguage("en");
-			this.ae.process(jCas);
-
-			List<String> dbpediaUris = new ArrayList<String>();
-			
-			Map<String, Object> dbpediaMap = new HashMap<String,Object>();
-			for (DBpediaResource resource : select(jCas, TopDBpediaResource.class)) {
-				// multiword or contains upper case
-				if (resource.getCoveredText().contains(" ") || !resource.getCoveredText().equals(resource.getCoveredText().toLowerCase())) {
-					Map<String, Object> res = new HashMap<String,Object>();
-					res.put("text", resource.getCoveredText());
-					res.put("uri", resource.getUri());
-					res.put("type", resource.getTypes());
-					res.put("begin", resource.getBegin());
-					res.put("end", resource.getEnd());
-					for (String type : convertTypes((String) res.get("type"))) {
-						addWithType(dbpediaMap, type, res);
+			AnalysisResult analysisResult;
+			if (this.cache == null) {
+				analysisResult = admitAndProcess(text, language, annotators, lane, deadline);
+			} else {
+				String key = this.cache.key(text, language, annotators.toString(), this.pipelines.getVersion());
+				analysisResult = this.cache.get(key);
+				if (analysisResult == null) {
+					analysisResult = admitAndProcess(text, language, annotators, lane, deadline);
+					if (!analysisResult.isPartial()) {
+						this.cache.put(key, analysisResult);
 					}
-					addWithType(dbpediaMap, "all", res);
-					dbpediaUris.add(ClientUtils.escapeQueryChars(resource.getUri()));
 				}
 			}
-			analysisResult.put("dbpedia", dbpediaMap);
+			MetricsRegistry.counter("eumssi_documents_total", "status=\"ok\"").increment();
+			return analysisResult;
+		} catch (EumssiException e) {
+			MetricsRegistry.counter("eumssi_documents_total", "status=\"error\"").increment();
+			throw e;
+		} finally {
+			ANALYSIS_TIMER.observeSince(start);
+		}
+	}
 
-			List<String> stanfordEntities = new ArrayList<String>();
+	/**
+	 * extracts the results for a given text from its stored CAS, without running the pipeline,
+	 * e.g. after a change of the type mapping. Documents that were split into chunks are split
+	 * the same way again, so the chunking settings must not have changed.
+	 * @param text the text that was analyzed
+	 * @param language language of the text, "auto" to detect it, or null for the default
+	 * @param annotators annotators to extract results for; those that were not run when the
+	 * document was stored are left out
+	 * @return the results
+	 * @throws EumssiException with {@link StatusType#ERROR_NOT_STORED} if the text is not stored,
+	 * or {@link StatusType#ERROR} if there is no CAS store or the language is not supported
+	 */
+	public AnalysisResult reextract(String text, String language, Annotators annotators) throws EumssiException {
+		if (this.casStore == null) {
+			throw new EumssiException(StatusType.ERROR);
+		}
+		language = this.pipelines.resolve(text, language);
+		long start = System.nanoTime();
+		try {
+			if (this.chunker == null || !this.chunker.needsSplit(text)) {
+				return replay(text, language, annotators);
+			}
+			List<TextChunker.Chunk> chunks = this.chunker.split(text, language);
+			List<AnalysisResult> results = new ArrayList<AnalysisResult>();
+			for (TextChunker.Chunk chunk : chunks) {
+				results.add(replay(chunk.getText(), language, annotators));
+			}
+			AnalysisResult merged = this.chunker.merge(chunks, results);
+			return new AnalysisResult(merged.getDbpedia(), merged.getStanford(), merged.getKea(),
+					this.similarityQuery.build(merged.getDbpedia(), merged.getStanford()), merged.getIncomplete());
+		} finally {
+			REEXTRACTION_TIMER.observeSince(start);
+		}
+	}
 
-			Map<String, Object> stanfordMap = new HashMap<String,Object>();
-			for (NamedEntity entity : select(jCas, NamedEntity.class)) {
-				Map<String, Object> res = new HashMap<String,Object>();
-				res.put("text", entity.getCoveredText());
-				res.put("type", entity.getValue());
-				res.put("begin", entity.getBegin());
-				res.put("end", entity.getEnd());
-				for (String type : convertTypes((String) res.get("type"))) {
-					addWithType(stanfordMap, type, res);
+	/**
+	 * waits for admission, then analyzes a given text
+	 * @param text the text to analyze
+	 * @param language a supported language
+	 * @param annotators annotators to run
+	 * @param lane admission priority of the request
+	 * @param deadline {@link System#nanoTime()} by which the analysis must be done
+	 * @return
+	 * @throws EumssiException if the request is not admitted or the analysis fails
+	 */
+	private AnalysisResult admitAndProcess(String text, String language, Annotators annotators, AdmissionController.Lane lane, long deadline) throws EumssiException {
+		this.admission.acquire(lane, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+		try {
+			return process(text, language, annotators, deadline);
+		} finally {
+			this.admission.release();
+		}
+	}
+
+	/**
+	 * analyzes a given text, split into chunks if it is too long
+	 * @param text the text to analyze
+	 * @param language a supported language
+	 * @param annotators annotators to run
+	 * @param deadline {@link System#nanoTime()} by which the analysis must be done
+	 * @return
+	 * @throws EumssiException
+	 */
+	private AnalysisResult process(String text, String language, Annotators annotators, long deadline) throws EumssiException {
+		Pipeline pipeline = usePipeline(language, deadline);
+		try {
+			return process(pipeline, text, annotators, deadline);
+		} finally {
+			pipeline.done();
+		}
+	}
+
+	private AnalysisResult process(Pipeline pipeline, String text, Annotators annotators, long deadline) throws EumssiException {
+		if (this.chunker == null || !this.chunker.needsSplit(text)) {
+			return runPipeline(pipeline, text, annotators, deadline);
+		}
+		List<TextChunker.Chunk> chunks = this.chunker.split(text, pipeline.getLanguage());
+		CHUNK_COUNTER.add(chunks.size());
+		List<Future<AnalysisResult>> futures = new ArrayList<Future<AnalysisResult>>();
+		// each chunk uses the pipeline until it is done, as it may still run after a timeout;
+		// the use of a chunk that never started is released by whoever claims it first
+		List<AtomicBoolean> claims = new ArrayList<AtomicBoolean>();
+		List<AnalysisResult> results = new ArrayList<AnalysisResult>();
+		try {
+			for (TextChunker.Chunk chunk : chunks) {
+				AtomicBoolean claimed = new AtomicBoolean();
+				pipeline.share();
+				claims.add(claimed);
+				futures.add(this.chunkExecutor.submit(() -> {
+					if (!claimed.compareAndSet(false, true)) {
+						return null;
+					}
+					try {
+						return runPipeline(pipeline, chunk.getText(), annotators, deadline);
+					} finally {
+						pipeline.done();
+					}
+				}));
+			}
+			for (Future<AnalysisResult> future : futures) {
+				results.add(future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+			}
+		} catch (TimeoutException e) {
+			log.warn("Document chunks not done within the time budget");
+			throw new EumssiException(StatusType.ERROR_TIMEOUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			log.error("Interrupted while waiting for document chunks", e);
+			throw new EumssiException(StatusType.ERROR_UNKNOWN);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof EumssiException) {
+				throw (EumssiException) e.getCause();
+			}
+			log.error("Error processing document chunk", e.getCause());
+			throw new EumssiException(StatusType.ERROR_UNKNOWN);
+		} finally {
+			for (Future<AnalysisResult> future : futures) {
+				future.cancel(true);
+			}
+			for (AtomicBoolean claimed : claims) {
+				if (claimed.compareAndSet(false, true)) {
+					pipeline.done();
 				}
-				addWithType(stanfordMap, "all", res);
-				stanfordEntities.add(ClientUtils.escapeQueryChars(entity.getCoveredText()));
 			}
-			analysisResult.put("stanford", stanfordMap);
+		}
+		AnalysisResult merged = this.chunker.merge(chunks, results);
+		return new AnalysisResult(merged.getDbpedia(), merged.getStanford(), merged.getKea(),
+				this.similarityQuery.build(merged.getDbpedia(), merged.getStanford()), merged.getIncomplete());
+	}
 
-			ArrayList<Map<String, Object>> keaList = new ArrayList<Map<String, Object>>();
-			for (KeyPhraseAnnotation entity : select(jCas, KeyPhraseAnnotation.class)) {
-				if (!(entity instanceof KeyPhraseAnnotationDeprecated)) {
-					Map<String, Object> res = new HashMap<String,Object>();
-					res.put("text", entity.getCoveredText());
-					res.put("keyphrase", entity.getKeyPhrase());
-					res.put("stemmed", entity.getStem());
-					res.put("rank", entity.getRank());
-					res.put("probability", entity.getProbability());
-					res.put("begin", entity.getBegin());
-					res.put("end", entity.getEnd());
-					keaList.add(res);
-				}
+	/**
+	 * runs the smallest analysis pipeline that covers the selected annotators on a given text
+	 * @param pipeline the pipeline to use
+	 * @param text the text to analyze
+	 * @param annotators annotators to run
+	 * @param deadline {@link System#nanoTime()} by which the analysis must be done
+	 * @return
+	 * @throws EumssiException
+	 */
+	private AnalysisResult runPipeline(Pipeline pipeline, String text, Annotators annotators, long deadline) throws EumssiException  {
+		annotators = pipeline.supported(annotators);
+		CompletableFuture<List<SpotlightResource>> spotlight = null;
+		if (pipeline.getSpotlightClient() != null && annotators.contains(Annotators.DBPEDIA)) {
+			spotlight = pipeline.getSpotlightClient().annotate(text);
+		}
+		try {
+			return runEngine(pipeline, text, annotators, spotlight, deadline);
+		} finally {
+			if (spotlight != null) {
+				// no effect once the response was used, otherwise drops the request so it does not hold up others
+				spotlight.cancel(true);
 			}
-			keaList.sort(Comparator.comparingInt((Map<String, Object> k) -> (Integer) k.get("rank")));
-			analysisResult.put("kea", keaList);
+		}
+	}
 
-			String solrSimilarity = "";
-			
-			if (dbpediaUris.size() > 0) {
-				solrSimilarity += "meta.extracted.text_nerl.dbpedia.all:(" + String.join(" ", dbpediaUris) + ")";
+	/**
+	 * @param spotlight pending Spotlight request for the text, or null
+	 * @see #runPipeline(Pipeline, String, Annotators, long)
+	 */
+	private AnalysisResult runEngine(Pipeline pipeline, String text, Annotators annotators,
+			CompletableFuture<List<SpotlightResource>> spotlight, long deadline) throws EumssiException {
+		EnginePool pool = pipeline.selectPool(annotators);
+		PooledEngine engine;
+		try {
+			engine = pool.acquire(deadline - System.nanoTime());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			log.error("Interrupted while waiting for an analysis engine", e);
+			throw new EumssiException(StatusType.ERROR_UNKNOWN);
+		}
+		if (engine == null) {
+			log.warn("No analysis engine available within the time budget");
+			throw new EumssiException(StatusType.ERROR_TIMEOUT);
+		}
+		// an abandoned engine is returned to the pool by the pool itself
+		boolean abandoned = false;
+		try {
+			JCas jCas;
+			try {
+				jCas = pool.process(engine, text, pipeline.getLanguage(), deadline - System.nanoTime());
+			} catch (TimeoutException e) {
+				abandoned = true;
+				log.warn("Analysis not done within the time budget, abandoning it");
+				throw new EumssiException(StatusType.ERROR_TIMEOUT);
+			} catch (InterruptedException e) {
+				abandoned = true;
+				Thread.currentThread().interrupt();
+				log.error("Interrupted while waiting for the analysis", e);
+				throw new EumssiException(StatusType.ERROR_UNKNOWN);
 			}
-			if (stanfordEntities.size() > 0) {
-				solrSimilarity += " meta.extracted.text_nerl.ner.all:(" + String.join(" ", stanfordEntities) + ")";
+			Set<String> incomplete = Collections.emptySet();
+			if (spotlight != null && !addSpotlightResources(jCas, spotlight, pipeline.getSpotlightTimeout(), deadline)) {
+				// return what the pipeline found, without DBpedia entities
+				annotators = annotators.without(Annotators.DBPEDIA);
+				incomplete = Collections.singleton(Annotators.DBPEDIA);
+			} else if (this.casStore != null) {
+				this.casStore.put(text, pipeline.getLanguage(), annotators, jCas);
 			}
-			HashMap<String, String> solrQueries = new HashMap<String,String>();
-			solrQueries.put("similarity", solrSimilarity);
-			analysisResult.put("solr", solrQueries);
+			long extractionStart = System.nanoTime();
 
+			AnalysisResult analysisResult = extract(jCas, annotators, incomplete);
+			EXTRACTION_TIMER.observeSince(extractionStart);
 			return analysisResult;
 		} catch (UIMAException e) {
 			log.error("Error processing document", e);
 			throw new EumssiException(StatusType.ERROR_UNKNOWN);
+		} finally {
+			if (!abandoned) {
+				pool.release(engine);
+			}
+		}
+	}
+
+	/**
+	 * reads the analysis results from a processed document
+	 * @param jCas the processed document
+	 * @param annotators selected annotators, sections of other annotators are left out
+	 * @param incomplete names of selected annotators whose results are missing
+	 * @return the analysis results
+	 */
+	private AnalysisResult extract(JCas jCas, Annotators annotators, Set<String> incomplete) {
+		List<DBpediaEntity> dbpedia = null;
+		if (annotators.contains(Annotators.DBPEDIA)) {
+			dbpedia = DBpediaEntity.fromResources(select(jCas, TopDBpediaResource.class), this.typeMapper);
+		}
+
+		List<Entity> stanford = null;
+		if (annotators.contains(Annotators.NER)) {
+			stanford = new ArrayList<Entity>();
+			for (NamedEntity entity : select(jCas, NamedEntity.class)) {
+				stanford.add(new Entity(entity.getCoveredText(), entity.getValue(),
+						entity.getBegin(), entity.getEnd(), this.typeMapper.map(entity.getValue())));
+			}
+		}
+
+		List<KeyPhrase> kea = null;
+		if (annotators.contains(Annotators.KEA)) {
+			kea = new ArrayList<KeyPhrase>();
+			for (KeyPhraseAnnotation entity : select(jCas, KeyPhraseAnnotation.class)) {
+				if (!(entity instanceof KeyPhraseAnnotationDeprecated)) {
+					kea.add(new KeyPhrase(entity.getCoveredText(), entity.getKeyPhrase(), entity.getStem(),
+							entity.getRank(), entity.getProbability(), entity.getBegin(), entity.getEnd()));
+				}
+			}
+			kea.sort(Comparator.comparingInt(KeyPhrase::getRank));
+		}
+
+		return new AnalysisResult(dbpedia, stanford, kea, this.similarityQuery.build(dbpedia, stanford), incomplete);
+	}
+
+	/**
+	 * reads the analysis results from the stored CAS of a text
+	 * @param text the text that was run through the pipeline
+	 * @param language a supported language
+	 * @param annotators selected annotators
+	 * @return the analysis results
+	 * @throws EumssiException if the text is not stored or its record cannot be read
+	 */
+	private AnalysisResult replay(String text, String language, Annotators annotators) throws EumssiException {
+		AnalysisResult analysisResult;
+		try {
+			analysisResult = this.casStore.replay(text, language, annotators,
+					(jCas, stored) -> extract(jCas, stored, Collections.<String>emptySet()));
+		} catch (IOException | UIMAException e) {
+			log.error("Error reading stored document", e);
+			throw new EumssiException(StatusType.ERROR_UNKNOWN);
+		}
+		if (analysisResult == null) {
+			throw new EumssiException(StatusType.ERROR_NOT_STORED);
+		}
+		return analysisResult;
+	}
+
+	/**
+	 * waits for the Spotlight response of a document and adds its resources to the CAS
+	 * @param jCas the processed document
+	 * @param spotlight pending Spotlight request for the document text
+	 * @param spotlightTimeout maximum time to wait for Spotlight in milliseconds
+	 * @param deadline {@link System#nanoTime()} after which the response is not waited for
+	 * @return false if Spotlight failed or did not answer in time
+	 * @throws EumssiException if interrupted
+	 */
+	private boolean addSpotlightResources(JCas jCas, CompletableFuture<List<SpotlightResource>> spotlight,
+			int spotlightTimeout, long deadline) throws EumssiException {
+		List<SpotlightResource> resources;
+		long start = System.nanoTime();
+		long timeout = Math.min(TimeUnit.MILLISECONDS.toNanos(spotlightTimeout), deadline - start);
+		try {
+			resources = spotlight.get(Math.max(0, timeout), TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			log.error("Interrupted while waiting for DBpedia Spotlight", e);
+			throw new EumssiException(StatusType.ERROR_UNKNOWN);
+		} catch (TimeoutException e) {
+			log.warn("DBpedia Spotlight did not answer in time, returning partial results");
+			return false;
+		} catch (ExecutionException e) {
+			log.error("Error calling DBpedia Spotlight, returning partial results", e.getCause());
+			return false;
+		} finally {
+			SPOTLIGHT_WAIT_TIMER.observeSince(start);
+		}
+		for (SpotlightResource resource : resources) {
+			TopDBpediaResource annotation = new TopDBpediaResource(jCas, resource.getBegin(), resource.getEnd());
+			annotation.setUri(resource.getUri());
+			annotation.setTypes(resource.getTypes());
+			annotation.addToIndexes();
+		}
+		return true;
+	}
+
+	/**
+	 * analyzes a given text on the worker pool, as a bulk request
+	 * @param text the text to analyze
+	 * @param annotators annotators to run
+	 * @return a future completed with the analysis results, or exceptionally with an {@link EumssiException}
+	 */
+	public CompletableFuture<AnalysisResult> analyzeAsync(String text, Annotators annotators) {
+		return analyzeAsync(text, annotators, AdmissionController.Lane.BULK, 0);
+	}
+
+	/**
+	 * analyzes a given text on a background thread: bulk requests on the worker pool,
+	 * interactive ones on the request threads
+	 * @param text the text to analyze
+	 * @param annotators annotators to run
+	 * @param lane admission priority of the request
+	 * @param timeout time budget in milliseconds, 0 for the default, counted from the call so that it
+	 * includes the time spent queued
+	 * @return a future completed with the analysis results, or exceptionally with an {@link EumssiException};
+	 * if it is cancelled before the analysis started, the text is not analyzed, otherwise the analyzing thread
+	 * is interrupted, which abandons its engine so the pipeline stops after the current stage
+	 */
+	public CompletableFuture<AnalysisResult> analyzeAsync(String text, Annotators annotators,
+			AdmissionController.Lane lane, long timeout) {
+		return analyzeAsync(text, null, annotators, lane, timeout, false);
+	}
+
+	/**
+	 * analyzes a given text on a background thread, see {@link #analyzeAsync(String, Annotators, AdmissionController.Lane, long)}
+	 * @param language language of the text, "auto" to detect it, or null for the default
+	 */
+	public CompletableFuture<AnalysisResult> analyzeAsync(String text, String language, Annotators annotators,
+			AdmissionController.Lane lane, long timeout) {
+		return analyzeAsync(text, language, annotators, lane, timeout, false);
+	}
+
+	/**
+	 * extracts the results for a given text from its stored CAS on a background thread,
+	 * see {@link #reextract(String, String, Annotators)}
+	 * @param lane decides the threads it runs on, see {@link #analyzeAsync(String, Annotators, AdmissionController.Lane, long)}
+	 */
+	public CompletableFuture<AnalysisResult> reextractAsync(String text, String language, Annotators annotators,
+			AdmissionController.Lane lane) {
+		return analyzeAsync(text, language, annotators, lane, 0, true);
+	}
+
+	/**
+	 * analyzes a given text on the worker pool, as a bulk request, and sends the results to Solr
+	 * @param id unique key of the document in the Solr collection
+	 * @param text the text to analyze
+	 * @param language language of the text, "auto" to detect it, or null for the default
+	 * @param annotators annotators to run
+	 * @return a future completed with the analysis results once Solr acknowledged them,
+	 * or exceptionally with an {@link EumssiException}
+	 */
+	public CompletableFuture<AnalysisResult> indexAsync(String id, String text, String language, Annotators annotators) {
+		return indexAsync(id, text, language, annotators, false);
+	}
+
+	/**
+	 * @param reextract take the results from the stored CAS instead of running the pipeline
+	 * @see #indexAsync(String, String, String, Annotators)
+	 */
+	public CompletableFuture<AnalysisResult> indexAsync(String id, String text, String language, Annotators annotators,
+			boolean reextract) {
+		if (this.solrSink == null) {
+			CompletableFuture<AnalysisResult> future = new CompletableFuture<AnalysisResult>();
+			future.completeExceptionally(new EumssiException(StatusType.ERROR));
+			return future;
+		}
+		return indexAsync(id, analyzeAsync(text, language, annotators, AdmissionController.Lane.BULK, 0, reextract));
+	}
+
+	/**
+	 * sends the results of an analysis to Solr once it is done
+	 * @param id unique key of the document in the Solr collection
+	 * @param analysis the running analysis of the document
+	 * @return a future completed with the analysis results once Solr acknowledged them, or
+	 * exceptionally with an {@link EumssiException}; cancelling it cancels the analysis
+	 */
+	public CompletableFuture<AnalysisResult> indexAsync(String id, CompletableFuture<AnalysisResult> analysis) {
+		SolrSink sink = this.solrSink;
+		CompletableFuture<AnalysisResult> indexed = new CompletableFuture<AnalysisResult>();
+		indexed.whenComplete((result, error) -> {
+			if (indexed.isCancelled()) {
+				analysis.cancel(true);
+			}
+		});
+		analysis.whenComplete((result, error) -> {
+			if (analysis.isCancelled()) {
+				indexed.cancel(false);
+			} else if (error != null) {
+				indexed.completeExceptionally(error);
+			} else if (sink == null) {
+				indexed.completeExceptionally(new EumssiException(StatusType.ERROR));
+			} else {
+				// the sink logged the failure
+				sink.add(id, result).whenComplete((acknowledged, failure) -> {
+					if (failure == null) {
+						indexed.complete(result);
+					} else {
+						indexed.completeExceptionally(new EumssiException(StatusType.ERROR_UNKNOWN));
+					}
+				});
+			}
+		});
+		return indexed;
+	}
+
+	/**
+	 * @param reextract take the results from the stored CAS instead of running the pipeline
+	 */
+	private CompletableFuture<AnalysisResult> analyzeAsync(String text, String language, Annotators annotators,
+			AdmissionController.Lane lane, long timeout, boolean reextract) {
+		CompletableFuture<AnalysisResult> future = new CompletableFuture<AnalysisResult>();
+		ExecutorService target = lane == AdmissionController.Lane.INTERACTIVE ? this.requestExecutor : this.executor;
+		long budget = timeout > 0 ? Math.min(timeout, this.requestTimeoutMax) : this.requestTimeout;
+		long queued = System.nanoTime();
+		// the thread running the analysis, only set while it runs; cancelling the future does not interrupt it by itself
+		AtomicReference<Thread> running = new AtomicReference<Thread>();
+		future.whenComplete((result, error) -> {
+			if (future.isCancelled()) {
+				synchronized (running) {
+					Thread thread = running.get();
+					if (thread != null) {
+						thread.interrupt();
+					}
+				}
+			}
+		});
+		try {
+			target.execute(() -> {
+				synchronized (running) {
+					if (future.isDone()) {
+						// cancelled while queued, e.g. the client disconnected
+						return;
+					}
+					running.set(Thread.currentThread());
+				}
+				try {
+					long remaining = budget - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - queued);
+					if (remaining <= 0) {
+						MetricsRegistry.counter("eumssi_documents_total", "status=\"error\"").increment();
+						throw new EumssiException(StatusType.ERROR_TIMEOUT);
+					}
+					AnalysisResult result = reextract
+							? reextract(text, language, annotators)
+							: analyze(text, language, annotators, lane, remaining);
+					future.complete(result);
+				} catch (Throwable e) {
+					future.completeExceptionally(e);
+				} finally {
+					synchronized (running) {
+						running.set(null);
+					}
+					// an interrupt sent after the analysis finished must not hit the next task
+					Thread.interrupted();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			MetricsRegistry.counter("eumssi_admission_rejected_total", "reason=\"queue_full\"").increment();
+			future.completeExceptionally(new EumssiException(StatusType.ERROR_OVERLOADED, this.retryAfter));
+		}
+		return future;
+	}
+
+	/**
+	 * starts the analysis of the next pending document of a batch, and of the one after it once that is done
+	 * @param pending documents not yet started, the iterator is shared by all analyses of the batch
+	 * @param futures result futures of all documents, completed with the analyses
+	 */
+	private void submitNext(Iterator<Entry<String, String>> pending, Map<String, CompletableFuture<AnalysisResult>> futures,
+			String language, Annotators annotators, boolean index, boolean reextract) {
+		while (true) {
+			Entry<String, String> document;
+			synchronized (pending) {
+				if (!pending.hasNext()) {
+					return;
+				}
+				document = pending.next();
+			}
+			CompletableFuture<AnalysisResult> result = futures.get(document.getKey());
+			if (result.isDone()) {
+				// the batch was cancelled
+				continue;
+			}
+			CompletableFuture<AnalysisResult> analysis = analyzeAsync(document.getValue(), language, annotators,
+					AdmissionController.Lane.BULK, 0, reextract);
+			// an indexed document is done once Solr acknowledged it, the next one starts as soon as it is analyzed
+			CompletableFuture<AnalysisResult> done = index ? indexAsync(document.getKey(), analysis) : analysis;
+			result.whenComplete((data, error) -> {
+				if (result.isCancelled()) {
+					done.cancel(true);
+				}
+			});
+			done.whenComplete((data, error) -> complete(result, done));
+			if (analysis.isDone()) {
+				// rejected right away, go on with the next document on this thread
+				continue;
+			}
+			analysis.whenComplete((data, error) -> submitNext(pending, futures, language, annotators, index, reextract));
+			return;
+		}
+	}
+
+	private static <T> void complete(CompletableFuture<T> target, CompletableFuture<T> source) {
+		try {
+			target.complete(source.join());
+		} catch (CompletionException e) {
+			target.completeExceptionally(e.getCause());
+		} catch (CancellationException e) {
+			target.cancel(false);
+		}
+	}
+
+	/**
+	 * analyzes a set of documents in parallel, using all engines of the pool
+	 * @param documents map of document id to text
+	 * @param annotators annotators to run
+	 * @return map of document id to analysis results, documents that failed are left out
+	 * @throws EumssiException
+	 */
+	public Map<String, AnalysisResult> analyzeBatch(Map<String, String> documents, Annotators annotators) throws EumssiException {
+		CompletableFuture<Map<String, AnalysisResult>> results = analyzeBatchAsync(documents, annotators);
+		try {
+			return results.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			results.cancel(true);
+			log.error("Interrupted while waiting for batch results", e);
+			throw new EumssiException(StatusType.ERROR_UNKNOWN);
+		} catch (ExecutionException e) {
+			log.error("Error collecting batch results", e.getCause());
+			throw new EumssiException(StatusType.ERROR_UNKNOWN);
+		}
+	}
+
+	/**
+	 * analyzes a set of documents in parallel, without blocking the calling thread
+	 * @param documents map of document id to text
+	 * @param annotators annotators to run
+	 * @return a future completed with the map of document id to analysis results, documents that
+	 * failed are left out; cancelling it cancels all documents, see {@link #analyzeAsync(String, Annotators, AdmissionController.Lane, long)}
+	 */
+	public CompletableFuture<Map<String, AnalysisResult>> analyzeBatchAsync(Map<String, String> documents, Annotators annotators) {
+		return analyzeBatchAsync(documents, null, annotators, false);
+	}
+
+	/**
+	 * analyzes a set of documents in parallel, without blocking the calling thread
+	 * @param documents map of document id to text
+	 * @param language language of the texts, "auto" to detect it for each one, or null for the default
+	 * @param annotators annotators to run
+	 * @param index whether to send the results to Solr, each as soon as it is available,
+	 * with the document id as unique key; documents Solr did not acknowledge count as failed
+	 * @return a future completed with the map of document id to analysis results, documents that
+	 * failed are left out; cancelling it cancels all documents, see {@link #analyzeAsync(String, Annotators, AdmissionController.Lane, long)}
+	 */
+	public CompletableFuture<Map<String, AnalysisResult>> analyzeBatchAsync(Map<String, String> documents, String language,
+			Annotators annotators, boolean index) {
+		return analyzeBatchAsync(documents, language, annotators, index, false);
+	}
+
+	/**
+	 * @param reextract take the results from the stored CASes instead of running the pipeline
+	 * @see #analyzeBatchAsync(Map, String, Annotators, boolean)
+	 */
+	public CompletableFuture<Map<String, AnalysisResult>> analyzeBatchAsync(Map<String, String> documents, String language,
+			Annotators annotators, boolean index, boolean reextract) {
+		Map<String, CompletableFuture<AnalysisResult>> futures = new LinkedHashMap<String, CompletableFuture<AnalysisResult>>();
+		for (String id : documents.keySet()) {
+			futures.put(id, new CompletableFuture<AnalysisResult>());
+		}
+		// like a stream, at most streamMaxInFlight documents are queued or analyzed at a time
+		Iterator<Entry<String, String>> pending = documents.entrySet().iterator();
+		for (int i = 0; i < Math.max(1, this.streamMaxInFlight); i++) {
+			submitNext(pending, futures, language, annotators, index, reextract);
 		}
+		CompletableFuture<Map<String, AnalysisResult>> results = CompletableFuture
+				.allOf(futures.values().toArray(new CompletableFuture<?>[futures.size()]))
+				.handle((done, error) -> {
+					Map<String, AnalysisResult> completed = new LinkedHashMap<String, AnalysisResult>();
+					for (Entry<String, CompletableFuture<AnalysisResult>> future : futures.entrySet()) {
+						try {
+							completed.put(future.getKey(), future.getValue().join());
+						} catch (CompletionException | CancellationException e) {
+							log.warn("Skipping document " + future.getKey(), e.getCause() != null ? e.getCause() : e);
+						}
+					}
+					return completed;
+				});
+		results.whenComplete((completed, error) -> {
+			if (results.isCancelled()) {
+				for (CompletableFuture<AnalysisResult> future : futures.values()) {
+					future.cancel(true);
+				}
+			}
+		});
+		return results;
+	}
+
+	/**
+	 * @return maximum number of documents of one stream that may be queued or in analysis at the same time
+	 */
+	public int getStreamMaxInFlight() {
+		return this.streamMaxInFlight;
 	}
 
 }
@@ -0,0 +1,151 @@
+package eu.eumssi.api.cbor.uima;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import eu.eumssi.api.json.uima.JSONMeta;
+import eu.eumssi.api.json.uima.JSONMeta.StatusType;
+import eu.eumssi.managers.uima.AnalysisResult;
+import eu.eumssi.managers.uima.DBpediaEntity;
+import eu.eumssi.managers.uima.Entity;
+import eu.eumssi.managers.uima.KeyPhrase;
+
+/**
+ * Writes responses with {@link CBORResultWriter} and reads them back with
+ * {@link CBORResultReader}, as a client would.
+ *
+ */
+public class CBORResultWriterTest {
+
+	private static Set<String> buckets(String... names) {
+		return new LinkedHashSet<String>(Arrays.asList(names));
+	}
+
+	private static AnalysisResult populated() {
+		List<DBpediaEntity> dbpedia = Arrays.asList(
+				new DBpediaEntity("Angela Merkel", "http://dbpedia.org/resource/Angela_Merkel",
+						"DBpedia:Person,Schema:Person", 0, 13, buckets("PERSON")),
+				new DBpediaEntity("Zürich", "http://dbpedia.org/resource/Zürich",
+						"DBpedia:City,DBpedia:Place", 100000, 100006, buckets("LOCATION", "CITY")),
+				new DBpediaEntity("Uncategorized", "http://dbpedia.org/resource/Uncategorized", "", 300, 313,
+						Collections.<String>emptySet()));
+		List<Entity> stanford = Arrays.asList(
+				new Entity("Angela Merkel", "PERSON", 0, 13, buckets("PERSON")),
+				new Entity("Москва", "LOCATION", 70000, 70006, buckets("LOCATION")));
+		List<KeyPhrase> kea = Arrays.asList(
+				new KeyPhrase("Merkel", "merkel", "merkel", 1, 0.875, 7, 13),
+				new KeyPhrase("Städte", "städte", "stadt", 2, 0.25, 65536, 65542));
+		return new AnalysisResult(dbpedia, stanford, kea, "meta.source.dbpediaResources:(Angela_Merkel)",
+				Collections.singleton("dbpedia"));
+	}
+
+	private static byte[] write(JSONMeta meta, Object data) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		CBORResultWriter.writeResponse(new CBORWriter(bytes), meta, data);
+		return bytes.toByteArray();
+	}
+
+	private static Map<String, Object> read(byte[] bytes) throws IOException {
+		return CBORResultReader.readResponse(new ByteArrayInputStream(bytes));
+	}
+
+	private static void assertEntities(List<? extends Entity> expected, List<? extends Entity> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getText(), actual.get(i).getText());
+			assertEquals(expected.get(i).getType(), actual.get(i).getType());
+			assertEquals(expected.get(i).getBegin(), actual.get(i).getBegin());
+			assertEquals(expected.get(i).getEnd(), actual.get(i).getEnd());
+			assertEquals(expected.get(i).getBuckets(), actual.get(i).getBuckets());
+			if (expected.get(i) instanceof DBpediaEntity) {
+				assertEquals(((DBpediaEntity) expected.get(i)).getUri(), ((DBpediaEntity) actual.get(i)).getUri());
+			}
+		}
+	}
+
+	private static void assertResult(AnalysisResult expected, AnalysisResult actual) {
+		if (expected.getDbpedia() == null) {
+			assertNull(actual.getDbpedia());
+		} else {
+			assertEntities(expected.getDbpedia(), actual.getDbpedia());
+		}
+		if (expected.getStanford() == null) {
+			assertNull(actual.getStanford());
+		} else {
+			assertEntities(expected.getStanford(), actual.getStanford());
+		}
+		if (expected.getKea() == null) {
+			assertNull(actual.getKea());
+		} else {
+			assertEquals(expected.getKea().size(), actual.getKea().size());
+			for (int i = 0; i < expected.getKea().size(); i++) {
+				KeyPhrase keyPhrase = expected.getKea().get(i);
+				KeyPhrase read = actual.getKea().get(i);
+				assertEquals(keyPhrase.getText(), read.getText());
+				assertEquals(keyPhrase.getKeyphrase(), read.getKeyphrase());
+				assertEquals(keyPhrase.getStemmed(), read.getStemmed());
+				assertEquals(keyPhrase.getRank(), read.getRank());
+				assertEquals(keyPhrase.getProbability(), read.getProbability(), 0);
+				assertEquals(keyPhrase.getBegin(), read.getBegin());
+				assertEquals(keyPhrase.getEnd(), read.getEnd());
+			}
+		}
+		assertEquals(expected.getSolrSimilarity(), actual.getSolrSimilarity());
+		assertEquals(expected.getIncomplete(), actual.getIncomplete());
+	}
+
+	@Test
+	public void roundTripsAnalysisResults() throws IOException {
+		AnalysisResult result = populated();
+		Map<String, Object> response = read(write(new JSONMeta(StatusType.SUCCESS, "analyzed successfully"), result));
+
+		Map<String, Object> meta = CBORResultReader.getMeta(response);
+		assertEquals("ok", meta.get("status"));
+		assertEquals("0", meta.get("code"));
+		assertEquals("analyzed successfully", meta.get("message"));
+		AnalysisResult read = CBORResultReader.toResult(response.get("data"));
+		assertResult(result, read);
+		assertTrue(read.isPartial());
+	}
+
+	@Test
+	public void roundTripsBatchResults() throws IOException {
+		Map<String, AnalysisResult> results = new LinkedHashMap<String, AnalysisResult>();
+		results.put("doc-2", populated());
+		results.put("döc-1", new AnalysisResult(null, Collections.<Entity>emptyList(), null, null));
+		Map<String, Object> response = read(write(new JSONMeta(StatusType.SUCCESS, "analyzed 2 of 2 documents"), results));
+
+		Map<String, AnalysisResult> read = CBORResultReader.toResults(response.get("data"));
+		assertEquals(Arrays.asList("doc-2", "döc-1"), Arrays.asList(read.keySet().toArray()));
+		assertResult(results.get("doc-2"), read.get("doc-2"));
+		AnalysisResult empty = read.get("döc-1");
+		assertResult(results.get("döc-1"), empty);
+		assertTrue(empty.getStanford().isEmpty());
+		assertFalse(empty.isPartial());
+	}
+
+	@Test
+	public void writesErrorsWithoutData() throws IOException {
+		Map<String, Object> response = read(write(new JSONMeta(StatusType.ERROR_TIMEOUT), null));
+
+		assertFalse(response.containsKey("data"));
+		assertEquals("error", CBORResultReader.getMeta(response).get("status"));
+		assertEquals("4", CBORResultReader.getMeta(response).get("code"));
+	}
+
+}
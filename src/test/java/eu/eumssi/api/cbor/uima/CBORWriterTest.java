@@ -0,0 +1,115 @@
+package eu.eumssi.api.cbor.uima;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Encodes single data items with {@link CBORWriter} and decodes them again with
+ * {@link CBORReader}, checking the encoding of integers and lengths of every size.
+ *
+ */
+public class CBORWriterTest {
+
+	private static byte[] encode(long value) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		new CBORWriter(bytes).value(value);
+		return bytes.toByteArray();
+	}
+
+	private static byte[] encode(String value) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		new CBORWriter(bytes).value(value);
+		return bytes.toByteArray();
+	}
+
+	private static Object decode(int... bytes) throws IOException {
+		byte[] data = new byte[bytes.length];
+		for (int i = 0; i < bytes.length; i++) {
+			data[i] = (byte) bytes[i];
+		}
+		return decode(data);
+	}
+
+	private static Object decode(byte[] bytes) throws IOException {
+		return new CBORReader(new ByteArrayInputStream(bytes)).read();
+	}
+
+	@Test
+	public void roundTripsIntegersOfAllSizes() throws IOException {
+		long[] values = { 0, 23, 24, 255, 256, 65535, 65536, 0xffffffffL, 0x100000000L, Long.MAX_VALUE,
+				-1, -24, -25, -256, -257, -65537, -0x100000001L, Long.MIN_VALUE };
+		for (long value : values) {
+			assertEquals(Long.valueOf(value), decode(encode(value)));
+		}
+		assertEquals(1, encode(23).length);
+		assertEquals(2, encode(24).length);
+		assertEquals(5, encode(0xffffffffL).length);
+		assertEquals(9, encode(0x100000000L).length);
+		assertEquals(9, encode(Long.MIN_VALUE).length);
+	}
+
+	@Test
+	public void writesNegativeIntegersAsMajorTypeOne() throws IOException {
+		assertArrayEquals(new byte[] { 0x20 }, encode(-1));
+		assertArrayEquals(new byte[] { 0x37 }, encode(-24));
+		assertArrayEquals(new byte[] { 0x38, 0x18 }, encode(-25));
+		assertArrayEquals(new byte[] { 0x39, 0x01, (byte) 0xf3 }, encode(-500));
+		assertArrayEquals(new byte[] { 0x3b, 0x7f, -1, -1, -1, -1, -1, -1, -1 }, encode(Long.MIN_VALUE));
+	}
+
+	@Test
+	public void readsEightByteLengths() throws IOException {
+		assertEquals("abc", decode(0x7b, 0, 0, 0, 0, 0, 0, 0, 3, 'a', 'b', 'c'));
+		assertEquals(Arrays.asList(1L, -2L), decode(0x9b, 0, 0, 0, 0, 0, 0, 0, 2, 0x01, 0x21));
+		assertEquals(Collections.singletonMap("a", 5L), decode(0xbb, 0, 0, 0, 0, 0, 0, 0, 1, 0x61, 'a', 0x05));
+		assertEquals(Long.valueOf(0x100000000L), decode(0x1b, 0, 0, 0, 1, 0, 0, 0, 0));
+	}
+
+	@Test
+	public void encodesStringLengthsInBytes() throws IOException {
+		assertArrayEquals(new byte[] { 0x62, (byte) 0xc3, (byte) 0xbc }, encode("\u00fc"));
+		String[] values = { "Z\u00fcrich", "\u041c\u043e\u0441\u043a\u0432\u0430", "\u5317\u4eac", "\ud83d\ude00 emoji", "" };
+		for (String value : values) {
+			assertEquals(value, decode(encode(value)));
+		}
+		StringBuilder longText = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			longText.append("\u00fc");
+		}
+		byte[] encoded = encode(longText.toString());
+		// 400 bytes of UTF-8, behind a two byte length
+		assertEquals(0x79, encoded[0] & 0xff);
+		assertEquals(3 + 400, encoded.length);
+		assertEquals(longText.toString(), decode(encoded));
+	}
+
+	@Test
+	public void roundTripsOtherValues() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		CBORWriter out = new CBORWriter(bytes);
+		out.beginMap(4);
+		out.value("probability").value(0.125);
+		out.value("negative").value(-1.5);
+		out.value("flag").value(true);
+		out.value("missing").nullValue();
+		@SuppressWarnings("unchecked")
+		Map<String, Object> map = (Map<String, Object>) decode(bytes.toByteArray());
+
+		assertEquals(0.125, (Double) map.get("probability"), 0);
+		assertEquals(-1.5, (Double) map.get("negative"), 0);
+		assertEquals(Boolean.TRUE, map.get("flag"));
+		assertNull(map.get("missing"));
+		assertEquals(4, map.size());
+	}
+
+}
@@ -0,0 +1,51 @@
+package eu.eumssi.api.uima;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.text.ParseException;
+import java.util.Collections;
+import java.util.List;
+
+import javax.ws.rs.core.MediaType;
+
+import org.glassfish.jersey.message.internal.HttpHeaderReader;
+import org.junit.Test;
+
+/**
+ * Chooses between the JSON and the binary format for Accept headers parsed and sorted
+ * the way the container does.
+ *
+ */
+public class AnalyzeTest {
+
+	private static boolean acceptsBinary(String accept) throws ParseException {
+		List<? extends MediaType> acceptable = HttpHeaderReader.readAcceptMediaType(accept);
+		return Analyze.acceptsBinary(acceptable);
+	}
+
+	@Test
+	public void answersInJsonByDefault() throws ParseException {
+		assertFalse(Analyze.acceptsBinary(Collections.<MediaType>emptyList()));
+		assertFalse(acceptsBinary("*/*"));
+		assertFalse(acceptsBinary("application/*"));
+		assertFalse(acceptsBinary("text/html"));
+	}
+
+	@Test
+	public void answersInCborWhenPreferred() throws ParseException {
+		assertTrue(acceptsBinary("application/cbor"));
+		assertTrue(acceptsBinary("application/cbor, */*"));
+		assertTrue(acceptsBinary("text/html, application/cbor"));
+		assertFalse(acceptsBinary("application/json, application/cbor"));
+	}
+
+	@Test
+	public void followsQualityValues() throws ParseException {
+		assertTrue(acceptsBinary("application/json;q=0.5, application/cbor"));
+		assertTrue(acceptsBinary("*/*;q=0.1, application/cbor;q=0.9"));
+		assertFalse(acceptsBinary("application/cbor;q=0.5, application/json"));
+		assertFalse(acceptsBinary("application/cbor;q=0.2, */*;q=0.8"));
+	}
+
+}
@@ -0,0 +1,151 @@
+package eu.eumssi.managers.uima;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import javax.ws.rs.core.Response;
+
+import org.junit.Test;
+
+import eu.eumssi.api.json.uima.JSONMeta.StatusType;
+import eu.eumssi.api.json.uima.JSONResponse;
+import eu.eumssi.managers.uima.AdmissionController.Lane;
+
+/**
+ * Admits requests from both lanes concurrently, checking the order in which waiting
+ * requests get a slot and how rejected ones are reported to clients.
+ *
+ */
+public class AdmissionControllerTest {
+
+	private static final int RETRY_AFTER = 5;
+
+	private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!condition.getAsBoolean()) {
+			if (System.currentTimeMillis() > deadline) {
+				fail("timed out");
+			}
+			Thread.sleep(5);
+		}
+	}
+
+	/**
+	 * @return a started thread that records the lane once the request is admitted
+	 */
+	private static Thread request(AdmissionController admission, Lane lane, List<Lane> admitted) {
+		Thread thread = new Thread(() -> {
+			try {
+				admission.acquire(lane);
+				admitted.add(lane);
+			} catch (EumssiException e) {
+				// not admitted, the test fails on the missing lane
+			}
+		});
+		thread.start();
+		return thread;
+	}
+
+	private static EumssiException rejection(AdmissionController admission, Lane lane, long maxWait) {
+		try {
+			admission.acquire(lane, maxWait);
+		} catch (EumssiException e) {
+			return e;
+		}
+		fail("admitted");
+		return null;
+	}
+
+	@Test
+	public void admitsUpToTheLimit() throws EumssiException {
+		AdmissionController admission = new AdmissionController(2, 10, 1000, RETRY_AFTER);
+		admission.acquire(Lane.BULK);
+		admission.acquire(Lane.INTERACTIVE);
+		assertEquals(2, admission.getActiveCount());
+
+		EumssiException e = rejection(admission, Lane.INTERACTIVE, 20);
+		assertEquals(StatusType.ERROR_UNAVAILABLE, e.getStatusType());
+		assertEquals(RETRY_AFTER, e.getRetryAfter());
+		assertEquals(0, admission.getQueueDepth(Lane.INTERACTIVE));
+
+		admission.release();
+		admission.acquire(Lane.BULK);
+		admission.release();
+		admission.release();
+		assertEquals(0, admission.getActiveCount());
+	}
+
+	@Test
+	public void rejectsWhenTheQueueIsFull() throws Exception {
+		AdmissionController admission = new AdmissionController(1, 1, 5000, RETRY_AFTER);
+		List<Lane> admitted = new CopyOnWriteArrayList<Lane>();
+		admission.acquire(Lane.BULK);
+		Thread waiting = request(admission, Lane.BULK, admitted);
+		waitFor(() -> admission.getQueueDepth(Lane.BULK) == 1);
+
+		EumssiException e = rejection(admission, Lane.INTERACTIVE, 5000);
+		assertEquals(StatusType.ERROR_OVERLOADED, e.getStatusType());
+		assertEquals(RETRY_AFTER, e.getRetryAfter());
+
+		admission.release();
+		waiting.join(5000);
+		assertEquals(1, admitted.size());
+		assertEquals(1, admission.getActiveCount());
+	}
+
+	@Test
+	public void admitsInteractiveRequestsBeforeBulkOnes() throws Exception {
+		AdmissionController admission = new AdmissionController(1, 10, 5000, RETRY_AFTER);
+		List<Lane> admitted = new CopyOnWriteArrayList<Lane>();
+		admission.acquire(Lane.BULK);
+		Thread bulk = request(admission, Lane.BULK, admitted);
+		waitFor(() -> admission.getQueueDepth(Lane.BULK) == 1);
+		Thread interactive = request(admission, Lane.INTERACTIVE, admitted);
+		waitFor(() -> admission.getQueueDepth(Lane.INTERACTIVE) == 1);
+
+		admission.release();
+		interactive.join(5000);
+		assertEquals(1, admitted.size());
+		assertEquals(Lane.INTERACTIVE, admitted.get(0));
+		assertEquals(1, admission.getQueueDepth(Lane.BULK));
+
+		admission.release();
+		bulk.join(5000);
+		assertEquals(2, admitted.size());
+		assertEquals(Lane.BULK, admitted.get(1));
+		assertEquals(1, admission.getActiveCount());
+	}
+
+	@Test
+	public void bulkRequestsDoNotOvertakeWaitingOnes() throws Exception {
+		AdmissionController admission = new AdmissionController(2, 10, 5000, RETRY_AFTER);
+		admission.acquire(Lane.BULK);
+		admission.acquire(Lane.BULK);
+		List<Lane> admitted = new CopyOnWriteArrayList<Lane>();
+		Thread bulk = request(admission, Lane.BULK, admitted);
+		waitFor(() -> admission.getQueueDepth(Lane.BULK) == 1);
+
+		// the freed slot goes to the waiting request, not to a new one
+		admission.release();
+		bulk.join(5000);
+		assertEquals(1, admitted.size());
+		assertEquals(StatusType.ERROR_UNAVAILABLE, rejection(admission, Lane.BULK, 20).getStatusType());
+		assertEquals(2, admission.getActiveCount());
+	}
+
+	@Test
+	public void reportsRejectionsAsHttpErrorsWithRetryAfter() {
+		Response overloaded = new JSONResponse(new EumssiException(StatusType.ERROR_OVERLOADED, RETRY_AFTER)).toResponse();
+		assertEquals(429, overloaded.getStatus());
+		assertEquals(String.valueOf(RETRY_AFTER), overloaded.getHeaderString("Retry-After"));
+
+		Response unavailable = new JSONResponse(new EumssiException(StatusType.ERROR_UNAVAILABLE, RETRY_AFTER)).toResponse();
+		assertEquals(503, unavailable.getStatus());
+		assertEquals(String.valueOf(RETRY_AFTER), unavailable.getHeaderString("Retry-After"));
+	}
+
+}
@@ -0,0 +1,175 @@
+package eu.eumssi.managers.uima;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.apache.uima.UIMAException;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Stores documents, reopens the store and reads them back, also after damaging the data file
+ * the way a crash or a bad disk would.
+ *
+ */
+public class CasStoreTest {
+
+	private static final String BERLIN = "Merkel flew to Berlin.";
+
+	private static final String PARIS = "Hollande stayed in Paris.";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static void put(CasStore store, String text, String annotators) throws UIMAException, EumssiException {
+		JCas jCas = JCasFactory.createJCas();
+		jCas.setDocumentText(text);
+		store.put(text, "en", Annotators.parse(annotators), jCas);
+	}
+
+	/**
+	 * @return the document text of the stored CAS and the annotators it holds, or null if it is not stored
+	 */
+	private static String[] replay(CasStore store, String text) throws IOException, UIMAException {
+		return store.replay(text, "en", Annotators.ALL,
+				(jCas, stored) -> new String[] { jCas.getDocumentText(), stored.toString() });
+	}
+
+	private File dataFile() {
+		File[] files = this.folder.getRoot().listFiles((directory, name) -> name.endsWith(".dat"));
+		assertEquals(1, files.length);
+		return files[0];
+	}
+
+	@Test
+	public void readsDocumentsBackAfterReopening() throws Exception {
+		CasStore store = new CasStore(this.folder.getRoot());
+		put(store, BERLIN, "ner");
+		put(store, PARIS, "dbpedia");
+		store.close();
+
+		CasStore reopened = new CasStore(this.folder.getRoot());
+		assertEquals(2, reopened.size());
+		String[] berlin = replay(reopened, BERLIN);
+		assertEquals(BERLIN, berlin[0]);
+		assertEquals(Annotators.NER, berlin[1]);
+		assertEquals(PARIS, replay(reopened, PARIS)[0]);
+		assertNull(replay(reopened, "Not stored."));
+		assertNull(reopened.replay(BERLIN, "de", Annotators.ALL, (jCas, stored) -> jCas.getDocumentText()));
+		reopened.close();
+	}
+
+	@Test
+	public void storesDocumentsAgainOnlyWithMoreAnnotators() throws Exception {
+		CasStore store = new CasStore(this.folder.getRoot());
+		put(store, BERLIN, "dbpedia,ner");
+		put(store, BERLIN, "ner");
+		store.close();
+		long length = dataFile().length();
+
+		store = new CasStore(this.folder.getRoot());
+		put(store, BERLIN, "dbpedia");
+		store.close();
+		assertEquals(length, dataFile().length());
+
+		store = new CasStore(this.folder.getRoot());
+		put(store, BERLIN, "ner,kea");
+		store.close();
+		assertTrue(dataFile().length() > length);
+
+		store = new CasStore(this.folder.getRoot());
+		assertEquals(1, store.size());
+		Annotators stored = Annotators.parse(replay(store, BERLIN)[1]);
+		assertTrue(stored.contains(Annotators.KEA));
+		assertFalse(stored.contains(Annotators.DBPEDIA));
+		store.close();
+	}
+
+	@Test
+	public void skipsRecordsWithBadChecksums() throws Exception {
+		CasStore store = new CasStore(this.folder.getRoot());
+		put(store, BERLIN, "ner");
+		store.close();
+		long firstRecordEnd = dataFile().length();
+
+		store = new CasStore(this.folder.getRoot());
+		put(store, BERLIN, "ner,dbpedia");
+		put(store, PARIS, "ner");
+		store.close();
+		// flip a byte in the key of the second record of BERLIN
+		try (RandomAccessFile file = new RandomAccessFile(dataFile(), "rw")) {
+			file.seek(firstRecordEnd + 10);
+			int value = file.read();
+			file.seek(firstRecordEnd + 10);
+			file.write(value ^ 0xff);
+		}
+
+		store = new CasStore(this.folder.getRoot());
+		assertEquals(2, store.size());
+		String[] berlin = replay(store, BERLIN);
+		assertEquals(BERLIN, berlin[0]);
+		assertEquals(Annotators.NER, berlin[1]);
+		assertEquals(PARIS, replay(store, PARIS)[0]);
+		store.close();
+	}
+
+	@Test
+	public void skipsRecordsWithCorruptLengths() throws Exception {
+		CasStore store = new CasStore(this.folder.getRoot());
+		put(store, BERLIN, "ner");
+		put(store, PARIS, "ner");
+		store.close();
+		long length = dataFile().length();
+		// a length pointing past the end of the file, the record of PARIS follows
+		try (RandomAccessFile file = new RandomAccessFile(dataFile(), "rw")) {
+			file.writeInt(Integer.MAX_VALUE);
+		}
+
+		store = new CasStore(this.folder.getRoot());
+		assertEquals(length, dataFile().length());
+		assertEquals(1, store.size());
+		assertNull(replay(store, BERLIN));
+		assertEquals(PARIS, replay(store, PARIS)[0]);
+		put(store, BERLIN, "ner");
+		store.close();
+
+		store = new CasStore(this.folder.getRoot());
+		assertEquals(2, store.size());
+		assertEquals(BERLIN, replay(store, BERLIN)[0]);
+		store.close();
+	}
+
+	@Test
+	public void cutsOffIncompleteRecords() throws Exception {
+		CasStore store = new CasStore(this.folder.getRoot());
+		put(store, BERLIN, "ner");
+		store.close();
+		long length = dataFile().length();
+		// the start of a record that was being written when the service stopped
+		try (FileOutputStream out = new FileOutputStream(dataFile(), true)) {
+			out.write(new byte[] { 0, 0, 1, 0, 42, 42, 42 });
+		}
+
+		store = new CasStore(this.folder.getRoot());
+		assertEquals(length, dataFile().length());
+		assertEquals(1, store.size());
+		put(store, PARIS, "ner");
+		store.close();
+
+		store = new CasStore(this.folder.getRoot());
+		assertEquals(BERLIN, replay(store, BERLIN)[0]);
+		assertEquals(PARIS, replay(store, PARIS)[0]);
+		store.close();
+	}
+
+}
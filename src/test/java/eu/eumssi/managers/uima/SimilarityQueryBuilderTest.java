@@ -0,0 +1,84 @@
+package eu.eumssi.managers.uima;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Builds similarity queries from hand-made entity lists.
+ *
+ */
+public class SimilarityQueryBuilderTest {
+
+	private static final String RESOURCE = "http://dbpedia.org/resource/";
+
+	private static final String ESCAPED_RESOURCE = "http\\:\\/\\/dbpedia.org\\/resource\\/";
+
+	private static List<DBpediaEntity> dbpedia(String... resources) {
+		List<DBpediaEntity> entities = new ArrayList<DBpediaEntity>();
+		for (String resource : resources) {
+			entities.add(new DBpediaEntity(resource, RESOURCE + resource, "", 0, resource.length(),
+					Collections.<String>emptySet()));
+		}
+		return entities;
+	}
+
+	private static List<Entity> stanford(String... names) {
+		List<Entity> entities = new ArrayList<Entity>();
+		for (String name : names) {
+			entities.add(new Entity(name, "PERSON", 0, name.length(), Collections.singleton("PERSON")));
+		}
+		return entities;
+	}
+
+	@Test
+	public void returnsNullWithoutEntityLists() {
+		assertNull(new SimilarityQueryBuilder(0).build(null, null));
+		assertEquals("", new SimilarityQueryBuilder(0).build(dbpedia(), null));
+	}
+
+	@Test
+	public void boostsRepeatedTerms() {
+		String query = new SimilarityQueryBuilder(0).build(dbpedia("Berlin", "Angela_Merkel", "Berlin"),
+				stanford("Merkel", "Berlin", "Merkel", "Merkel"));
+
+		assertEquals(SimilarityQueryBuilder.DBPEDIA_FIELD + ":(" + ESCAPED_RESOURCE + "Berlin^2 "
+				+ ESCAPED_RESOURCE + "Angela_Merkel) "
+				+ SimilarityQueryBuilder.NER_FIELD + ":(Merkel^3 Berlin)", query);
+	}
+
+	@Test
+	public void escapesQuerySyntax() {
+		SimilarityQueryBuilder builder = new SimilarityQueryBuilder(0);
+		String query = builder.build(null, stanford("AT&T", "Barack Obama", "C++ (language)"));
+
+		assertEquals(SimilarityQueryBuilder.NER_FIELD + ":(AT\\&T Barack\\ Obama C\\+\\+\\ \\(language\\))", query);
+		assertEquals("Barack\\ Obama", builder.escape("Barack Obama"));
+	}
+
+	@Test
+	public void keepsTheMostFrequentTerms() {
+		String query = new SimilarityQueryBuilder(3).build(dbpedia("Paris", "Berlin", "Rome", "Berlin"),
+				stanford("Merkel", "Obama", "Obama"));
+
+		// of the terms occurring once, only the first one is kept
+		assertEquals(SimilarityQueryBuilder.DBPEDIA_FIELD + ":(" + ESCAPED_RESOURCE + "Paris "
+				+ ESCAPED_RESOURCE + "Berlin^2) "
+				+ SimilarityQueryBuilder.NER_FIELD + ":(Obama^2)", query);
+	}
+
+	@Test
+	public void keepsDbpediaAndNerTermsApart() {
+		String query = new SimilarityQueryBuilder(0).build(Arrays.asList(new DBpediaEntity("Obama", "Obama", "", 0, 5,
+				Collections.<String>emptySet())), stanford("Obama"));
+
+		assertEquals(SimilarityQueryBuilder.DBPEDIA_FIELD + ":(Obama) " + SimilarityQueryBuilder.NER_FIELD + ":(Obama)", query);
+	}
+
+}
@@ -0,0 +1,212 @@
+package eu.eumssi.managers.uima;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.embedded.EmbeddedSolrServer;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Indexes results into an embedded Solr core with the fields of the EUMSSI collection,
+ * see <code>src/test/resources/solr</code>.
+ *
+ */
+public class SolrSinkTest {
+
+	private static final String CORE = "eumssi";
+
+	private static final Set<String> BUCKETS = new LinkedHashSet<String>(
+			Arrays.asList("LOCATION", "ORGANIZATION", "PERSON", "other"));
+
+	@ClassRule
+	public static TemporaryFolder dataDir = new TemporaryFolder();
+
+	private static EmbeddedSolrServer server;
+
+	@BeforeClass
+	public static void startSolr() throws Exception {
+		System.setProperty("solr.data.dir", dataDir.getRoot().getAbsolutePath());
+		Path home = Paths.get(SolrSinkTest.class.getResource("/solr").toURI());
+		server = new EmbeddedSolrServer(home, CORE);
+	}
+
+	@AfterClass
+	public static void stopSolr() throws IOException {
+		server.close();
+	}
+
+	/**
+	 * the embedded server, left open when the sink closes its client
+	 */
+	private static SolrClient client() {
+		return new SolrClient() {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public NamedList<Object> request(@SuppressWarnings("rawtypes") SolrRequest request, String collection)
+					throws SolrServerException, IOException {
+				return server.request(request, collection);
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+
+	private static SolrSink sink(SolrClient client) {
+		return new SolrSink(client, CORE, "id", 10, 60000, -1, BUCKETS, 1, 1);
+	}
+
+	private static DBpediaEntity dbpedia(String text, String resource, String bucket) {
+		return new DBpediaEntity(text, "http://dbpedia.org/resource/" + resource, "", 0, text.length(),
+				Collections.singleton(bucket));
+	}
+
+	private static SolrDocument index(String id, AnalysisResult result) throws Exception {
+		SolrSink sink = sink(client());
+		sink.add(id, result);
+		sink.close();
+		server.commit(CORE);
+		return server.getById(CORE, id);
+	}
+
+	@Test
+	public void writesResultsAsAtomicUpdates() throws Exception {
+		SolrInputDocument existing = new SolrInputDocument();
+		existing.addField("id", "doc1");
+		existing.addField("meta.source.headline", "Merkel in Berlin");
+		server.add(CORE, existing);
+		server.commit(CORE);
+
+		List<DBpediaEntity> dbpedia = Arrays.asList(dbpedia("Merkel", "Angela_Merkel", "PERSON"),
+				dbpedia("Berlin", "Berlin", "LOCATION"));
+		List<Entity> stanford = Arrays.asList(new Entity("Merkel", "PERSON", 0, 6, Collections.singleton("PERSON")));
+		List<KeyPhrase> kea = Arrays.asList(new KeyPhrase("chancellor", "chancellor", "chancellor", 1, 0.9, 0, 10));
+		SolrDocument document = index("doc1", new AnalysisResult(dbpedia, stanford, kea, null));
+
+		assertEquals("Merkel in Berlin", document.getFieldValue("meta.source.headline"));
+		assertEquals(Arrays.asList("http://dbpedia.org/resource/Angela_Merkel"),
+				document.getFieldValues(SolrSink.FIELD_PREFIX + "dbpedia.PERSON"));
+		assertEquals(Arrays.asList("http://dbpedia.org/resource/Berlin"),
+				document.getFieldValues(SolrSink.FIELD_PREFIX + "dbpedia.LOCATION"));
+		assertEquals(Arrays.asList("http://dbpedia.org/resource/Angela_Merkel", "http://dbpedia.org/resource/Berlin"),
+				document.getFieldValues(SolrSink.FIELD_PREFIX + "dbpedia.all"));
+		assertEquals(Arrays.asList("Merkel"), document.getFieldValues(SolrSink.FIELD_PREFIX + "ner.PERSON"));
+		assertEquals(Arrays.asList("chancellor"), document.getFieldValues(SolrSink.FIELD_PREFIX + "kea"));
+	}
+
+	@Test
+	public void clearsBucketsWithoutEntities() throws Exception {
+		List<KeyPhrase> kea = Arrays.asList(new KeyPhrase("summit", "summit", "summit", 1, 0.8, 0, 6));
+		index("doc2", new AnalysisResult(Arrays.asList(dbpedia("Berlin", "Berlin", "LOCATION")), null, kea, null));
+
+		// the second analysis only ran Spotlight, which found no location this time
+		SolrDocument document = index("doc2",
+				new AnalysisResult(Arrays.asList(dbpedia("Obama", "Barack_Obama", "PERSON")), null, null, null));
+
+		assertNull(document.getFieldValues(SolrSink.FIELD_PREFIX + "dbpedia.LOCATION"));
+		assertEquals(Arrays.asList("http://dbpedia.org/resource/Barack_Obama"),
+				document.getFieldValues(SolrSink.FIELD_PREFIX + "dbpedia.PERSON"));
+		assertEquals(Arrays.asList("http://dbpedia.org/resource/Barack_Obama"),
+				document.getFieldValues(SolrSink.FIELD_PREFIX + "dbpedia.all"));
+		assertEquals(Arrays.asList("summit"), document.getFieldValues(SolrSink.FIELD_PREFIX + "kea"));
+	}
+
+	@Test
+	public void countsRejectedBatchesAsFailed() {
+		LongAdder sent = MetricsRegistry.counter("eumssi_solr_documents_total", "status=\"sent\"");
+		LongAdder failed = MetricsRegistry.counter("eumssi_solr_documents_total", "status=\"failed\"");
+		long sentBefore = sent.sum();
+		long failedBefore = failed.sum();
+		SolrSink sink = sink(new SolrClient() {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public NamedList<Object> request(@SuppressWarnings("rawtypes") SolrRequest request, String collection)
+					throws SolrServerException {
+				throw new SolrServerException("collection not found");
+			}
+
+			@Override
+			public void close() {
+			}
+		});
+		CompletableFuture<Void> doc3 = sink.add("doc3", new AnalysisResult(null, null, null, null));
+		CompletableFuture<Void> doc4 = sink.add("doc4", new AnalysisResult(null, null, null, null));
+		sink.close();
+
+		assertEquals(sentBefore, sent.sum());
+		assertEquals(failedBefore + 2, failed.sum());
+		assertTrue(doc3.isCompletedExceptionally());
+		assertTrue(doc4.isCompletedExceptionally());
+	}
+
+	@Test
+	public void completesFuturesOnceSolrAcknowledged() throws Exception {
+		CountDownLatch answer = new CountDownLatch(1);
+		SolrSink sink = sink(new SolrClient() {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public NamedList<Object> request(@SuppressWarnings("rawtypes") SolrRequest request, String collection)
+					throws SolrServerException, IOException {
+				try {
+					answer.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				return server.request(request, collection);
+			}
+
+			@Override
+			public void close() {
+			}
+		});
+		CompletableFuture<Void> acknowledged = sink.add("doc5", new AnalysisResult(null, null, null, null));
+		sink.flush();
+
+		// the batch is being sent, but Solr did not answer yet
+		assertFalse(acknowledged.isDone());
+		answer.countDown();
+		acknowledged.get(10, TimeUnit.SECONDS);
+		sink.close();
+	}
+
+	@Test(expected = ExecutionException.class)
+	public void failsFuturesOfClosedSinks() throws Exception {
+		SolrSink sink = sink(client());
+		sink.close();
+		sink.add("doc6", new AnalysisResult(null, null, null, null)).get(10, TimeUnit.SECONDS);
+	}
+
+}
@@ -0,0 +1,124 @@
+package eu.eumssi.managers.uima;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Annotates texts through a {@link SpotlightStub}, including a slow, a failing and a
+ * stopped one.
+ *
+ */
+public class SpotlightClientTest {
+
+	private static final String TEXT = "Angela Merkel met Barack Obama in Berlin.";
+
+	private static final float CONFIDENCE = 0.35f;
+
+	private static final int TIMEOUT = 500;
+
+	private SpotlightStub stub;
+
+	private SpotlightClient client;
+
+	private SpotlightClient client(String endpoint, int cacheEntries) {
+		this.client = new SpotlightClient(endpoint, CONFIDENCE, false, 2, TIMEOUT, cacheEntries);
+		return this.client;
+	}
+
+	@After
+	public void stop() {
+		if (this.client != null) {
+			this.client.close();
+		}
+		if (this.stub != null) {
+			this.stub.stop();
+		}
+	}
+
+	/**
+	 * @return the exception the annotation failed with
+	 */
+	private static Throwable failure(SpotlightClient client, String text) throws InterruptedException {
+		try {
+			client.annotate(text).get(10, TimeUnit.SECONDS);
+		} catch (ExecutionException e) {
+			return e.getCause();
+		} catch (TimeoutException e) {
+			fail("request did not time out");
+		}
+		fail("annotated");
+		return null;
+	}
+
+	private static void assertResources(List<SpotlightResource> expected, List<SpotlightResource> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getUri(), actual.get(i).getUri());
+			assertEquals(expected.get(i).getTypes(), actual.get(i).getTypes());
+			assertEquals(expected.get(i).getBegin(), actual.get(i).getBegin());
+			assertEquals(expected.get(i).getEnd(), actual.get(i).getEnd());
+		}
+	}
+
+	@Test
+	public void annotatesTexts() throws Exception {
+		this.stub = new SpotlightStub(0);
+		List<SpotlightResource> resources = client(this.stub.getUrl(), 0).annotate(TEXT).get();
+
+		assertEquals(3, resources.size());
+		assertResources(SpotlightStub.resources(TEXT), resources);
+		assertEquals("http://dbpedia.org/resource/Angela_Merkel", resources.get(0).getUri());
+	}
+
+	@Test
+	public void answersRepeatedTextsFromTheCache() throws Exception {
+		this.stub = new SpotlightStub(0);
+		SpotlightClient client = client(this.stub.getUrl(), 10);
+		List<SpotlightResource> resources = client.annotate(TEXT).get();
+		this.stub.stop();
+
+		assertResources(resources, client.annotate(TEXT).get());
+		assertTrue(failure(client, "Paris is not cached.") instanceof IOException);
+	}
+
+	@Test
+	public void timesOutOnSlowResponses() throws Exception {
+		this.stub = new SpotlightStub(5 * TIMEOUT);
+		long start = System.nanoTime();
+		Throwable error = failure(client(this.stub.getUrl(), 0), TEXT);
+
+		assertTrue(String.valueOf(error), error instanceof SocketTimeoutException);
+		assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(5 * TIMEOUT));
+	}
+
+	@Test
+	public void failsOnHttpErrors() throws Exception {
+		this.stub = new SpotlightStub(0);
+		Throwable error = failure(client(this.stub.getUrl() + "/missing", 0), TEXT);
+
+		assertTrue(String.valueOf(error), error instanceof IOException);
+		assertEquals("Spotlight returned HTTP 404", error.getMessage());
+	}
+
+	@Test
+	public void failsWhenSpotlightIsDown() throws Exception {
+		this.stub = new SpotlightStub(0);
+		String endpoint = this.stub.getUrl();
+		this.stub.stop();
+		this.stub = null;
+
+		assertTrue(failure(client(endpoint, 0), TEXT) instanceof IOException);
+	}
+
+}
@@ -0,0 +1,167 @@
+package eu.eumssi.managers.uima;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in for the DBpedia Spotlight REST service, so that tests do not need a Spotlight
+ * server and benchmarks measure the service itself and not the network or the Spotlight server.
+ * The benchmarks module gets it from the test jar of the service.
+ * Every sequence of up to three capitalized words is returned as a resource, with types
+ * taken in turn from a fixed list. Responses can be delayed to simulate Spotlight latency.
+ *
+ */
+public class SpotlightStub {
+
+	private static final Pattern SURFACE_FORM = Pattern.compile("\\p{Lu}\\p{L}+(?: \\p{Lu}\\p{L}+){0,2}");
+
+	private static final String[] TYPES = {
+			"DBpedia:Agent,Schema:Person,Http://xmlns.com/foaf/0.1/Person,DBpedia:Person",
+			"Schema:Place,DBpedia:Place,DBpedia:PopulatedPlace,DBpedia:Settlement,Schema:City,DBpedia:City",
+			"DBpedia:Agent,Schema:Organization,DBpedia:Organisation",
+			"" };
+
+	private final HttpServer server;
+
+	private final ExecutorService executor;
+
+	private final long latencyMillis;
+
+	/**
+	 * Starts the stub on a free local port.
+	 * @param latencyMillis delay before each response
+	 * @throws IOException
+	 */
+	public SpotlightStub(long latencyMillis) throws IOException {
+		this.latencyMillis = latencyMillis;
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		this.server.createContext("/rest/annotate", this::annotate);
+		this.executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "spotlight-stub");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.server.setExecutor(this.executor);
+		this.server.start();
+	}
+
+	/**
+	 * @return REST endpoint of the stub, to be used as dbpediaUrl
+	 */
+	public String getUrl() {
+		return "http://127.0.0.1:" + this.server.getAddress().getPort() + "/rest";
+	}
+
+	/**
+	 * Stops the stub.
+	 */
+	public void stop() {
+		this.server.stop(0);
+		this.executor.shutdownNow();
+	}
+
+	/**
+	 * @param text the document text
+	 * @return the resources the stub finds in the text, in document order
+	 */
+	public static List<SpotlightResource> resources(String text) {
+		List<SpotlightResource> resources = new ArrayList<SpotlightResource>();
+		Matcher matcher = SURFACE_FORM.matcher(text);
+		for (int i = 0; matcher.find(); i++) {
+			resources.add(new SpotlightResource("http://dbpedia.org/resource/" + matcher.group().replace(' ', '_'),
+					TYPES[i % TYPES.length], matcher.start(), matcher.end()));
+		}
+		return resources;
+	}
+
+	/**
+	 * @param text the document text
+	 * @return the Spotlight JSON response for the text
+	 */
+	public static String annotate(String text) {
+		JsonArray resources = new JsonArray();
+		for (SpotlightResource found : resources(text)) {
+			JsonObject resource = new JsonObject();
+			resource.addProperty("@URI", found.getUri());
+			resource.addProperty("@support", "1000");
+			resource.addProperty("@types", found.getTypes());
+			resource.addProperty("@surfaceForm", text.substring(found.getBegin(), found.getEnd()));
+			resource.addProperty("@offset", Integer.toString(found.getBegin()));
+			resource.addProperty("@similarityScore", "0.99");
+			resource.addProperty("@percentageOfSecondRank", "0.01");
+			resources.add(resource);
+		}
+		JsonObject response = new JsonObject();
+		response.addProperty("@text", text);
+		response.addProperty("@confidence", "0.35");
+		response.add("Resources", resources);
+		return response.toString();
+	}
+
+	private void annotate(HttpExchange exchange) throws IOException {
+		try {
+			String parameters = exchange.getRequestURI().getRawQuery();
+			if ("POST".equals(exchange.getRequestMethod())) {
+				parameters = read(exchange.getRequestBody());
+			}
+			String text = parameter(parameters, "text");
+			if (text == null) {
+				exchange.sendResponseHeaders(400, -1);
+				return;
+			}
+			if (this.latencyMillis > 0) {
+				Thread.sleep(this.latencyMillis);
+			}
+			byte[] body = annotate(text).getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			exchange.sendResponseHeaders(503, -1);
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private static String read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+			out.write(buffer, 0, n);
+		}
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static String parameter(String parameters, String name) throws IOException {
+		if (parameters == null) {
+			return null;
+		}
+		for (String parameter : parameters.split("&")) {
+			int separator = parameter.indexOf('=');
+			if (separator > 0 && name.equals(parameter.substring(0, separator))) {
+				return URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8.name());
+			}
+		}
+		return null;
+	}
+
+}
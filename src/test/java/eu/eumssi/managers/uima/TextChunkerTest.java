@@ -0,0 +1,164 @@
+package eu.eumssi.managers.uima;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import eu.eumssi.managers.uima.TextChunker.Chunk;
+
+/**
+ * Splits generated texts into chunks and merges fake per-chunk results, checking that
+ * offsets are made relative to the whole document again.
+ *
+ */
+public class TextChunkerTest {
+
+	private static final int MAX_LENGTH = 100;
+
+	private static final int OVERLAP = 40;
+
+	private final TextChunker chunker = new TextChunker(MAX_LENGTH, OVERLAP);
+
+	/**
+	 * @return sentences of 33 or 34 characters, each mentioning Berlin once, so that
+	 * consecutive chunks share one sentence
+	 */
+	private static String sentences(int count) {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			text.append("Sentence ").append(i).append(" mentions Berlin once. ");
+		}
+		return text.toString();
+	}
+
+	/**
+	 * @return an entity for each occurrence of a word, as NER would find it in the text
+	 */
+	private static List<Entity> find(String text, String word) {
+		List<Entity> entities = new ArrayList<Entity>();
+		for (int begin = text.indexOf(word); begin >= 0; begin = text.indexOf(word, begin + 1)) {
+			entities.add(new Entity(word, "LOCATION", begin, begin + word.length(), Collections.singleton("LOCATION")));
+		}
+		return entities;
+	}
+
+	@Test
+	public void keepsShortTextsWhole() {
+		String text = sentences(2);
+		assertFalse(this.chunker.needsSplit(text));
+		List<Chunk> chunks = this.chunker.split(text, "en");
+		assertEquals(1, chunks.size());
+		assertEquals(0, chunks.get(0).getBegin());
+		assertEquals(text, chunks.get(0).getText());
+	}
+
+	@Test
+	public void splitsAtSentenceBoundariesWithOverlap() {
+		String text = sentences(20);
+		assertTrue(this.chunker.needsSplit(text));
+		List<Chunk> chunks = this.chunker.split(text, "en");
+		assertTrue(chunks.size() > 1);
+		assertEquals(0, chunks.get(0).getBegin());
+		boolean overlapping = false;
+		for (int i = 0; i < chunks.size(); i++) {
+			Chunk chunk = chunks.get(i);
+			int end = chunk.getBegin() + chunk.getText().length();
+			assertTrue(chunk.getText().length() <= MAX_LENGTH);
+			assertEquals(text.substring(chunk.getBegin(), end), chunk.getText());
+			if (i + 1 < chunks.size()) {
+				Chunk next = chunks.get(i + 1);
+				assertTrue(chunk.getText().endsWith(". "));
+				assertTrue(next.getText().startsWith("Sentence "));
+				assertTrue(next.getBegin() > chunk.getBegin());
+				assertTrue(next.getBegin() <= end);
+				assertTrue(end - next.getBegin() <= OVERLAP);
+				overlapping |= next.getBegin() < end;
+			} else {
+				assertEquals(text.length(), end);
+			}
+		}
+		assertTrue(overlapping);
+	}
+
+	@Test
+	public void splitsLongSentencesAtWhiteSpace() {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 60; i++) {
+			text.append("word ");
+		}
+		List<Chunk> chunks = this.chunker.split(text.toString(), "en");
+		assertTrue(chunks.size() > 1);
+		for (Chunk chunk : chunks) {
+			assertTrue(chunk.getText().length() <= MAX_LENGTH);
+			assertTrue(chunk.getText().startsWith("word"));
+		}
+	}
+
+	@Test
+	public void mergesEntitiesOnceWithDocumentOffsets() {
+		String text = sentences(20);
+		List<Chunk> chunks = this.chunker.split(text, "en");
+		List<AnalysisResult> results = new ArrayList<AnalysisResult>();
+		for (Chunk chunk : chunks) {
+			results.add(new AnalysisResult(null, find(chunk.getText(), "Berlin"), null, null));
+		}
+		AnalysisResult merged = this.chunker.merge(chunks, results);
+
+		List<Entity> expected = find(text, "Berlin");
+		List<Entity> stanford = merged.getStanford();
+		assertEquals(expected.size(), stanford.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getBegin(), stanford.get(i).getBegin());
+			assertEquals(expected.get(i).getEnd(), stanford.get(i).getEnd());
+			assertEquals("Berlin", text.substring(stanford.get(i).getBegin(), stanford.get(i).getEnd()));
+		}
+		assertNull(merged.getDbpedia());
+		assertNull(merged.getKea());
+	}
+
+	@Test
+	public void mergesKeyPhrasesByHighestProbability() {
+		String text = sentences(5);
+		List<Chunk> chunks = this.chunker.split(text, "en");
+		assertEquals(2, chunks.size());
+		Chunk second = chunks.get(1);
+		List<AnalysisResult> results = Arrays.asList(
+				new AnalysisResult(null, null, Arrays.asList(new KeyPhrase("Berlin", "berlin", "berlin", 1, 0.5, 20, 26)), null),
+				new AnalysisResult(null, null, Arrays.asList(
+						new KeyPhrase("Sentence", "sentence", "sentenc", 1, 0.7, 0, 8),
+						new KeyPhrase("Berlin", "berlin", "berlin", 2, 0.9, 20, 26)), null));
+		List<KeyPhrase> kea = this.chunker.merge(chunks, results).getKea();
+
+		assertEquals(2, kea.size());
+		assertEquals("berlin", kea.get(0).getKeyphrase());
+		assertEquals(1, kea.get(0).getRank());
+		assertEquals(0.9, kea.get(0).getProbability(), 0);
+		assertEquals(second.getBegin() + 20, kea.get(0).getBegin());
+		assertEquals(second.getBegin() + 26, kea.get(0).getEnd());
+		assertEquals("sentence", kea.get(1).getKeyphrase());
+		assertEquals(2, kea.get(1).getRank());
+		assertEquals(second.getBegin(), kea.get(1).getBegin());
+	}
+
+	@Test
+	public void leavesOutIncompleteSections() {
+		String text = sentences(5);
+		List<Chunk> chunks = this.chunker.split(text, "en");
+		List<AnalysisResult> results = Arrays.asList(
+				new AnalysisResult(null, find(chunks.get(0).getText(), "Berlin"), null, null),
+				new AnalysisResult(null, null, null, null, Collections.singleton(Annotators.NER)));
+		AnalysisResult merged = this.chunker.merge(chunks, results);
+
+		assertNull(merged.getStanford());
+		assertEquals(Collections.singleton(Annotators.NER), merged.getIncomplete());
+	}
+
+}